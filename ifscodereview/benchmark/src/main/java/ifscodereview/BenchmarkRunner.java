@@ -0,0 +1,24 @@
+package ifscodereview;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so that the allocation rate is reported next to the throughput.
+ * All JMH command line options are accepted, for example a benchmark name pattern or -p file=SalesPartData.ins.
+ *
+ * @author pardha
+ */
+public class BenchmarkRunner {
+
+   public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+      new Runner(new OptionsBuilder()
+              .parent(new CommandLineOptions(args))
+              .addProfiler(GCProfiler.class)
+              .build()).run();
+   }
+}
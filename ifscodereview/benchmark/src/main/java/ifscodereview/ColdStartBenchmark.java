@@ -0,0 +1,68 @@
+package ifscodereview;
+
+import ifscodereview.grammar.PlSqlLexer;
+import ifscodereview.grammar.PlSqlParser;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the latency of the first file a new JVM lexes and parses, with and without loading the DFA snapshot
+ * shipped with the tool, the load being part of the measured time, and with the IFS profile of the grammar or the full
+ * grammar, building the profile being part of the measured time as well. Every measurement runs in its own JVM,
+ * since the DFAs are static and every later file of a JVM profits from the earlier ones.
+ *
+ * @author pardha
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(5)
+@State(Scope.Benchmark)
+public class ColdStartBenchmark {
+
+   @Param({"true", "false"})
+   public boolean snapshot;
+
+   @Param({"CustomerOrderUtil.api", "CustomerOrderFlow.plsql", "CustomerOrderView.views", "SalesPartData.ins"})
+   public String file;
+
+   @Param({"ifs", "full"})
+   public String grammar;
+
+   private String code;
+
+   @Setup
+   public void setUp() throws IOException {
+      code = Corpus.read(file);
+      IfsGrammarProfile.setEnabled(grammar.equals("ifs"));
+      // Loading the lexer and parser classes deserializes their ATNs, which costs the same with or without the snapshot
+      new PlSqlLexer(CharStreams.fromString(""));
+      new PlSqlParser(new CommonTokenStream(new ListTokenSource(new ArrayList<>())));
+   }
+
+   @Benchmark
+   public PlSqlParser.Sql_scriptContext firstFile() throws IOException {
+      if (snapshot && DfaSnapshot.loadDefault() == 0) {
+         throw new IllegalStateException("The DFA snapshot does not match the grammar");
+      }
+      CommonTokenStream tokens = new CommonTokenStream(new PlSqlLexer(CharStreams.fromString(code)));
+      tokens.fill();
+      return ParseDriver.parse(tokens, PlSqlParser::sql_script).getTree();
+   }
+}
@@ -0,0 +1,56 @@
+package ifscodereview;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the emission of the comments found in a corpus file, in every output format of CommentWriter.
+ *
+ * @author pardha
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommentJsonBenchmark {
+
+   @Param({"CustomerOrderFlow.plsql", "SalesPartData.ins"})
+   public String file;
+
+   @Param({"GITHUB", "NDJSON", "SARIF"})
+   public String format;
+
+   private CommentGenerator commentGenerator;
+
+   @Setup
+   public void setUp() throws IOException {
+      Corpus.discardStandardOutput();
+      ReviewContext context = new ReviewContext("0123456789abcdef0123456789abcdef01234567", "corpus/" + file);
+      ParseTreeWalker.DEFAULT.walk(new IfsCodeReview.CodeCheckExtractor(context), Corpus.parse(Corpus.tokenize(Corpus.read(file))));
+      commentGenerator = context.getCommentGenerator();
+   }
+
+   @Benchmark
+   public int writeComments() throws IOException {
+      // The writer streams into a sink, so only the per-comment work is measured
+      try (CommentWriter writer = CommentWriter.create(CommentWriter.Format.valueOf(format), Writer.nullWriter())) {
+         writer.writeAll(commentGenerator);
+         return writer.getCount();
+      }
+   }
+}
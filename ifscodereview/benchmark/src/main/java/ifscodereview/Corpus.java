@@ -0,0 +1,72 @@
+package ifscodereview;
+
+import ifscodereview.grammar.PlSqlLexer;
+import ifscodereview.grammar.PlSqlParser;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.Token;
+
+/**
+ * Access to the benchmark corpus of representative IFS files in ifscodereview/corpus.
+ * The directory can be set with -Dcorpus.dir, otherwise it is looked up relative to the working directory.
+ *
+ * @author pardha
+ */
+final class Corpus {
+
+   private Corpus() {
+   }
+
+   static Path directory() {
+      String configuredDirectory = System.getProperty("corpus.dir");
+      if (configuredDirectory != null) {
+         return Paths.get(configuredDirectory);
+      }
+      for (String candidate : new String[]{"corpus", "../corpus"}) {
+         if (Files.isDirectory(Paths.get(candidate))) {
+            return Paths.get(candidate);
+         }
+      }
+      throw new IllegalStateException("Benchmark corpus not found, set -Dcorpus.dir");
+   }
+
+   static String read(String fileName) throws IOException {
+      return new String(Files.readAllBytes(directory().resolve(fileName)), StandardCharsets.UTF_8);
+   }
+
+   /**
+    * This method creates the character stream of a file as the tool does, so that the rules read the text of
+    * its tokens without copying it, see TokenText.
+    */
+   static CharStream charStream(String fileName, String code) throws CharacterCodingException {
+      return SourceFile.of(fileName, code.getBytes(StandardCharsets.UTF_8)).toCharStream();
+   }
+
+   static List<Token> tokenize(String code) throws CharacterCodingException {
+      CommonTokenStream tokens = new CommonTokenStream(new PlSqlLexer(charStream("", code)));
+      tokens.fill();
+      return tokens.getTokens();
+   }
+
+   static PlSqlParser.Sql_scriptContext parse(List<Token> tokens) {
+      return new PlSqlParser(new CommonTokenStream(new ListTokenSource(tokens))).sql_script();
+   }
+
+   /**
+    * This method silences the progress output the code checks print, so that it does not flood the benchmark output.
+    * The cost of formatting the output is still measured.
+    */
+   static void discardStandardOutput() {
+      System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+   }
+}
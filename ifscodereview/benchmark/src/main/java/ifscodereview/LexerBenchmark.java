@@ -0,0 +1,49 @@
+package ifscodereview;
+
+import ifscodereview.grammar.PlSqlLexer;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the tokenization of a corpus file by PlSqlLexer.
+ *
+ * @author pardha
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LexerBenchmark {
+
+   @Param({"CustomerOrderUtil.api", "CustomerOrderFlow.plsql", "CustomerOrderView.views", "SalesPartData.ins"})
+   public String file;
+
+   private String code;
+
+   @Setup
+   public void setUp() throws IOException {
+      code = Corpus.read(file);
+   }
+
+   @Benchmark
+   public int tokenize() {
+      CommonTokenStream tokens = new CommonTokenStream(new PlSqlLexer(CharStreams.fromString(code)));
+      tokens.fill();
+      return tokens.size();
+   }
+}
@@ -0,0 +1,46 @@
+package ifscodereview;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the token-only review of --lite on a corpus file: lexing plus the token rules, without the parser.
+ *
+ * @author pardha
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LiteReviewBenchmark {
+
+   @Param({"CustomerOrderUtil.api", "CustomerOrderFlow.plsql", "CustomerOrderView.views", "SalesPartData.ins"})
+   public String file;
+
+   private String code;
+
+   @Setup
+   public void setUp() throws IOException {
+      code = Corpus.read(file);
+   }
+
+   @Benchmark
+   public CommentGenerator liteReview() throws IOException {
+      ReviewContext context = new ReviewContext("", file);
+      LiteReview.reviewContent(context, Corpus.charStream(file, code));
+      return context.getCommentGenerator();
+   }
+}
@@ -0,0 +1,60 @@
+package ifscodereview;
+
+import ifscodereview.grammar.PlSqlParser;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.Token;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures PlSqlParser.sql_script on the tokens of a corpus file, which are lexed once up front,
+ * both with the default LL prediction and with the two-stage SLL-then-LL parse of ParseDriver, which tries
+ * the IFS profile of the grammar first unless grammar=full.
+ *
+ * @author pardha
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+
+   @Param({"CustomerOrderUtil.api", "CustomerOrderFlow.plsql", "CustomerOrderView.views", "SalesPartData.ins"})
+   public String file;
+
+   @Param({"ifs", "full"})
+   public String grammar;
+
+   private List<Token> tokens;
+
+   @Setup
+   public void setUp() throws IOException {
+      tokens = Corpus.tokenize(Corpus.read(file));
+      IfsGrammarProfile.setEnabled(grammar.equals("ifs"));
+   }
+
+   @Benchmark
+   public PlSqlParser.Sql_scriptContext parse() {
+      return Corpus.parse(tokens);
+   }
+
+   @Benchmark
+   public PlSqlParser.Sql_scriptContext parseSllFirst() {
+      return ParseDriver.parse(new CommonTokenStream(new ListTokenSource(tokens)), PlSqlParser::sql_script).getTree();
+   }
+}
@@ -0,0 +1,97 @@
+package ifscodereview;
+
+import ifscodereview.grammar.PlSqlLexer;
+import ifscodereview.grammar.PlSqlParser;
+import ifscodereview.grammar.PlSqlParserBaseListener;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the rule hot paths on their own: the IFS naming check of procedure and function names,
+ * and the built-in function lookup of the casing check, with the catalog and with the linear scan of the
+ * lexer literal names it replaced. The inputs are collected from the large package body of the corpus.
+ *
+ * @author pardha
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RuleBenchmark {
+
+   private final List<String> subprogramNames = new ArrayList<>();
+   private final List<Token> functionNames = new ArrayList<>();
+   private final List<String> literalNames = Arrays.asList(PlSqlLexer.getLiteralNames());
+
+   @Setup
+   public void setUp() throws IOException {
+      PlSqlParser.Sql_scriptContext tree = Corpus.parse(Corpus.tokenize(Corpus.read("CustomerOrderFlow.plsql")));
+      ParseTreeWalker.DEFAULT.walk(new PlSqlParserBaseListener() {
+         @Override
+         public void enterProcedure_name(PlSqlParser.Procedure_nameContext ctx) {
+            subprogramNames.add(ctx.getText());
+         }
+
+         @Override
+         public void enterFunction_name(PlSqlParser.Function_nameContext ctx) {
+            subprogramNames.add(ctx.getText());
+         }
+
+         @Override
+         public void enterString_function(PlSqlParser.String_functionContext ctx) {
+            functionNames.add(ctx.getStart());
+         }
+
+         @Override
+         public void enterNumeric_function(PlSqlParser.Numeric_functionContext ctx) {
+            functionNames.add(ctx.getStart());
+         }
+
+         @Override
+         public void enterGeneral_element_part(PlSqlParser.General_element_partContext ctx) {
+            if (ctx.function_argument() != null) {
+               functionNames.add(ctx.id_expression().getStart());
+            }
+         }
+      }, tree);
+   }
+
+   @Benchmark
+   public void isCustomPascalCase(Blackhole blackhole) {
+      for (String name : subprogramNames) {
+         blackhole.consume(IfsCodeReview.CodeCheckExtractor.isCustomPascalCase(name));
+      }
+   }
+
+   @Benchmark
+   public void builtInFunctionCatalog(Blackhole blackhole) {
+      for (Token name : functionNames) {
+         blackhole.consume(BuiltInFunctions.isBuiltIn(name));
+      }
+   }
+
+   @Benchmark
+   public void literalNameScan(Blackhole blackhole) {
+      for (Token name : functionNames) {
+         blackhole.consume(literalNames.contains("'" + name.getText().toUpperCase() + "'"));
+      }
+   }
+}
@@ -0,0 +1,57 @@
+package ifscodereview;
+
+import ifscodereview.grammar.PlSqlParser;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the walk of the review rules over the parse tree of a corpus file, which is parsed once up front.
+ * walk goes through the RuleDispatcher, listener lets the walker call every enter and exit method of CodeCheckExtractor.
+ *
+ * @author pardha
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WalkerBenchmark {
+
+   @Param({"CustomerOrderUtil.api", "CustomerOrderFlow.plsql", "CustomerOrderView.views", "SalesPartData.ins"})
+   public String file;
+
+   private PlSqlParser.Sql_scriptContext tree;
+
+   @Setup
+   public void setUp() throws IOException {
+      Corpus.discardStandardOutput();
+      tree = Corpus.parse(Corpus.tokenize(Corpus.read(file)));
+   }
+
+   @Benchmark
+   public CommentGenerator walk() {
+      ReviewContext context = new ReviewContext("", file);
+      ParseTreeWalker.DEFAULT.walk(new RuleDispatcher(context), tree);
+      return context.getCommentGenerator();
+   }
+
+   @Benchmark
+   public CommentGenerator listener() {
+      ReviewContext context = new ReviewContext("", file);
+      ParseTreeWalker.DEFAULT.walk(new IfsCodeReview.CodeCheckExtractor(context), tree);
+      return context.getCommentGenerator();
+   }
+}
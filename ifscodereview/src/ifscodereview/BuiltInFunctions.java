@@ -0,0 +1,135 @@
+package ifscodereview;
+
+import ifscodereview.grammar.PlSqlLexer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.Vocabulary;
+
+/**
+ * Catalog of the Oracle built-in functions, used by the casing checks.
+ * Most built-ins are keywords of the lexer and are looked up by token type in a table indexed by the type;
+ * the others are lexed as identifiers and are looked up by name in a case-insensitive open addressing hash set,
+ * which compares the characters in place instead of creating an uppercase copy of the name.
+ * Both tables are built once, when the class is loaded.
+ *
+ * @author pardha
+ */
+public class BuiltInFunctions {
+
+   private static final String[] NAMES = {
+      // Numeric functions
+      "ABS", "ACOS", "ASIN", "ATAN", "ATAN2", "BITAND", "CEIL", "COS", "COSH", "EXP", "FLOOR", "LN", "LOG", "MOD",
+      "NANVL", "POWER", "REMAINDER", "ROUND", "SIGN", "SIN", "SINH", "SQRT", "TAN", "TANH", "TRUNC", "WIDTH_BUCKET",
+      // Character functions
+      "ASCII", "CHR", "CONCAT", "INITCAP", "INSTR", "INSTRB", "LENGTH", "LENGTHB", "LOWER", "LPAD", "LTRIM", "NCHR",
+      "NLS_INITCAP", "NLS_LOWER", "NLS_UPPER", "NLSSORT", "REGEXP_COUNT", "REGEXP_INSTR", "REGEXP_LIKE",
+      "REGEXP_REPLACE", "REGEXP_SUBSTR", "REPLACE", "RPAD", "RTRIM", "SOUNDEX", "SUBSTR", "SUBSTRB", "TRANSLATE",
+      "TRIM", "UPPER",
+      // Datetime functions
+      "ADD_MONTHS", "EXTRACT", "FROM_TZ", "LAST_DAY", "MONTHS_BETWEEN", "NEW_TIME", "NEXT_DAY", "NUMTODSINTERVAL",
+      "NUMTOYMINTERVAL", "SYS_EXTRACT_UTC", "TZ_OFFSET",
+      // Conversion functions
+      "ASCIISTR", "BIN_TO_NUM", "CAST", "CHARTOROWID", "CONVERT", "HEXTORAW", "RAWTOHEX", "ROWIDTOCHAR",
+      "TO_BINARY_DOUBLE", "TO_BINARY_FLOAT", "TO_BLOB", "TO_CHAR", "TO_CLOB", "TO_DATE", "TO_DSINTERVAL", "TO_LOB",
+      "TO_MULTI_BYTE", "TO_NCHAR", "TO_NCLOB", "TO_NUMBER", "TO_SINGLE_BYTE", "TO_TIMESTAMP", "TO_TIMESTAMP_TZ",
+      "TO_YMINTERVAL", "UNISTR", "VALIDATE_CONVERSION",
+      // General comparison, NULL related and environment functions
+      "COALESCE", "DECODE", "DUMP", "EMPTY_BLOB", "EMPTY_CLOB", "GREATEST", "LEAST", "LNNVL", "NULLIF", "NVL", "NVL2",
+      "ORA_HASH", "STANDARD_HASH", "SYS_CONTEXT", "SYS_GUID", "USERENV", "VSIZE",
+      // Aggregate and analytic functions
+      "AVG", "COLLECT", "CORR", "COUNT", "COVAR_POP", "COVAR_SAMP", "CUME_DIST", "DENSE_RANK", "FIRST_VALUE", "LAG",
+      "LAST_VALUE", "LEAD", "LISTAGG", "MAX", "MEDIAN", "MIN", "NTH_VALUE", "NTILE", "PERCENT_RANK",
+      "PERCENTILE_CONT", "PERCENTILE_DISC", "RANK", "RATIO_TO_REPORT", "ROW_NUMBER", "STDDEV", "SUM", "VARIANCE",
+      // XML and JSON functions
+      "JSON_ARRAY", "JSON_OBJECT", "JSON_QUERY", "JSON_TABLE", "JSON_VALUE", "XMLAGG", "XMLCAST", "XMLCOLATTVAL",
+      "XMLELEMENT", "XMLEXISTS", "XMLFOREST"
+   };
+
+   private static final boolean[] BUILT_IN_TYPES = new boolean[PlSqlLexer.VOCABULARY.getMaxTokenType() + 1];
+   private static final String[] NAME_TABLE;
+
+   static {
+      NAME_TABLE = new String[Integer.highestOneBit(NAMES.length * 4)];
+      for (String name : NAMES) {
+         int i = hash(name) & (NAME_TABLE.length - 1);
+         while (NAME_TABLE[i] != null) {
+            i = (i + 1) & (NAME_TABLE.length - 1);
+         }
+         NAME_TABLE[i] = name;
+      }
+
+      Vocabulary vocabulary = PlSqlLexer.VOCABULARY;
+      for (int type = 1; type <= vocabulary.getMaxTokenType(); type++) {
+         String symbolicName = vocabulary.getSymbolicName(type);
+         if (symbolicName != null && containsName(symbolicName)) {
+            BUILT_IN_TYPES[type] = true;
+         }
+      }
+   }
+
+   /**
+    * This method checks whether a token is the name of a built-in function, by its token type
+    * if the name is a keyword of the lexer, otherwise by its text.
+    *
+    * @param token The token.
+    * @return true if the token names a built-in function, false otherwise.
+    */
+   public static boolean isBuiltIn(Token token) {
+      int type = token.getType();
+      if (type > 0 && type < BUILT_IN_TYPES.length && BUILT_IN_TYPES[type]) {
+         return true;
+      }
+      return type == PlSqlLexer.REGULAR_ID && containsName(TokenText.of(token));
+   }
+
+   /**
+    * This method checks whether a name is the name of a built-in function, ignoring case.
+    *
+    * @param name The name.
+    * @return true if the name is in the catalog, false otherwise.
+    */
+   public static boolean containsName(CharSequence name) {
+      int i = hash(name) & (NAME_TABLE.length - 1);
+      while (NAME_TABLE[i] != null) {
+         if (equalsIgnoreCase(NAME_TABLE[i], name)) {
+            return true;
+         }
+         i = (i + 1) & (NAME_TABLE.length - 1);
+      }
+      return false;
+   }
+
+   /**
+    * This method checks whether a name has no lowercase letters, without creating an uppercase copy of it.
+    *
+    * @param name The name.
+    * @return true if the name is in uppercase, false otherwise.
+    */
+   public static boolean isUpperCase(CharSequence name) {
+      for (int i = 0; i < name.length(); i++) {
+         if (Character.isLowerCase(name.charAt(i))) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private static int hash(CharSequence name) {
+      int hash = 0;
+      for (int i = 0; i < name.length(); i++) {
+         hash = 31 * hash + Character.toUpperCase(name.charAt(i));
+      }
+      return hash ^ (hash >>> 16);
+   }
+
+   private static boolean equalsIgnoreCase(String catalogName, CharSequence name) {
+      if (catalogName.length() != name.length()) {
+         return false;
+      }
+      for (int i = 0; i < name.length(); i++) {
+         if (catalogName.charAt(i) != Character.toUpperCase(name.charAt(i))) {
+            return false;
+         }
+      }
+      return true;
+   }
+}
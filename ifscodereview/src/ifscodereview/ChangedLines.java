@@ -0,0 +1,186 @@
+package ifscodereview;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Holds the lines changed by a pull request, per file, as read from a unified diff.
+ * Line numbers refer to the new version of each file.
+ *
+ * @author pardha
+ */
+public class ChangedLines {
+
+   private static final Pattern HUNK_HEADER = Pattern.compile("^@@ -\\d+(?:,(\\d+))? \\+(\\d+)(?:,(\\d+))? @@");
+
+   private final Map<String, NavigableSet<Integer>> changedLinesByPath = new HashMap<>();
+
+   /**
+    * This method reads the changed lines from a unified diff file.
+    *
+    * @param diffFile The path of the diff file.
+    * @return The changed lines of every file in the diff.
+    * @throws IOException If the diff file cannot be read.
+    */
+   public static ChangedLines fromDiffFile(String diffFile) throws IOException {
+      try ( BufferedReader reader = Files.newBufferedReader(Paths.get(diffFile), StandardCharsets.UTF_8)) {
+         return parse(reader);
+      }
+   }
+
+   /**
+    * This method reads the changed lines between two commits of the local git checkout.
+    *
+    * @param baseCommit The commit the pull request is based on.
+    * @param headCommit The commit being reviewed, or empty to compare against the working tree.
+    * @return The changed lines of every file changed between the commits.
+    * @throws IOException If git cannot be run or fails.
+    * @throws InterruptedException If waiting for git is interrupted.
+    */
+   public static ChangedLines fromGit(String baseCommit, String headCommit) throws IOException, InterruptedException {
+      List<String> command = new ArrayList<>(List.of("git", "diff", "--unified=0", "--no-color", "--no-ext-diff", baseCommit));
+      if (headCommit != null && !headCommit.isEmpty()) {
+         command.add(headCommit);
+      }
+
+      Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+      ChangedLines changedLines;
+      try ( BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+         changedLines = parse(reader);
+      }
+      int exitCode = process.waitFor();
+      if (exitCode != 0) {
+         throw new IOException("git diff " + baseCommit + " " + headCommit + " failed with exit code " + exitCode);
+      }
+      return changedLines;
+   }
+
+   private static ChangedLines parse(BufferedReader reader) throws IOException {
+      ChangedLines changedLines = new ChangedLines();
+      NavigableSet<Integer> currentLines = null;
+      int newLineNumber = 0;
+      int oldLinesLeft = 0;
+      int newLinesLeft = 0;
+
+      String line;
+      while ((line = reader.readLine()) != null) {
+         if (oldLinesLeft > 0 || newLinesLeft > 0) {
+            // Inside a hunk every line is content, even when it looks like a file header
+            if (line.startsWith("+")) {
+               addLine(currentLines, newLineNumber);
+               newLineNumber++;
+               newLinesLeft--;
+            } else if (line.startsWith("-")) {
+               // A removed line changes the code around the position it was removed from
+               addLine(currentLines, Math.max(1, newLineNumber));
+               oldLinesLeft--;
+            } else if (!line.startsWith("\\")) {
+               newLineNumber++;
+               oldLinesLeft--;
+               newLinesLeft--;
+            }
+         } else if (line.startsWith("+++ ")) {
+            String path = parseHeaderPath(line.substring(4));
+            if (path.equals("/dev/null")) {
+               // Deleted file, there is nothing left to review
+               currentLines = null;
+            } else {
+               if (path.startsWith("b/")) {
+                  path = path.substring(2);
+               }
+               currentLines = changedLines.changedLinesByPath.computeIfAbsent(normalizePath(path), key -> new TreeSet<>());
+            }
+         } else if (line.startsWith("@@")) {
+            Matcher matcher = HUNK_HEADER.matcher(line);
+            if (matcher.find()) {
+               oldLinesLeft = matcher.group(1) != null ? Integer.parseInt(matcher.group(1)) : 1;
+               newLineNumber = Integer.parseInt(matcher.group(2));
+               newLinesLeft = matcher.group(3) != null ? Integer.parseInt(matcher.group(3)) : 1;
+            }
+         }
+      }
+      return changedLines;
+   }
+
+   /**
+    * This method reads the path of a file header. diff -u follows the path with a tab and a timestamp, and git
+    * quotes paths with special or non-ASCII characters C-style, with the bytes of their UTF-8 encoding in octal.
+    */
+   private static String parseHeaderPath(String header) {
+      if (!header.startsWith("\"")) {
+         int tab = header.indexOf('\t');
+         return (tab >= 0 ? header.substring(0, tab) : header).trim();
+      }
+
+      ByteArrayOutputStream path = new ByteArrayOutputStream();
+      for (int i = 1; i < header.length() && header.charAt(i) != '"'; i++) {
+         char c = header.charAt(i);
+         if (c != '\\' || i + 1 >= header.length()) {
+            byte[] bytes = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+            path.write(bytes, 0, bytes.length);
+            continue;
+         }
+         c = header.charAt(++i);
+         if (c >= '0' && c <= '7') {
+            int end = i;
+            while (end < i + 3 && end < header.length() && header.charAt(end) >= '0' && header.charAt(end) <= '7') {
+               end++;
+            }
+            path.write(Integer.parseInt(header.substring(i, end), 8));
+            i = end - 1;
+         } else {
+            int escape = "abtnvfr".indexOf(c);
+            path.write(escape >= 0 ? "\u0007\b\t\n\u000B\f\r".charAt(escape) : c);
+         }
+      }
+      return new String(path.toByteArray(), StandardCharsets.UTF_8);
+   }
+
+   private static void addLine(NavigableSet<Integer> lines, int lineNumber) {
+      if (lines != null) {
+         lines.add(lineNumber);
+      }
+   }
+
+   /**
+    * This method returns the changed lines of a file.
+    * The file may be given with any path that ends with the path recorded in the diff.
+    *
+    * @param filePath The path of the file.
+    * @return The changed lines of the file, empty if the file is not part of the diff.
+    */
+   public NavigableSet<Integer> forFile(String filePath) {
+      String normalizedPath = normalizePath(filePath);
+      NavigableSet<Integer> lines = changedLinesByPath.get(normalizedPath);
+      if (lines != null) {
+         return lines;
+      }
+      for (Map.Entry<String, NavigableSet<Integer>> entry : changedLinesByPath.entrySet()) {
+         if (normalizedPath.endsWith("/" + entry.getKey())) {
+            return entry.getValue();
+         }
+      }
+      return new TreeSet<>();
+   }
+
+   private static String normalizePath(String path) {
+      String normalizedPath = path.replace('\\', '/');
+      while (normalizedPath.startsWith("./")) {
+         normalizedPath = normalizedPath.substring(2);
+      }
+      return normalizedPath;
+   }
+}
@@ -0,0 +1,182 @@
+package ifscodereview;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.json.JSONObject;
+
+/**
+ * Keeps the review from posting a finding again that is already on the pull request, since the tool runs on every push.
+ * A finding is identified by a fingerprint of its path, its body and the code of the line it is on, so that it
+ * keeps its fingerprint when lines are added or removed above it. Line numbers in the body are ignored for the same
+ * reason, and identical findings on identical lines of a file are told apart by their order. Local paths and the
+ * paths GitHub reports are both taken relative to the repository, see {@link ReviewEngine#toRepositoryPath(String)}.
+ * The fingerprint is added to every posted comment as a hidden marker, and comments without one, such as those
+ * posted by an older version of the tool, are fingerprinted from the last line of their diff hunk.
+ * Findings that are no longer found can be answered with a reply marking them fixed. A comment with such a reply
+ * no longer counts as posted, so that the finding is posted again when it comes back.
+ *
+ * @author pardha
+ */
+public class CommentDeduplicator {
+
+   private static final Pattern MARKER = Pattern.compile("\\s*<!-- ifs-code-review ([0-9a-f]+-\\d+) -->\\s*");
+   private static final String FIXED_MARKER = "<!-- ifs-code-review fixed -->";
+   private static final Pattern LINE_NUMBER = Pattern.compile("(Line No:\\s*)\\d+");
+
+   // The open comments of the tool and of others, by fingerprint, and the comments of the tool that may be marked fixed
+   private final Map<String, Long> postedComments = new HashMap<>();
+   private final Map<String, JSONObject> ownComments = new LinkedHashMap<>();
+   private final Set<String> foundFingerprints = new HashSet<>();
+   private final Map<String, List<String>> fileLines = new HashMap<>();
+   private int duplicateCount;
+
+   /**
+    * Creates a deduplicator for the comments already on a pull request.
+    *
+    * @param existingComments The review comments of the pull request, oldest first,
+    * see {@link GitHubReviewPoster#fetchComments(String, String, int)}.
+    */
+   public CommentDeduplicator(List<JSONObject> existingComments) {
+      Set<Long> fixedComments = new HashSet<>();
+      for (JSONObject comment : existingComments) {
+         if (!comment.isNull("in_reply_to_id") && comment.optString("body").contains(FIXED_MARKER)) {
+            fixedComments.add(comment.getLong("in_reply_to_id"));
+         }
+      }
+
+      Map<String, Integer> occurrences = new HashMap<>();
+      for (JSONObject comment : existingComments) {
+         if (!comment.isNull("in_reply_to_id") || fixedComments.contains(comment.getLong("id"))) {
+            continue;
+         }
+         Matcher marker = MARKER.matcher(comment.optString("body"));
+         if (marker.find()) {
+            postedComments.put(marker.group(1), comment.getLong("id"));
+            ownComments.put(marker.group(1), comment);
+         } else {
+            String code = lastLine(comment.optString("diff_hunk")).replaceFirst("^[-+ ]", "");
+            String fingerprint = fingerprint(ReviewEngine.toRepositoryPath(comment.optString("path")), comment.optString("body"), code, occurrences);
+            postedComments.putIfAbsent(fingerprint, comment.getLong("id"));
+         }
+      }
+   }
+
+   /**
+    * This method returns the findings not yet on the pull request, each with its fingerprint added to the body.
+    *
+    * @param comments All findings of the review.
+    * @return The findings to be posted.
+    */
+   public List<CommentGenerator.Comment> filterNew(List<CommentGenerator.Comment> comments) {
+      List<CommentGenerator.Comment> newComments = new ArrayList<>();
+      Map<String, Integer> occurrences = new HashMap<>();
+      for (CommentGenerator.Comment comment : comments) {
+         String code = getLine(comment.getFilePath(), comment.getLineNumber());
+         String fingerprint = fingerprint(ReviewEngine.toRepositoryPath(comment.getFilePath()), comment.getBody(), code, occurrences);
+         foundFingerprints.add(fingerprint);
+         if (postedComments.containsKey(fingerprint)) {
+            duplicateCount++;
+         } else {
+            newComments.add(new CommentGenerator.Comment(comment.getBody() + "\n\n<!-- ifs-code-review " + fingerprint + " -->",
+                    comment.getFilePath(), comment.getLineNumber(), comment.getCommitID()));
+         }
+      }
+      return newComments;
+   }
+
+   /**
+    * This method returns the replies marking the comments of the tool fixed whose finding was not found again
+    * by {@link #filterNew(List)}. Only comments on the given files are answered, since the findings of files
+    * that were not reviewed in full are not known.
+    *
+    * @param reviewedPaths The files reviewed in full.
+    * @param commitSHA The commit that was reviewed.
+    * @return The body of the reply to each comment, by comment id.
+    */
+   public Map<Long, String> findFixed(Collection<String> reviewedPaths, String commitSHA) {
+      Set<String> paths = new HashSet<>();
+      for (String reviewedPath : reviewedPaths) {
+         paths.add(ReviewEngine.toRepositoryPath(reviewedPath));
+      }
+      Map<Long, String> replies = new LinkedHashMap<>();
+      for (Map.Entry<String, JSONObject> comment : ownComments.entrySet()) {
+         String path = ReviewEngine.toRepositoryPath(comment.getValue().optString("path"));
+         if (!foundFingerprints.contains(comment.getKey()) && paths.contains(path)) {
+            replies.put(comment.getValue().getLong("id"), "Fixed in " + commitSHA + ".\n\n" + FIXED_MARKER);
+         }
+      }
+      return replies;
+   }
+
+   /**
+    * @return The number of open comments on the pull request, of the tool and of others.
+    */
+   public int getExistingCount() {
+      return postedComments.size();
+   }
+
+   /**
+    * @return The number of findings that were already on the pull request.
+    */
+   public int getDuplicateCount() {
+      return duplicateCount;
+   }
+
+   /**
+    * This method computes the fingerprint of a finding. The occurrences of every hash are counted,
+    * so that the second identical finding on an identical line gets another fingerprint than the first.
+    */
+   private static String fingerprint(String path, String body, String code, Map<String, Integer> occurrences) {
+      String normalizedBody = LINE_NUMBER.matcher(MARKER.matcher(body).replaceAll("")).replaceAll("$1#");
+      String hash = sha1(path + "\n" + normalize(normalizedBody) + "\n" + normalize(code)).substring(0, 16);
+      return hash + "-" + occurrences.merge(hash, 1, Integer::sum);
+   }
+
+   private static String normalize(String text) {
+      return text.trim().replaceAll("\\s+", " ").toLowerCase();
+   }
+
+   /**
+    * This method returns a line of a reviewed file, or an empty string if the file cannot be read.
+    *
+    * @param lineNumber The number of the line, starting at 1.
+    */
+   private String getLine(String filePath, int lineNumber) {
+      List<String> lines = fileLines.computeIfAbsent(filePath, path -> {
+         try {
+            // Decoded as the review decodes it, so the line matches the one the comment was found on
+            return List.of(SourceFile.read(path).toCharStream().toString().split("\r?\n", -1));
+         } catch (IOException | RuntimeException e) {
+            return List.of();
+         }
+      });
+      return lineNumber >= 1 && lineNumber <= lines.size() ? lines.get(lineNumber - 1) : "";
+   }
+
+   private static String lastLine(String text) {
+      String trimmed = text.stripTrailing();
+      return trimmed.substring(trimmed.lastIndexOf('\n') + 1);
+   }
+
+   private static String sha1(String text) {
+      try {
+         byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes(StandardCharsets.UTF_8));
+         return String.format("%040x", new BigInteger(1, digest));
+      } catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+}
@@ -1,7 +1,8 @@
 package ifscodereview;
 
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -16,39 +17,48 @@ public class CommentGenerator {
         comments.add(new Comment(body, filePath, lineNumber, commitID));
     }
 
+    public void addAll(CommentGenerator other) {
+        comments.addAll(other.comments);
+    }
+
+    public void truncate(int size) {
+        comments.subList(size, comments.size()).clear();
+    }
+
+    public int size() {
+        return comments.size();
+    }
+
+    public List<Comment> getComments() {
+        return comments;
+    }
+
     public void writeCommentsToFile(String filePath) {
-        String commentsJSON = generateCommentsJSON();
+        writeCommentsToFile(filePath, CommentWriter.Format.GITHUB);
+    }
 
-        try (FileWriter file = new FileWriter(filePath)) {
-            file.write(commentsJSON);
+    public void writeCommentsToFile(String filePath, CommentWriter.Format format) {
+        try (CommentWriter writer = CommentWriter.create(format, new FileOutputStream(filePath))) {
+            writer.writeAll(this);
             System.out.println("Comments have been written to " + filePath);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private String generateCommentsJSON() {
-        StringBuilder jsonBuilder = new StringBuilder("[");
-        for (int i = 0; i < comments.size(); i++) {
-            Comment comment = comments.get(i);
-            jsonBuilder.append("{");
-            jsonBuilder.append("\"body\": \"").append(comment.getBody()).append("\",");
-            jsonBuilder.append("\"path\": \"").append(comment.getFilePath().replace("\\", "\\\\")).append("\",");
-            jsonBuilder.append("\"position\": ").append(comment.getLineNumber()).append(",");
-            jsonBuilder.append("\"commit_id\": \"").append(comment.getCommitID()).append("\"");
-            jsonBuilder.append("}");
-
-            if (i < comments.size() - 1) {
-                jsonBuilder.append(",");
-            }
+    public String generateCommentsJSON() {
+        StringWriter json = new StringWriter();
+        try (CommentWriter writer = CommentWriter.create(CommentWriter.Format.GITHUB, json)) {
+            writer.writeAll(this);
+        } catch (IOException e) {
+            // A StringWriter never fails
+            e.printStackTrace();
         }
-        jsonBuilder.append("]");
-
-        return jsonBuilder.toString();
+        return json.toString();
     }
 
     // Inner class to represent a comment
-    private static class Comment {
+    public static class Comment {
         private final String body;
         private final String filePath;
         private final int lineNumber;
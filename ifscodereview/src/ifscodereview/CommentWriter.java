@@ -0,0 +1,262 @@
+package ifscodereview;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.StringJoiner;
+import org.json.JSONObject;
+
+/**
+ * Writes comments to a stream one at a time, as they are produced, so that the memory used does not grow
+ * with the number of comments. All strings are escaped as JSON strings.
+ * The output is complete once the writer is closed, which writes the closing brackets of the format.
+ *
+ * @author pardha
+ */
+public abstract class CommentWriter implements Closeable {
+
+   public enum Format {
+      // The JSON array the GitHub pull request comments API takes
+      GITHUB("comments.json"),
+      // One comment object per line, readable while the review is still running
+      NDJSON("comments.ndjson"),
+      // The Static Analysis Results Interchange Format, version 2.1.0
+      SARIF("comments.sarif");
+
+      private final String defaultFileName;
+
+      Format(String defaultFileName) {
+         this.defaultFileName = defaultFileName;
+      }
+
+      public String getDefaultFileName() {
+         return defaultFileName;
+      }
+
+      /**
+       * This method returns the format with the given name, ignoring case.
+       *
+       * @param name The name of the format: github, ndjson or sarif.
+       * @return The format.
+       * @throws IllegalArgumentException If there is no format with the name.
+       */
+      public static Format fromName(String name) {
+         return valueOf(name.trim().toUpperCase());
+      }
+   }
+
+   public static final String TOOL_NAME = "IfsCodeReview";
+   public static final String TOOL_URI = "https://github.com/pardhu23/IFS_Code_Review";
+
+   protected final Writer out;
+   protected int count = 0;
+
+   protected CommentWriter(Writer out) {
+      this.out = out;
+   }
+
+   /**
+    * This method creates a writer of the given format that writes UTF-8 to a stream.
+    *
+    * @param format The output format.
+    * @param output The stream written to, closed when the writer is closed.
+    * @return The comment writer.
+    * @throws IOException If the start of the output cannot be written.
+    */
+   public static CommentWriter create(Format format, OutputStream output) throws IOException {
+      return create(format, new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8)));
+   }
+
+   /**
+    * This method creates a writer of the given format that writes to a character stream.
+    *
+    * @param format The output format.
+    * @param out The character stream written to, closed when the writer is closed.
+    * @return The comment writer.
+    * @throws IOException If the start of the output cannot be written.
+    */
+   public static CommentWriter create(Format format, Writer out) throws IOException {
+      switch (format) {
+         case NDJSON:
+            return new NdjsonWriter(out);
+         case SARIF:
+            return new SarifWriter(out);
+         default:
+            return new GitHubJsonWriter(out);
+      }
+   }
+
+   /**
+    * This method writes a comment.
+    *
+    * @param comment The comment.
+    * @throws IOException If the comment cannot be written.
+    */
+   public abstract void write(CommentGenerator.Comment comment) throws IOException;
+
+   /**
+    * This method writes all comments of a comment generator, in the order they were found.
+    *
+    * @param commentGenerator The comments.
+    * @throws IOException If a comment cannot be written.
+    */
+   public void writeAll(CommentGenerator commentGenerator) throws IOException {
+      for (CommentGenerator.Comment comment : commentGenerator.getComments()) {
+         write(comment);
+      }
+   }
+
+   /**
+    * This method flushes the comments written so far to the underlying stream.
+    *
+    * @throws IOException If the stream cannot be flushed.
+    */
+   public void flush() throws IOException {
+      out.flush();
+   }
+
+   public int getCount() {
+      return count;
+   }
+
+   @Override
+   public void close() throws IOException {
+      out.close();
+   }
+
+   protected void writeString(String value) throws IOException {
+      JSONObject.quote(value != null ? value : "", out);
+   }
+
+   /**
+    * The JSON array of comments with body, path, position and commit_id, as posted to GitHub.
+    */
+   static class GitHubJsonWriter extends CommentWriter {
+
+      GitHubJsonWriter(Writer out) throws IOException {
+         super(out);
+         out.write('[');
+      }
+
+      @Override
+      public void write(CommentGenerator.Comment comment) throws IOException {
+         if (count++ > 0) {
+            out.write(',');
+         }
+         out.write("{\"body\": ");
+         writeString(comment.getBody());
+         out.write(",\"path\": ");
+         writeString(comment.getFilePath());
+         out.write(",\"position\": ");
+         out.write(Integer.toString(comment.getLineNumber()));
+         out.write(",\"commit_id\": ");
+         writeString(comment.getCommitID());
+         out.write('}');
+      }
+
+      @Override
+      public void close() throws IOException {
+         out.write(']');
+         super.close();
+      }
+   }
+
+   /**
+    * One JSON object per line, with the same fields as the GitHub JSON.
+    */
+   static class NdjsonWriter extends CommentWriter {
+
+      NdjsonWriter(Writer out) {
+         super(out);
+      }
+
+      @Override
+      public void write(CommentGenerator.Comment comment) throws IOException {
+         count++;
+         out.write("{\"body\":");
+         writeString(comment.getBody());
+         out.write(",\"path\":");
+         writeString(comment.getFilePath());
+         out.write(",\"position\":");
+         out.write(Integer.toString(comment.getLineNumber()));
+         out.write(",\"commit_id\":");
+         writeString(comment.getCommitID());
+         out.write("}\n");
+      }
+   }
+
+   /**
+    * A SARIF 2.1.0 log with one run, holding one result per comment.
+    * Comments carry no rule identifier, so all results refer to the one rule of the tool.
+    */
+   static class SarifWriter extends CommentWriter {
+
+      private static final String RULE_ID = "ifs-code-review";
+
+      SarifWriter(Writer out) throws IOException {
+         super(out);
+         out.write("{\"$schema\":\"https://json.schemastore.org/sarif-2.1.0.json\",\"version\":\"2.1.0\",\"runs\":[{");
+         out.write("\"tool\":{\"driver\":{\"name\":\"" + TOOL_NAME + "\",\"informationUri\":\"" + TOOL_URI + "\",");
+         out.write("\"rules\":[{\"id\":\"" + RULE_ID + "\",\"shortDescription\":{\"text\":\"IFS coding guidelines\"}}]}},");
+         out.write("\"results\":[");
+      }
+
+      @Override
+      public void write(CommentGenerator.Comment comment) throws IOException {
+         if (count++ > 0) {
+            out.write(',');
+         }
+         out.write("{\"ruleId\":\"" + RULE_ID + "\",\"level\":\"warning\",\"message\":{\"text\":");
+         writeString(comment.getBody());
+         out.write("},\"locations\":[{\"physicalLocation\":{\"artifactLocation\":{\"uri\":");
+         writeString(toArtifactUri(comment.getFilePath()));
+         out.write("},\"region\":{\"startLine\":");
+         out.write(Integer.toString(Math.max(1, comment.getLineNumber())));
+         out.write("}}}]");
+         if (comment.getCommitID() != null && !comment.getCommitID().isEmpty()) {
+            out.write(",\"properties\":{\"commit_id\":");
+            writeString(comment.getCommitID());
+            out.write('}');
+         }
+         out.write('}');
+      }
+
+      @Override
+      public void close() throws IOException {
+         out.write("]}]}");
+         super.close();
+      }
+
+      /**
+       * This method turns a file path into a SARIF artifact location, a URI reference with forward slashes and
+       * percent-encoded characters. Files under the working directory, usually the root of the repository, get a
+       * relative URI, which code scanning resolves against the repository. Other files get an absolute file URI.
+       *
+       * @param filePath The path of the file, as it was reviewed.
+       * @return The URI of the file.
+       */
+      static String toArtifactUri(String filePath) {
+         Path path = Path.of(filePath).toAbsolutePath().normalize();
+         Path workingDirectory = Path.of("").toAbsolutePath();
+         if (path.startsWith(workingDirectory) && !path.equals(workingDirectory)) {
+            StringJoiner relativePath = new StringJoiner("/");
+            for (Path name : workingDirectory.relativize(path)) {
+               relativePath.add(name.toString());
+            }
+            try {
+               return new URI(null, null, relativePath.toString(), null).getRawPath();
+            } catch (URISyntaxException e) {
+               // A first segment with a colon would read as a scheme, the file URI is used instead
+            }
+         }
+         return path.toUri().toString();
+      }
+   }
+}
@@ -0,0 +1,674 @@
+package ifscodereview;
+
+import ifscodereview.grammar.PlSqlLexer;
+import ifscodereview.grammar.PlSqlParser;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.RuntimeMetaData;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.ATNConfig;
+import org.antlr.v4.runtime.atn.ATNConfigSet;
+import org.antlr.v4.runtime.atn.ATNSimulator;
+import org.antlr.v4.runtime.atn.ArrayPredictionContext;
+import org.antlr.v4.runtime.atn.EmptyPredictionContext;
+import org.antlr.v4.runtime.atn.LexerATNConfig;
+import org.antlr.v4.runtime.atn.LexerAction;
+import org.antlr.v4.runtime.atn.LexerActionExecutor;
+import org.antlr.v4.runtime.atn.LexerIndexedCustomAction;
+import org.antlr.v4.runtime.atn.OrderedATNConfigSet;
+import org.antlr.v4.runtime.atn.PredictionContext;
+import org.antlr.v4.runtime.atn.PredictionContextCache;
+import org.antlr.v4.runtime.atn.SemanticContext;
+import org.antlr.v4.runtime.atn.SingletonPredictionContext;
+import org.antlr.v4.runtime.dfa.DFA;
+import org.antlr.v4.runtime.dfa.DFAState;
+
+/**
+ * A snapshot of the DFA states the lexer, the parser and the {@link IfsGrammarProfile} have learned, so that a new
+ * JVM does not pay for building them again. ANTLR caches the predictions of every decision in static DFAs shared by all lexers and
+ * parsers of a JVM, and building them is what makes the first files of a run parse several times slower than
+ * the later ones. The snapshot is only loaded by a JVM whose lexer and parser were generated from the same ATNs,
+ * see {@link ResultCache#GRAMMAR_VERSION}, with the same ANTLR runtime version, and only before anything was parsed.
+ * A snapshot of the corpus is shipped as a resource and loaded at startup; java IfsCodeReview --save-dfa-snapshot=file
+ * writes the DFAs learned while reviewing a training set of files.
+ * While the IFS profile parses the files, the DFAs of the full grammar are only read when a file first needs them.
+ *
+ * @author pardha
+ */
+public class DfaSnapshot {
+
+   public static final String DEFAULT_RESOURCE = "/ifscodereview/grammar/PlSqlDfa.snapshot";
+
+   private static final int MAGIC = 0x49465344; // "IFSD"
+   private static final int FORMAT_VERSION = 2;
+
+   // The sections of a snapshot, in the order they are written
+   private static final int LEXER = 0;
+   private static final int PARSER = 1;
+   private static final int PROFILE = 2;
+   private static final int SECTION_COUNT = 3;
+
+   // The parser section of the loaded snapshot, until a file needs the full grammar
+   private static volatile ByteBuffer deferredParserSection;
+
+   private static final int NO_STATE = -1;
+   private static final int ERROR_STATE = -2;
+
+   private static final int EMPTY_CONTEXT = 0;
+   private static final int SINGLETON_CONTEXT = 1;
+   private static final int ARRAY_CONTEXT = 2;
+
+   private static final int NONE_PREDICATE = 0;
+   private static final int PREDICATE = 1;
+   private static final int PRECEDENCE_PREDICATE = 2;
+   private static final int AND_PREDICATE = 3;
+   private static final int OR_PREDICATE = 4;
+
+   // Part of the equality of DFA states, but not accessible through the ANTLR API
+   private static final Field CONFLICTING_ALTS = getField(ATNConfigSet.class, "conflictingAlts");
+   private static final Field PASSED_THROUGH_NON_GREEDY_DECISION = getField(LexerATNConfig.class, "passedThroughNonGreedyDecision");
+
+   /**
+    * The static DFAs of the lexer, of the parser or of the IFS profile, together with the ATN they predict from.
+    */
+   private static class Recognizer {
+
+      private final ATN atn;
+      private final DFA[] decisionToDFA;
+      private final PredictionContextCache contextCache;
+      private final boolean lexer;
+
+      Recognizer(ATNSimulator interpreter, DFA[] decisionToDFA, boolean lexer) {
+         this.atn = interpreter.atn;
+         this.decisionToDFA = decisionToDFA;
+         this.contextCache = interpreter.getSharedContextCache();
+         this.lexer = lexer;
+      }
+
+      int getStateCount() {
+         int stateCount = 0;
+         for (DFA dfa : decisionToDFA) {
+            stateCount += dfa.states.size();
+         }
+         return stateCount;
+      }
+   }
+
+   private DfaSnapshot() {
+   }
+
+   /**
+    * This method writes the DFA states learned so far by the lexer, the parser and the IFS profile to a file.
+    * No file may be parsed while the snapshot is written.
+    *
+    * @param file The snapshot file, replaced atomically.
+    * @return The number of DFA states written.
+    * @throws IOException If the file cannot be written.
+    */
+   public static synchronized int save(Path file) throws IOException {
+      loadDeferred();
+      Recognizer[] recognizers = new Recognizer[SECTION_COUNT];
+      int stateCount = 0;
+      for (int section = 0; section < SECTION_COUNT; section++) {
+         recognizers[section] = getRecognizer(section);
+         stateCount += recognizers[section].getStateCount();
+      }
+      Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), "dfa", ".tmp");
+      try ( DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temporary))))) {
+         out.writeInt(MAGIC);
+         out.writeInt(FORMAT_VERSION);
+         out.writeUTF(RuntimeMetaData.VERSION);
+         out.writeUTF(ResultCache.GRAMMAR_VERSION);
+         out.writeUTF(IfsGrammarProfile.getVersion());
+         for (Recognizer recognizer : recognizers) {
+            // Every section starts with its length, so that it can be skipped and read later
+            ByteArrayOutputStream section = new ByteArrayOutputStream();
+            writeRecognizer(new DataOutputStream(section), recognizer);
+            out.writeInt(section.size());
+            section.writeTo(out);
+         }
+      } catch (IOException e) {
+         Files.deleteIfExists(temporary);
+         throw e;
+      }
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      return stateCount;
+   }
+
+   /**
+    * This method loads a snapshot file into the DFAs of the lexer, the parser and the IFS profile.
+    *
+    * @param file The snapshot file.
+    * @return The number of DFA states loaded, 0 if the snapshot does not match the grammar or something was parsed already.
+    * @throws IOException If the file cannot be read or is corrupt.
+    */
+   public static int load(Path file) throws IOException {
+      try ( InputStream in = Files.newInputStream(file)) {
+         return load(in);
+      }
+   }
+
+   /**
+    * This method loads the snapshot shipped with the tool, if there is one.
+    *
+    * @return The number of DFA states loaded, 0 if there is no snapshot or it does not match the grammar.
+    * @throws IOException If the snapshot cannot be read or is corrupt.
+    */
+   public static int loadDefault() throws IOException {
+      try ( InputStream in = DfaSnapshot.class.getResourceAsStream(DEFAULT_RESOURCE)) {
+         return in != null ? load(in) : 0;
+      }
+   }
+
+   /**
+    * This method loads a snapshot into the DFAs of the lexer and of the grammar files are parsed with: the IFS
+    * profile, or the full grammar when the profile is disabled. The DFAs of the full grammar are then only needed
+    * for the files the profile cannot parse, and are loaded before the first of them, see {@link #loadDeferred()}.
+    * The DFAs are only replaced once the snapshot was read, so that a corrupt snapshot leaves them as they were.
+    *
+    * @param stream The snapshot.
+    * @return The number of DFA states loaded, 0 if the snapshot does not match the grammar or something was parsed already.
+    * @throws IOException If the snapshot cannot be read or is corrupt.
+    */
+   public static synchronized int load(InputStream stream) throws IOException {
+      Recognizer lexer = getRecognizer(LEXER);
+      Recognizer parser = getRecognizer(PARSER);
+      Recognizer profile = IfsGrammarProfile.isEnabled() ? getRecognizer(PROFILE) : null;
+      if (lexer.getStateCount() + parser.getStateCount() + (profile != null ? profile.getStateCount() : 0) > 0) {
+         return 0;
+      }
+
+      // Decoded from memory, reading the snapshot a value at a time from a stream takes several times longer
+      ByteBuffer in;
+      try ( InputStream gzip = new GZIPInputStream(new BufferedInputStream(stream))) {
+         in = ByteBuffer.wrap(gzip.readAllBytes());
+      }
+
+      ByteBuffer[] sections = new ByteBuffer[SECTION_COUNT];
+      DFA[] lexerDFAs;
+      DFA[] parserDFAs;
+      try {
+         if (in.getInt() != MAGIC) {
+            throw new IOException("Not a DFA snapshot");
+         }
+         if (in.getInt() != FORMAT_VERSION || !RuntimeMetaData.VERSION.equals(readString(in))
+                 || !ResultCache.GRAMMAR_VERSION.equals(readString(in)) || !IfsGrammarProfile.getVersion().equals(readString(in))) {
+            return 0;
+         }
+         for (int section = 0; section < SECTION_COUNT; section++) {
+            int length = in.getInt();
+            sections[section] = in.slice(in.position(), length);
+            in.position(in.position() + length);
+         }
+         lexerDFAs = readRecognizer(sections[LEXER], lexer);
+         parserDFAs = profile != null ? readRecognizer(sections[PROFILE], profile) : readRecognizer(sections[PARSER], parser);
+      } catch (RuntimeException e) {
+         // A truncated snapshot, or a state or context number out of range
+         throw new IOException("Corrupt DFA snapshot: " + e, e);
+      }
+
+      System.arraycopy(lexerDFAs, 0, lexer.decisionToDFA, 0, lexer.decisionToDFA.length);
+      if (profile != null) {
+         System.arraycopy(parserDFAs, 0, profile.decisionToDFA, 0, profile.decisionToDFA.length);
+         deferredParserSection = sections[PARSER];
+         return lexer.getStateCount() + profile.getStateCount();
+      }
+      System.arraycopy(parserDFAs, 0, parser.decisionToDFA, 0, parser.decisionToDFA.length);
+      return lexer.getStateCount() + parser.getStateCount();
+   }
+
+   /**
+    * This method loads the DFAs of the full grammar from the snapshot, if they were left out while the IFS profile
+    * parses the files. It has to be called before anything is parsed with the full grammar.
+    */
+   static void loadDeferred() {
+      if (deferredParserSection == null) {
+         return;
+      }
+      synchronized (DfaSnapshot.class) {
+         ByteBuffer section = deferredParserSection;
+         if (section == null) {
+            return;
+         }
+         try {
+            Recognizer parser = getRecognizer(PARSER);
+            if (parser.getStateCount() == 0) {
+               DFA[] parserDFAs = readRecognizer(section, parser);
+               System.arraycopy(parserDFAs, 0, parser.decisionToDFA, 0, parser.decisionToDFA.length);
+            }
+         } catch (IOException | RuntimeException e) {
+            System.err.println("The DFA snapshot could not be loaded: Corrupt DFA snapshot: " + e);
+         } finally {
+            deferredParserSection = null;
+         }
+      }
+   }
+
+   /**
+    * This method returns the DFAs of a section of the snapshot. They are static, so any lexer and parser instance
+    * gives them.
+    */
+   private static Recognizer getRecognizer(int section) {
+      if (section == LEXER) {
+         PlSqlLexer lexer = new PlSqlLexer(CharStreams.fromString(""));
+         return new Recognizer(lexer.getInterpreter(), lexer.getInterpreter().decisionToDFA, true);
+      }
+      PlSqlParser parser = new PlSqlParser(new CommonTokenStream(new ListTokenSource(new ArrayList<>())));
+      if (section == PROFILE) {
+         IfsGrammarProfile.applyTo(parser);
+      }
+      return new Recognizer(parser.getInterpreter(), parser.getInterpreter().decisionToDFA, false);
+   }
+
+   private static void writeRecognizer(DataOutputStream out, Recognizer recognizer) throws IOException {
+      // The prediction contexts are shared between configurations, so they are written once, parents first
+      Map<PredictionContext, Integer> contextIds = new IdentityHashMap<>();
+      List<PredictionContext> contexts = new ArrayList<>();
+      for (DFA dfa : recognizer.decisionToDFA) {
+         for (DFAState state : dfa.states.keySet()) {
+            for (ATNConfig config : state.configs) {
+               collectContext(config.context, contextIds, contexts);
+            }
+         }
+      }
+      out.writeInt(contexts.size());
+      for (PredictionContext context : contexts) {
+         if (context == EmptyPredictionContext.Instance) {
+            out.writeByte(EMPTY_CONTEXT);
+         } else if (context instanceof SingletonPredictionContext) {
+            out.writeByte(SINGLETON_CONTEXT);
+            writeContextId(out, context.getParent(0), contextIds);
+            out.writeInt(context.getReturnState(0));
+         } else {
+            out.writeByte(ARRAY_CONTEXT);
+            out.writeInt(context.size());
+            for (int i = 0; i < context.size(); i++) {
+               writeContextId(out, context.getParent(i), contextIds);
+               out.writeInt(context.getReturnState(i));
+            }
+         }
+      }
+
+      out.writeInt(recognizer.decisionToDFA.length);
+      for (DFA dfa : recognizer.decisionToDFA) {
+         writeDFA(out, dfa, contextIds, recognizer);
+      }
+   }
+
+   private static void writeDFA(DataOutputStream out, DFA dfa, Map<PredictionContext, Integer> contextIds, Recognizer recognizer) throws IOException {
+      Map<DFAState, Integer> stateIds = new IdentityHashMap<>();
+      List<DFAState> states = new ArrayList<>(dfa.states.keySet());
+      out.writeInt(states.size());
+      for (DFAState state : states) {
+         stateIds.put(state, stateIds.size());
+         out.writeInt(state.stateNumber);
+         out.writeBoolean(state.isAcceptState);
+         out.writeInt(state.prediction);
+         out.writeBoolean(state.requiresFullContext);
+         writeLexerActionExecutor(out, state.lexerActionExecutor, recognizer.atn);
+         out.writeInt(state.predicates != null ? state.predicates.length : -1);
+         for (int i = 0; state.predicates != null && i < state.predicates.length; i++) {
+            writeSemanticContext(out, state.predicates[i].pred);
+            out.writeInt(state.predicates[i].alt);
+         }
+         writeConfigs(out, state.configs, contextIds, recognizer);
+      }
+      // The edges are written once all states are numbered, since they may point to any state
+      for (DFAState state : states) {
+         writeEdges(out, state.edges, stateIds);
+      }
+      if (dfa.isPrecedenceDfa()) {
+         writeEdges(out, dfa.s0.edges, stateIds);
+      } else {
+         out.writeInt(dfa.s0 != null ? stateIds.get(dfa.s0) : NO_STATE);
+      }
+   }
+
+   private static void writeConfigs(DataOutputStream out, ATNConfigSet configs, Map<PredictionContext, Integer> contextIds, Recognizer recognizer) throws IOException {
+      out.writeBoolean(configs.fullCtx);
+      out.writeInt(configs.uniqueAlt);
+      BitSet conflictingAltSet = (BitSet) getFieldValue(CONFLICTING_ALTS, configs);
+      long[] conflictingAlts = conflictingAltSet != null ? conflictingAltSet.toLongArray() : null;
+      out.writeInt(conflictingAlts != null ? conflictingAlts.length : -1);
+      for (int i = 0; conflictingAlts != null && i < conflictingAlts.length; i++) {
+         out.writeLong(conflictingAlts[i]);
+      }
+      out.writeBoolean(configs.hasSemanticContext);
+      out.writeBoolean(configs.dipsIntoOuterContext);
+      out.writeInt(configs.size());
+      for (ATNConfig config : configs) {
+         out.writeInt(config.state.stateNumber);
+         out.writeInt(config.alt);
+         writeContextId(out, config.context, contextIds);
+         out.writeInt(config.reachesIntoOuterContext);
+         writeSemanticContext(out, config.semanticContext);
+         if (recognizer.lexer) {
+            LexerATNConfig lexerConfig = (LexerATNConfig) config;
+            writeLexerActionExecutor(out, lexerConfig.getLexerActionExecutor(), recognizer.atn);
+            out.writeBoolean(lexerConfig.hasPassedThroughNonGreedyDecision());
+         }
+      }
+   }
+
+   private static void writeEdges(DataOutputStream out, DFAState[] edges, Map<DFAState, Integer> stateIds) throws IOException {
+      if (edges == null) {
+         out.writeInt(-1);
+         return;
+      }
+      int edgeCount = 0;
+      for (DFAState target : edges) {
+         if (target != null) {
+            edgeCount++;
+         }
+      }
+      out.writeInt(edges.length);
+      out.writeInt(edgeCount);
+      for (int i = 0; i < edges.length; i++) {
+         if (edges[i] != null) {
+            out.writeInt(i);
+            out.writeInt(edges[i] == ATNSimulator.ERROR ? ERROR_STATE : stateIds.get(edges[i]));
+         }
+      }
+   }
+
+   private static void writeSemanticContext(DataOutputStream out, SemanticContext context) throws IOException {
+      if (context == SemanticContext.Empty.Instance) {
+         out.writeByte(NONE_PREDICATE);
+      } else if (context instanceof SemanticContext.Predicate) {
+         SemanticContext.Predicate predicate = (SemanticContext.Predicate) context;
+         out.writeByte(PREDICATE);
+         out.writeInt(predicate.ruleIndex);
+         out.writeInt(predicate.predIndex);
+         out.writeBoolean(predicate.isCtxDependent);
+      } else if (context instanceof SemanticContext.PrecedencePredicate) {
+         out.writeByte(PRECEDENCE_PREDICATE);
+         out.writeInt(((SemanticContext.PrecedencePredicate) context).precedence);
+      } else {
+         SemanticContext.Operator operator = (SemanticContext.Operator) context;
+         out.writeByte(context instanceof SemanticContext.AND ? AND_PREDICATE : OR_PREDICATE);
+         out.writeInt(operator.getOperands().size());
+         for (SemanticContext operand : operator.getOperands()) {
+            writeSemanticContext(out, operand);
+         }
+      }
+   }
+
+   private static void writeLexerActionExecutor(DataOutputStream out, LexerActionExecutor executor, ATN atn) throws IOException {
+      if (executor == null) {
+         out.writeInt(-1);
+         return;
+      }
+      out.writeInt(executor.getLexerActions().length);
+      for (LexerAction action : executor.getLexerActions()) {
+         // Actions are written as their index in the ATN, custom actions together with the offset they run at
+         int offset = -1;
+         if (action instanceof LexerIndexedCustomAction) {
+            offset = ((LexerIndexedCustomAction) action).getOffset();
+            action = ((LexerIndexedCustomAction) action).getAction();
+         }
+         int actionIndex = indexOf(atn.lexerActions, action);
+         if (actionIndex < 0) {
+            throw new IOException("Lexer action " + action + " is not part of the ATN");
+         }
+         out.writeInt(offset);
+         out.writeInt(actionIndex);
+      }
+   }
+
+   private static void collectContext(PredictionContext context, Map<PredictionContext, Integer> contextIds, List<PredictionContext> contexts) {
+      if (context == null || contextIds.containsKey(context)) {
+         return;
+      }
+      // Deep context chains are walked with an explicit stack, parents are numbered before their children
+      List<PredictionContext> stack = new ArrayList<>();
+      stack.add(context);
+      while (!stack.isEmpty()) {
+         PredictionContext top = stack.get(stack.size() - 1);
+         boolean parentsDone = true;
+         for (int i = 0; i < top.size(); i++) {
+            PredictionContext parent = top.getParent(i);
+            if (parent != null && !contextIds.containsKey(parent)) {
+               stack.add(parent);
+               parentsDone = false;
+            }
+         }
+         if (parentsDone) {
+            stack.remove(stack.size() - 1);
+            if (!contextIds.containsKey(top)) {
+               contextIds.put(top, contexts.size());
+               contexts.add(top);
+            }
+         }
+      }
+   }
+
+   private static void writeContextId(DataOutputStream out, PredictionContext context, Map<PredictionContext, Integer> contextIds) throws IOException {
+      out.writeInt(context != null ? contextIds.get(context) : -1);
+   }
+
+   private static DFA[] readRecognizer(ByteBuffer in, Recognizer recognizer) throws IOException {
+      PredictionContext[] contexts = new PredictionContext[in.getInt()];
+      for (int i = 0; i < contexts.length; i++) {
+         int type = in.get();
+         if (type == EMPTY_CONTEXT) {
+            contexts[i] = EmptyPredictionContext.Instance;
+         } else if (type == SINGLETON_CONTEXT) {
+            PredictionContext parent = readContextId(in, contexts);
+            contexts[i] = SingletonPredictionContext.create(parent, in.getInt());
+         } else if (type == ARRAY_CONTEXT) {
+            PredictionContext[] parents = new PredictionContext[in.getInt()];
+            int[] returnStates = new int[parents.length];
+            for (int j = 0; j < parents.length; j++) {
+               parents[j] = readContextId(in, contexts);
+               returnStates[j] = in.getInt();
+            }
+            contexts[i] = new ArrayPredictionContext(parents, returnStates);
+         } else {
+            throw new IOException("Corrupt DFA snapshot: unknown prediction context type " + type);
+         }
+         // Shared with the contexts the parser creates, as if it had built them itself
+         if (!recognizer.lexer) {
+            contexts[i] = recognizer.contextCache.add(contexts[i]);
+         }
+      }
+
+      if (in.getInt() != recognizer.decisionToDFA.length) {
+         throw new IOException("Corrupt DFA snapshot: wrong number of decisions");
+      }
+      DFA[] decisionToDFA = new DFA[recognizer.decisionToDFA.length];
+      for (int decision = 0; decision < decisionToDFA.length; decision++) {
+         decisionToDFA[decision] = readDFA(in, new DFA(recognizer.atn.getDecisionState(decision), decision), contexts, recognizer);
+      }
+      return decisionToDFA;
+   }
+
+   private static DFA readDFA(ByteBuffer in, DFA dfa, PredictionContext[] contexts, Recognizer recognizer) throws IOException {
+      DFAState[] states = new DFAState[in.getInt()];
+      for (int i = 0; i < states.length; i++) {
+         DFAState state = new DFAState();
+         state.stateNumber = in.getInt();
+         state.isAcceptState = in.get() != 0;
+         state.prediction = in.getInt();
+         state.requiresFullContext = in.get() != 0;
+         state.lexerActionExecutor = readLexerActionExecutor(in, recognizer.atn);
+         int predicateCount = in.getInt();
+         if (predicateCount >= 0) {
+            state.predicates = new DFAState.PredPrediction[predicateCount];
+            for (int j = 0; j < predicateCount; j++) {
+               SemanticContext predicate = readSemanticContext(in);
+               state.predicates[j] = new DFAState.PredPrediction(predicate, in.getInt());
+            }
+         }
+         state.configs = readConfigs(in, contexts, recognizer);
+         states[i] = state;
+         dfa.states.put(state, state);
+      }
+      for (DFAState state : states) {
+         state.edges = readEdges(in, states);
+      }
+      if (dfa.isPrecedenceDfa()) {
+         dfa.s0.edges = readEdges(in, states);
+      } else {
+         int s0 = in.getInt();
+         dfa.s0 = s0 != NO_STATE ? states[s0] : null;
+      }
+      return dfa;
+   }
+
+   private static ATNConfigSet readConfigs(ByteBuffer in, PredictionContext[] contexts, Recognizer recognizer) throws IOException {
+      boolean fullCtx = in.get() != 0;
+      ATNConfigSet configs = recognizer.lexer ? new OrderedATNConfigSet() : new ATNConfigSet(fullCtx);
+      configs.uniqueAlt = in.getInt();
+      int conflictingAltsLength = in.getInt();
+      if (conflictingAltsLength >= 0) {
+         long[] conflictingAlts = new long[conflictingAltsLength];
+         for (int i = 0; i < conflictingAltsLength; i++) {
+            conflictingAlts[i] = in.getLong();
+         }
+         setField(CONFLICTING_ALTS, configs, BitSet.valueOf(conflictingAlts));
+      }
+      boolean hasSemanticContext = in.get() != 0;
+      boolean dipsIntoOuterContext = in.get() != 0;
+
+      int configCount = in.getInt();
+      for (int i = 0; i < configCount; i++) {
+         int stateNumber = in.getInt();
+         int alt = in.getInt();
+         PredictionContext context = readContextId(in, contexts);
+         int reachesIntoOuterContext = in.getInt();
+         SemanticContext semanticContext = readSemanticContext(in);
+         ATNConfig config;
+         if (recognizer.lexer) {
+            config = new LexerATNConfig(recognizer.atn.states.get(stateNumber), alt, context, readLexerActionExecutor(in, recognizer.atn));
+            setField(PASSED_THROUGH_NON_GREEDY_DECISION, config, in.get() != 0);
+         } else {
+            config = new ATNConfig(recognizer.atn.states.get(stateNumber), alt, context, semanticContext);
+         }
+         config.reachesIntoOuterContext = reachesIntoOuterContext;
+         // Added without looking for a configuration to merge with, there is none in a snapshot
+         configs.configs.add(config);
+      }
+      configs.hasSemanticContext = hasSemanticContext;
+      configs.dipsIntoOuterContext = dipsIntoOuterContext;
+      configs.setReadonly(true);
+      return configs;
+   }
+
+   private static DFAState[] readEdges(ByteBuffer in, DFAState[] states) throws IOException {
+      int length = in.getInt();
+      if (length < 0) {
+         return null;
+      }
+      DFAState[] edges = new DFAState[length];
+      int edgeCount = in.getInt();
+      for (int i = 0; i < edgeCount; i++) {
+         int index = in.getInt();
+         int target = in.getInt();
+         edges[index] = target == ERROR_STATE ? ATNSimulator.ERROR : states[target];
+      }
+      return edges;
+   }
+
+   private static SemanticContext readSemanticContext(ByteBuffer in) throws IOException {
+      int type = in.get();
+      switch (type) {
+         case NONE_PREDICATE:
+            return SemanticContext.Empty.Instance;
+         case PREDICATE:
+            return new SemanticContext.Predicate(in.getInt(), in.getInt(), in.get() != 0);
+         case PRECEDENCE_PREDICATE:
+            return new SemanticContext.PrecedencePredicate(in.getInt());
+         case AND_PREDICATE:
+         case OR_PREDICATE:
+            int operandCount = in.getInt();
+            SemanticContext result = readSemanticContext(in);
+            for (int i = 1; i < operandCount; i++) {
+               SemanticContext operand = readSemanticContext(in);
+               result = type == AND_PREDICATE ? new SemanticContext.AND(result, operand) : new SemanticContext.OR(result, operand);
+            }
+            return result;
+         default:
+            throw new IOException("Corrupt DFA snapshot: unknown semantic context type " + type);
+      }
+   }
+
+   private static LexerActionExecutor readLexerActionExecutor(ByteBuffer in, ATN atn) throws IOException {
+      int actionCount = in.getInt();
+      if (actionCount < 0) {
+         return null;
+      }
+      LexerAction[] actions = new LexerAction[actionCount];
+      for (int i = 0; i < actionCount; i++) {
+         int offset = in.getInt();
+         LexerAction action = atn.lexerActions[in.getInt()];
+         actions[i] = offset >= 0 ? new LexerIndexedCustomAction(offset, action) : action;
+      }
+      return new LexerActionExecutor(actions);
+   }
+
+   private static String readString(ByteBuffer in) {
+      byte[] bytes = new byte[in.getShort() & 0xFFFF];
+      in.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+
+   private static PredictionContext readContextId(ByteBuffer in, PredictionContext[] contexts) throws IOException {
+      int id = in.getInt();
+      return id >= 0 ? contexts[id] : null;
+   }
+
+   private static int indexOf(LexerAction[] actions, LexerAction action) {
+      for (int i = 0; actions != null && i < actions.length; i++) {
+         if (actions[i].equals(action)) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   private static Field getField(Class<?> type, String name) {
+      try {
+         Field field = type.getDeclaredField(name);
+         field.setAccessible(true);
+         return field;
+      } catch (ReflectiveOperationException e) {
+         throw new IllegalStateException("Unsupported ANTLR runtime: " + e);
+      }
+   }
+
+   private static Object getFieldValue(Field field, Object target) {
+      try {
+         return field.get(target);
+      } catch (IllegalAccessException e) {
+         throw new IllegalStateException("Unsupported ANTLR runtime: " + e);
+      }
+   }
+
+   private static void setField(Field field, Object target, Object value) {
+      try {
+         field.set(target, value);
+      } catch (IllegalAccessException e) {
+         throw new IllegalStateException("Unsupported ANTLR runtime: " + e);
+      }
+   }
+}
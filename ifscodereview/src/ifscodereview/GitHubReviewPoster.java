@@ -0,0 +1,518 @@
+package ifscodereview;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Posts the comments of a review to a GitHub pull request.
+ * All comments are submitted with one "create pull request review" call, split into several reviews
+ * only when there are more comments than fit in one chunk. A single HttpClient is shared by all requests.
+ * Requests are sent asynchronously, at most a given number at a time, and follow the rate limits of GitHub:
+ * all requests wait while X-RateLimit-Remaining is 0 until X-RateLimit-Reset, and for Retry-After after a 429
+ * or a 403 secondary rate limit response. Rate limited and failed requests are retried with exponential backoff
+ * and jitter. The latency of every request is recorded.
+ * The comments already on the pull request are listed with conditional requests: the ETag of every page is kept
+ * in a response cache on disk, and a page that did not change is answered with 304 Not Modified, which GitHub
+ * does not count against the rate limit.
+ *
+ * @author pardha
+ */
+public class GitHubReviewPoster {
+
+   public static final String DEFAULT_API_URL = "https://api.github.com";
+   public static final int DEFAULT_CHUNK_SIZE = 50;
+   public static final int DEFAULT_CONCURRENCY = 4;
+   public static final int DEFAULT_MAX_RETRIES = 5;
+   public static final long DEFAULT_BACKOFF_MILLIS = 1000;
+
+   private static final String REVIEWS_PATH = "/repos/{owner}/{repo}/pulls/{pull_number}/reviews";
+   private static final String COMMENTS_PATH = "/repos/{owner}/{repo}/pulls/{pull_number}/comments";
+   private static final String REPLIES_PATH = "/repos/{owner}/{repo}/pulls/{pull_number}/comments/{comment_id}/replies";
+   private static final int PAGE_SIZE = 100;
+   private static final Pattern NEXT_LINK = Pattern.compile("<([^>]+)>\\s*;\\s*rel=\"next\"");
+   private static final long MAX_BACKOFF_MILLIS = 60_000;
+
+   private final HttpClient client = HttpClient.newBuilder()
+           .version(HttpClient.Version.HTTP_2)
+           .connectTimeout(Duration.ofSeconds(30))
+           .build();
+   // Delays retries and waits for rate limits to reset without holding a thread per request
+   private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "github-poster");
+      thread.setDaemon(true);
+      return thread;
+   });
+   private final String apiUrl;
+   private final String token;
+   private final int chunkSize;
+   private final int concurrency;
+   private final int maxRetries;
+   private final long backoffMillis;
+   private final AtomicInteger requestCount = new AtomicInteger();
+   private final AtomicInteger retryCount = new AtomicInteger();
+   private final AtomicInteger failureCount = new AtomicInteger();
+   private final List<Long> latencyNanos = new ArrayList<>();
+   private Path responseCache;
+   // No request is sent before this time, set from the rate limit headers of the responses
+   private volatile long pausedUntilMillis = 0;
+
+   /**
+    * Creates a poster for the given GitHub API.
+    *
+    * @param apiUrl The base URL of the GitHub API, such as https://api.github.com or a local stub server.
+    * @param token The token used to authenticate.
+    * @param chunkSize The maximum number of comments submitted in one review.
+    */
+   public GitHubReviewPoster(String apiUrl, String token, int chunkSize) {
+      this(apiUrl, token, chunkSize, DEFAULT_CONCURRENCY, DEFAULT_MAX_RETRIES, DEFAULT_BACKOFF_MILLIS);
+   }
+
+   /**
+    * Creates a poster for the given GitHub API.
+    *
+    * @param apiUrl The base URL of the GitHub API, such as https://api.github.com or a local stub server.
+    * @param token The token used to authenticate.
+    * @param chunkSize The maximum number of comments submitted in one review.
+    * @param concurrency The maximum number of comments posted at the same time.
+    * @param maxRetries How often a rate limited or failed request is retried.
+    * @param backoffMillis The delay before the first retry, doubled for every further retry.
+    */
+   public GitHubReviewPoster(String apiUrl, String token, int chunkSize, int concurrency, int maxRetries, long backoffMillis) {
+      this.apiUrl = apiUrl.endsWith("/") ? apiUrl.substring(0, apiUrl.length() - 1) : apiUrl;
+      this.token = token;
+      this.chunkSize = Math.max(1, chunkSize);
+      this.concurrency = Math.max(1, concurrency);
+      this.maxRetries = Math.max(0, maxRetries);
+      this.backoffMillis = Math.max(1, backoffMillis);
+   }
+
+   /**
+    * This method submits the comments as pull request reviews, one review per chunk of comments.
+    * The reviews are submitted one after the other, so that their parts appear in order.
+    * GitHub rejects a whole review with 422 Unprocessable Entity when one of its comments is not on a line of the
+    * diff, so the comments of a rejected review are posted one by one, and only the invalid ones are lost.
+    *
+    * @param owner The owner of the repository.
+    * @param repo The name of the repository.
+    * @param pullNumber The number of the pull request.
+    * @param commitSHA The commit the comments refer to.
+    * @param comments The comments to be posted.
+    * @return The number of reviews and comments that could not be submitted.
+    * @throws InterruptedException If waiting for a response is interrupted.
+    */
+   public int postReview(String owner, String repo, int pullNumber, String commitSHA, List<CommentGenerator.Comment> comments) throws InterruptedException {
+      String url = apiUrl + expandPath(REVIEWS_PATH, owner, repo, pullNumber);
+
+      int failures = 0;
+      for (int start = 0; start < comments.size(); start += chunkSize) {
+         List<CommentGenerator.Comment> chunk = comments.subList(start, Math.min(start + chunkSize, comments.size()));
+
+         JSONArray reviewComments = new JSONArray();
+         for (CommentGenerator.Comment comment : chunk) {
+            reviewComments.put(toJSON(comment, false));
+         }
+
+         JSONObject review = new JSONObject();
+         review.put("commit_id", commitSHA);
+         review.put("event", "COMMENT");
+         review.put("body", "IFS code review found " + comments.size() + " issue(s)"
+                 + (comments.size() > chunkSize ? " (part " + (start / chunkSize + 1) + ")" : ""));
+         review.put("comments", reviewComments);
+
+         CompletableFuture<HttpResponse<String>> result = new CompletableFuture<>();
+         send(createRequest(url, review), 0, result, true);
+         HttpResponse<String> response = result.join();
+         if (response == null) {
+            failures++;
+         } else if (response.statusCode() == 422) {
+            System.err.println("Review with comments " + (start + 1) + " to " + (start + chunk.size()) + " was rejected: "
+                    + response.body() + ", posting the comments one by one");
+            failures += postComments(owner, repo, pullNumber, chunk);
+         }
+      }
+      return failures;
+   }
+
+   /**
+    * This method posts every comment with a separate request, as single pull request review comments.
+    * Several comments are posted at the same time, and the comments that could not be posted are reported.
+    *
+    * @param owner The owner of the repository.
+    * @param repo The name of the repository.
+    * @param pullNumber The number of the pull request.
+    * @param comments The comments to be posted.
+    * @return The number of comments that could not be posted.
+    * @throws InterruptedException If waiting for a response is interrupted.
+    */
+   public int postComments(String owner, String repo, int pullNumber, List<CommentGenerator.Comment> comments) throws InterruptedException {
+      String url = apiUrl + expandPath(COMMENTS_PATH, owner, repo, pullNumber);
+
+      Semaphore outstanding = new Semaphore(concurrency);
+      List<CompletableFuture<HttpResponse<String>>> results = new ArrayList<>();
+      for (CommentGenerator.Comment comment : comments) {
+         outstanding.acquire();
+         results.add(send(createRequest(url, toJSON(comment, true)), outstanding));
+      }
+
+      int failures = 0;
+      for (int i = 0; i < results.size(); i++) {
+         if (results.get(i).join() == null) {
+            failures++;
+            System.err.println("Could not post the comment on " + comments.get(i).getFilePath() + " line " + comments.get(i).getLineNumber());
+         }
+      }
+      return failures;
+   }
+
+   /**
+    * This method keeps the responses to the listing of the existing comments in a directory,
+    * so that the next run only asks GitHub whether they changed.
+    *
+    * @param directory The directory of the response cache, created if it does not exist.
+    * @throws IOException If the directory cannot be created.
+    */
+   public void setResponseCache(String directory) throws IOException {
+      responseCache = Files.createDirectories(Path.of(directory));
+   }
+
+   /**
+    * This method lists all review comments of a pull request, following the pages of the listing.
+    * Pages that did not change since the last run are taken from the response cache.
+    *
+    * @param owner The owner of the repository.
+    * @param repo The name of the repository.
+    * @param pullNumber The number of the pull request.
+    * @return The comments as returned by GitHub, oldest first.
+    * @throws IOException If a page cannot be fetched.
+    * @throws InterruptedException If waiting for a response is interrupted.
+    */
+   public List<JSONObject> fetchComments(String owner, String repo, int pullNumber) throws IOException, InterruptedException {
+      List<JSONObject> comments = new ArrayList<>();
+      String url = apiUrl + expandPath(COMMENTS_PATH, owner, repo, pullNumber) + "?per_page=" + PAGE_SIZE;
+      while (url != null) {
+         JSONObject cached = readCachedResponse(url);
+         HttpRequest.Builder request = newRequest(url).GET();
+         if (cached != null) {
+            request.header("If-None-Match", cached.getString("etag"));
+         }
+
+         CompletableFuture<HttpResponse<String>> result = new CompletableFuture<>();
+         send(request.build(), 0, result);
+         HttpResponse<String> response = result.join();
+         if (response == null) {
+            throw new IOException("Listing the comments of pull request " + pullNumber + " failed");
+         }
+
+         JSONObject page;
+         if (response.statusCode() == 304 && cached != null) {
+            page = cached;
+         } else {
+            page = new JSONObject();
+            page.put("etag", response.headers().firstValue("ETag").orElse(""));
+            page.put("link", response.headers().firstValue("Link").orElse(""));
+            page.put("body", response.body());
+            writeCachedResponse(url, page);
+         }
+         try {
+            JSONArray pageComments = new JSONArray(page.getString("body"));
+            for (int i = 0; i < pageComments.length(); i++) {
+               comments.add(pageComments.getJSONObject(i));
+            }
+         } catch (JSONException e) {
+            throw new IOException("Unexpected response to " + url + ": " + e.getMessage());
+         }
+
+         Matcher next = NEXT_LINK.matcher(page.getString("link"));
+         url = next.find() ? next.group(1) : null;
+      }
+      return comments;
+   }
+
+   /**
+    * This method replies to existing review comments, several at the same time.
+    *
+    * @param owner The owner of the repository.
+    * @param repo The name of the repository.
+    * @param pullNumber The number of the pull request.
+    * @param replies The body of the reply to each comment, by comment id.
+    * @return The number of replies that could not be posted.
+    * @throws InterruptedException If waiting for a response is interrupted.
+    */
+   public int replyToComments(String owner, String repo, int pullNumber, Map<Long, String> replies) throws InterruptedException {
+      Semaphore outstanding = new Semaphore(concurrency);
+      List<CompletableFuture<HttpResponse<String>>> results = new ArrayList<>();
+      for (Map.Entry<Long, String> reply : replies.entrySet()) {
+         String url = apiUrl + expandPath(REPLIES_PATH, owner, repo, pullNumber).replace("{comment_id}", String.valueOf(reply.getKey()));
+         JSONObject body = new JSONObject();
+         body.put("body", reply.getValue());
+         outstanding.acquire();
+         results.add(send(createRequest(url, body), outstanding));
+      }
+      return countFailures(results);
+   }
+
+   /**
+    * This method returns the number of HTTP requests sent so far, retries included.
+    *
+    * @return The number of requests.
+    */
+   public int getRequestCount() {
+      return requestCount.get();
+   }
+
+   public int getRetryCount() {
+      return retryCount.get();
+   }
+
+   /**
+    * @return The number of requests that failed after all retries.
+    */
+   public int getFailureCount() {
+      return failureCount.get();
+   }
+
+   /**
+    * This method returns the latency of every HTTP request sent so far, retries included, in the order they completed.
+    *
+    * @return The latencies in nanoseconds.
+    */
+   public synchronized List<Long> getLatencyNanos() {
+      return new ArrayList<>(latencyNanos);
+   }
+
+   /**
+    * This method sends a request holding a permit of the semaphore, which is released once the request completed.
+    */
+   private CompletableFuture<HttpResponse<String>> send(HttpRequest request, Semaphore outstanding) {
+      CompletableFuture<HttpResponse<String>> result = new CompletableFuture<>();
+      result.whenComplete((response, error) -> outstanding.release());
+      send(request, 0, result);
+      return result;
+   }
+
+   private static int countFailures(List<CompletableFuture<HttpResponse<String>>> results) {
+      int failures = 0;
+      for (CompletableFuture<HttpResponse<String>> result : results) {
+         if (result.join() == null) {
+            failures++;
+         }
+      }
+      return failures;
+   }
+
+   private HttpRequest createRequest(String url, JSONObject body) {
+      return newRequest(url)
+              .header("Content-Type", "application/json")
+              .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+              .build();
+   }
+
+   private HttpRequest.Builder newRequest(String url) {
+      return HttpRequest.newBuilder()
+              .uri(URI.create(url))
+              .timeout(Duration.ofSeconds(60))
+              .header("Authorization", "Bearer " + token)
+              .header("Accept", "application/vnd.github.v3+json");
+   }
+
+   private void send(HttpRequest request, int attempt, CompletableFuture<HttpResponse<String>> result) {
+      send(request, attempt, result, false);
+   }
+
+   /**
+    * This method sends a request once the rate limit allows it, and completes the result with the response when
+    * it succeeded or was not modified, or with null when it failed and cannot be retried any more.
+    *
+    * @param unprocessable true to complete the result with a 422 Unprocessable Entity response instead of failing,
+    * so the caller can split the request.
+    */
+   private void send(HttpRequest request, int attempt, CompletableFuture<HttpResponse<String>> result, boolean unprocessable) {
+      long waitMillis = pausedUntilMillis - System.currentTimeMillis();
+      if (waitMillis > 0) {
+         scheduler.schedule(() -> send(request, attempt, result, unprocessable), waitMillis, TimeUnit.MILLISECONDS);
+         return;
+      }
+
+      requestCount.incrementAndGet();
+      long startNanos = System.nanoTime();
+      client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, error) -> {
+         addLatency(System.nanoTime() - startNanos);
+         if (error != null) {
+            retryOrFail(request, attempt, result, unprocessable, 0, request.uri() + ": " + error.getMessage());
+            return;
+         }
+
+         long retryAfterMillis = updateRateLimit(response);
+         int status = response.statusCode();
+         if (status < 300 || status == 304 || (status == 422 && unprocessable)) {
+            result.complete(response);
+         } else if (isRetryable(response)) {
+            retryOrFail(request, attempt, result, unprocessable, retryAfterMillis, request.uri() + ": " + status + " " + response.body());
+         } else {
+            fail(result, request.uri() + ": " + status + " " + response.body());
+         }
+      });
+   }
+
+   private void retryOrFail(HttpRequest request, int attempt, CompletableFuture<HttpResponse<String>> result, boolean unprocessable,
+           long retryAfterMillis, String message) {
+      if (attempt >= maxRetries) {
+         fail(result, message);
+         return;
+      }
+      retryCount.incrementAndGet();
+      long delayMillis = Math.max(retryAfterMillis, backoff(attempt));
+      scheduler.schedule(() -> send(request, attempt + 1, result, unprocessable), delayMillis, TimeUnit.MILLISECONDS);
+   }
+
+   private void fail(CompletableFuture<HttpResponse<String>> result, String message) {
+      failureCount.incrementAndGet();
+      System.err.println("Request failed: " + message);
+      result.complete(null);
+   }
+
+   /**
+    * This method reads the last response to a listing request from the response cache.
+    *
+    * @return The ETag, Link header and body of the response, or null if it is not cached or cannot be read.
+    */
+   private JSONObject readCachedResponse(String url) {
+      if (responseCache == null) {
+         return null;
+      }
+      Path file = responseCache.resolve(cacheFileName(url));
+      try {
+         JSONObject cached = new JSONObject(Files.readString(file));
+         return url.equals(cached.optString("url")) && !cached.getString("etag").isEmpty() ? cached : null;
+      } catch (IOException | JSONException e) {
+         return null;
+      }
+   }
+
+   private void writeCachedResponse(String url, JSONObject page) {
+      if (responseCache == null || page.getString("etag").isEmpty()) {
+         return;
+      }
+      page.put("url", url);
+      try {
+         // Written to a temporary file first, so that a concurrent run never reads half a response
+         Path temporary = Files.createTempFile(responseCache, "page", ".tmp");
+         Files.writeString(temporary, page.toString());
+         Files.move(temporary, responseCache.resolve(cacheFileName(url)), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+         System.err.println("Could not cache the response to " + url + ": " + e.getMessage());
+      }
+   }
+
+   private static String cacheFileName(String url) {
+      try {
+         byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+         return String.format("%040x", new BigInteger(1, digest)) + ".json";
+      } catch (NoSuchAlgorithmException e) {
+         // Every Java platform supports SHA-1
+         throw new IllegalStateException(e);
+      }
+   }
+
+   /**
+    * This method returns the delay before a retry: the backoff doubles with every attempt, up to a minute,
+    * and a random part of up to half of it keeps concurrent retries from hitting the server at the same time.
+    */
+   private long backoff(int attempt) {
+      long delayMillis = Math.min(MAX_BACKOFF_MILLIS, backoffMillis << Math.min(attempt, 20));
+      return delayMillis / 2 + ThreadLocalRandom.current().nextLong(delayMillis / 2 + 1);
+   }
+
+   /**
+    * This method pauses all requests as the rate limit headers of a response ask for.
+    *
+    * @return The time to wait before retrying this request, 0 if the response does not say.
+    */
+   private long updateRateLimit(HttpResponse<String> response) {
+      long nowMillis = System.currentTimeMillis();
+      long waitMillis = 0;
+      Optional<String> retryAfter = response.headers().firstValue("Retry-After");
+      if (retryAfter.isPresent()) {
+         waitMillis = parseLong(retryAfter.get()) * 1000;
+      } else if ("0".equals(response.headers().firstValue("X-RateLimit-Remaining").orElse(null))) {
+         long resetMillis = parseLong(response.headers().firstValue("X-RateLimit-Reset").orElse("0")) * 1000;
+         waitMillis = Math.max(0, resetMillis - nowMillis);
+      }
+      if (waitMillis > 0) {
+         pausedUntilMillis = Math.max(pausedUntilMillis, nowMillis + waitMillis);
+      }
+      return waitMillis;
+   }
+
+   /**
+    * This method checks whether a failed request may succeed later: rate limited requests and server errors.
+    * A 403 is only a rate limit when the response says so, otherwise the token lacks a permission.
+    */
+   private static boolean isRetryable(HttpResponse<String> response) {
+      int status = response.statusCode();
+      if (status == 429 || status >= 500) {
+         return true;
+      }
+      return status == 403 && (response.headers().firstValue("Retry-After").isPresent()
+              || "0".equals(response.headers().firstValue("X-RateLimit-Remaining").orElse(null))
+              || response.body().toLowerCase().contains("rate limit"));
+   }
+
+   private synchronized void addLatency(long nanos) {
+      latencyNanos.add(nanos);
+   }
+
+   private static long parseLong(String value) {
+      try {
+         return Long.parseLong(value.trim());
+      } catch (NumberFormatException e) {
+         return 0;
+      }
+   }
+
+   private static JSONObject toJSON(CommentGenerator.Comment comment, boolean withCommitId) {
+      JSONObject json = new JSONObject();
+      json.put("body", comment.getBody());
+      json.put("path", comment.getFilePath());
+      // The line of the file in the new version, rather than the position in the diff
+      json.put("line", comment.getLineNumber());
+      json.put("side", "RIGHT");
+      if (withCommitId) {
+         json.put("commit_id", comment.getCommitID());
+      }
+      return json;
+   }
+
+   private static String expandPath(String path, String owner, String repo, int pullNumber) {
+      return path.replace("{owner}", owner)
+              .replace("{repo}", repo)
+              .replace("{pull_number}", String.valueOf(pullNumber));
+   }
+}
@@ -0,0 +1,292 @@
+package ifscodereview;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A stand-in for the pull request endpoints of the GitHub API on the loopback interface, so that posting
+ * can be load-tested offline: java IfsCodeReview --github-stub=8766, then a review with --github-api=http://localhost:8766.
+ * It answers every POST with 201 after an injected latency, and keeps a primary rate limit of a number of requests
+ * per window, answering 403 with X-RateLimit-Remaining 0 once it is used up. A share of the requests is answered
+ * with 429 or with a 403 secondary rate limit, both with Retry-After.
+ * The comments of created reviews, single comments and replies are kept in memory, and are listed by
+ * GET /repos/{owner}/{repo}/pulls/{pull_number}/comments in pages with an ETag, answering 304 Not Modified to
+ * a request whose If-None-Match matches. Listing requests are only delayed, never rate limited.
+ * GET /stats returns the number of requests received and of each kind of response.
+ *
+ * @author pardha
+ */
+public class GitHubStubServer {
+
+   public static final int DEFAULT_PORT = 8766;
+
+   private static final Pattern PULL_PATH = Pattern.compile("(/repos/[^/]+/[^/]+/pulls/\\d+)/(reviews|comments|comments/(\\d+)/replies)/?");
+   private static final int DEFAULT_PAGE_SIZE = 30;
+
+   private final HttpServer server;
+   private final long latencyMillis;
+   private final int rateLimit;
+   private final long windowMillis;
+   private final double tooManyRequestsRate;
+   private final double secondaryRateLimitRate;
+   private final int retryAfterSeconds;
+
+   private final AtomicInteger requests = new AtomicInteger();
+   private final AtomicInteger created = new AtomicInteger();
+   private final AtomicInteger tooManyRequests = new AtomicInteger();
+   private final AtomicInteger secondaryRateLimited = new AtomicInteger();
+   private final AtomicInteger primaryRateLimited = new AtomicInteger();
+   private final AtomicInteger concurrent = new AtomicInteger();
+   private final AtomicInteger maxConcurrent = new AtomicInteger();
+   private final AtomicInteger listed = new AtomicInteger();
+   private final AtomicInteger notModified = new AtomicInteger();
+   // The comments of every pull request, by the path of the pull request
+   private final Map<String, List<JSONObject>> pullComments = new HashMap<>();
+   private long lastCommentId = 0;
+   private long windowStartMillis = System.currentTimeMillis();
+   private int windowRequests = 0;
+
+   /**
+    * Creates a stub server.
+    *
+    * @param port The port to listen on.
+    * @param latencyMillis The time every response is delayed.
+    * @param rateLimit The number of requests allowed per window, or 0 for no primary rate limit.
+    * @param windowMillis The length of a rate limit window.
+    * @param tooManyRequestsRate The share of requests answered with 429, between 0 and 1.
+    * @param secondaryRateLimitRate The share of requests answered with a 403 secondary rate limit, between 0 and 1.
+    * @param retryAfterSeconds The Retry-After of the 429 and 403 responses.
+    * @throws IOException If the server cannot listen on the port.
+    */
+   public GitHubStubServer(int port, long latencyMillis, int rateLimit, long windowMillis, double tooManyRequestsRate,
+           double secondaryRateLimitRate, int retryAfterSeconds) throws IOException {
+      this.latencyMillis = latencyMillis;
+      this.rateLimit = rateLimit;
+      this.windowMillis = Math.max(1000, windowMillis);
+      this.tooManyRequestsRate = tooManyRequestsRate;
+      this.secondaryRateLimitRate = secondaryRateLimitRate;
+      this.retryAfterSeconds = retryAfterSeconds;
+      server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+      // The latency is a sleep, so every request in flight holds a thread
+      server.setExecutor(Executors.newCachedThreadPool());
+      server.createContext("/repos/", this::handleRequest);
+      server.createContext("/stats", exchange -> sendResponse(exchange, 200, getStats().toString()));
+   }
+
+   public void start() {
+      server.start();
+      System.out.println("GitHub stub listening on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort());
+   }
+
+   public void stop() {
+      server.stop(0);
+   }
+
+   /**
+    * This method returns the number of requests received and of each kind of response so far.
+    *
+    * @return The counters as JSON.
+    */
+   public JSONObject getStats() {
+      JSONObject json = new JSONObject();
+      json.put("requests", requests.get());
+      json.put("created", created.get());
+      json.put("too_many_requests", tooManyRequests.get());
+      json.put("secondary_rate_limited", secondaryRateLimited.get());
+      json.put("primary_rate_limited", primaryRateLimited.get());
+      json.put("max_concurrent", maxConcurrent.get());
+      json.put("listed", listed.get());
+      json.put("not_modified", notModified.get());
+      return json;
+   }
+
+   private void handleRequest(HttpExchange exchange) throws IOException {
+      Matcher path = PULL_PATH.matcher(exchange.getRequestURI().getPath());
+      boolean list = "GET".equals(exchange.getRequestMethod()) && path.matches() && "comments".equals(path.group(2));
+      if (!path.matches() || !list && !"POST".equals(exchange.getRequestMethod())) {
+         sendResponse(exchange, 404, "{\"message\": \"Not Found\"}");
+         return;
+      }
+      requests.incrementAndGet();
+      maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+      try ( InputStream body = exchange.getRequestBody()) {
+         String requestBody = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+         if (latencyMillis > 0) {
+            Thread.sleep(latencyMillis);
+         }
+         if (list) {
+            listComments(exchange, path.group(1));
+            return;
+         }
+
+         int remaining = takeRateLimit(exchange);
+         double chance = ThreadLocalRandom.current().nextDouble();
+         if (rateLimit > 0 && remaining < 0) {
+            primaryRateLimited.incrementAndGet();
+            sendResponse(exchange, 403, "{\"message\": \"API rate limit exceeded\"}");
+         } else if (chance < tooManyRequestsRate) {
+            tooManyRequests.incrementAndGet();
+            exchange.getResponseHeaders().add("Retry-After", String.valueOf(retryAfterSeconds));
+            sendResponse(exchange, 429, "{\"message\": \"Too Many Requests\"}");
+         } else if (chance < tooManyRequestsRate + secondaryRateLimitRate) {
+            secondaryRateLimited.incrementAndGet();
+            exchange.getResponseHeaders().add("Retry-After", String.valueOf(retryAfterSeconds));
+            sendResponse(exchange, 403, "{\"message\": \"You have exceeded a secondary rate limit. Please wait a few minutes before you try again.\"}");
+         } else {
+            try {
+               JSONObject response = addComments(path.group(1), path.group(2), path.group(3), new JSONObject(requestBody));
+               created.incrementAndGet();
+               sendResponse(exchange, 201, response.toString());
+            } catch (JSONException e) {
+               sendResponse(exchange, 422, new JSONObject().put("message", e.getMessage()).toString());
+            }
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         sendResponse(exchange, 500, "{\"message\": \"Interrupted\"}");
+      } finally {
+         concurrent.decrementAndGet();
+      }
+   }
+
+   /**
+    * This method keeps the comments of a created review, a single comment or a reply.
+    *
+    * @return The created review or comment.
+    */
+   private synchronized JSONObject addComments(String pullPath, String kind, String inReplyTo, JSONObject request) {
+      List<JSONObject> comments = pullComments.computeIfAbsent(pullPath, key -> new ArrayList<>());
+      if ("reviews".equals(kind)) {
+         JSONArray reviewComments = request.optJSONArray("comments");
+         for (int i = 0; reviewComments != null && i < reviewComments.length(); i++) {
+            comments.add(newComment(reviewComments.getJSONObject(i), null));
+         }
+         return new JSONObject().put("id", ++lastCommentId).put("body", request.optString("body"));
+      }
+      JSONObject comment = null;
+      if (inReplyTo != null) {
+         for (JSONObject existing : comments) {
+            if (existing.getLong("id") == Long.parseLong(inReplyTo)) {
+               comment = newComment(existing, Long.parseLong(inReplyTo)).put("body", request.getString("body"));
+            }
+         }
+         if (comment == null) {
+            throw new JSONException("Comment " + inReplyTo + " not found");
+         }
+      } else {
+         comment = newComment(request, null);
+      }
+      comments.add(comment);
+      return comment;
+   }
+
+   private JSONObject newComment(JSONObject request, Long inReplyTo) {
+      JSONObject comment = new JSONObject();
+      comment.put("id", ++lastCommentId);
+      comment.put("path", request.getString("path"));
+      comment.put("position", request.optInt("position"));
+      comment.put("body", request.getString("body"));
+      comment.put("in_reply_to_id", inReplyTo != null ? inReplyTo : JSONObject.NULL);
+      return comment;
+   }
+
+   /**
+    * This method answers a page of the comments of a pull request, or 304 if the page did not change.
+    */
+   private void listComments(HttpExchange exchange, String pullPath) throws IOException {
+      Map<String, String> query = new HashMap<>();
+      String rawQuery = exchange.getRequestURI().getRawQuery();
+      for (String parameter : rawQuery != null ? rawQuery.split("&") : new String[0]) {
+         int separator = parameter.indexOf('=');
+         if (separator > 0) {
+            query.put(parameter.substring(0, separator), parameter.substring(separator + 1));
+         }
+      }
+      int pageSize = Math.min(100, Math.max(1, parseInt(query.get("per_page"), DEFAULT_PAGE_SIZE)));
+      int page = Math.max(1, parseInt(query.get("page"), 1));
+
+      JSONArray pageComments = new JSONArray();
+      boolean hasNext;
+      synchronized (this) {
+         List<JSONObject> comments = pullComments.getOrDefault(pullPath, List.of());
+         for (int i = (page - 1) * pageSize; i < Math.min(comments.size(), page * pageSize); i++) {
+            pageComments.put(comments.get(i));
+         }
+         hasNext = comments.size() > page * pageSize;
+      }
+
+      String body = pageComments.toString();
+      String etag = "\"" + Integer.toHexString(body.hashCode()) + Integer.toHexString(body.length()) + "\"";
+      exchange.getResponseHeaders().set("ETag", etag);
+      if (hasNext) {
+         String url = "http://" + exchange.getRequestHeaders().getFirst("Host") + exchange.getRequestURI().getPath();
+         exchange.getResponseHeaders().set("Link", "<" + url + "?per_page=" + pageSize + "&page=" + (page + 1) + ">; rel=\"next\"");
+      }
+      if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+         notModified.incrementAndGet();
+         exchange.sendResponseHeaders(304, -1);
+         exchange.close();
+      } else {
+         listed.incrementAndGet();
+         sendResponse(exchange, 200, body);
+      }
+   }
+
+   private static int parseInt(String value, int defaultValue) {
+      try {
+         return value != null ? Integer.parseInt(value) : defaultValue;
+      } catch (NumberFormatException e) {
+         return defaultValue;
+      }
+   }
+
+   /**
+    * This method counts a request against the primary rate limit and sets the rate limit headers.
+    *
+    * @return The requests remaining in the current window, negative once the limit is exceeded.
+    */
+   private synchronized int takeRateLimit(HttpExchange exchange) {
+      if (rateLimit <= 0) {
+         return 0;
+      }
+      long nowMillis = System.currentTimeMillis();
+      if (nowMillis - windowStartMillis >= windowMillis) {
+         windowStartMillis = nowMillis;
+         windowRequests = 0;
+      }
+      int remaining = rateLimit - ++windowRequests;
+      // X-RateLimit-Reset is in epoch seconds, rounded up so that a client waiting for it is never early
+      long resetSeconds = (windowStartMillis + windowMillis + 999) / 1000;
+      exchange.getResponseHeaders().add("X-RateLimit-Limit", String.valueOf(rateLimit));
+      exchange.getResponseHeaders().add("X-RateLimit-Remaining", String.valueOf(Math.max(0, remaining)));
+      exchange.getResponseHeaders().add("X-RateLimit-Reset", String.valueOf(resetSeconds));
+      return remaining;
+   }
+
+   private static void sendResponse(HttpExchange exchange, int status, String body) throws IOException {
+      byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(status, bytes.length);
+      try ( OutputStream out = exchange.getResponseBody()) {
+         out.write(bytes);
+      }
+   }
+}
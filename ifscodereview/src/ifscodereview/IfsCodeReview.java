@@ -2,27 +2,23 @@ package ifscodereview;
 
 import org.antlr.v4.runtime.*;
 import ifscodereview.grammar.*;
+import org.antlr.v4.runtime.tree.ErrorNode;
 import org.antlr.v4.runtime.tree.ParseTreeWalker;
-import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
 import ifscodereview.grammar.PlSqlParser;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import org.antlr.v4.runtime.misc.Interval;
-import org.json.JSONArray;
-import org.json.JSONObject;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 /**
  *
@@ -30,28 +26,28 @@ import java.net.http.HttpResponse;
  */
 public class IfsCodeReview extends PlSqlParserBaseListener {
 
-   private static final String GITHUB_API_URL = "https://api.github.com/repos/{owner}/{repo}/pulls/{pull_number}/comments";
+   // Increase whenever a code check is added or changed, so that cached review results are not reused
+   public static final String RULE_SET_VERSION = "4";
 
-   private static String commitSHA = "";
-   private static String filePath = "";
-   private static CommentGenerator commentGenerator = new CommentGenerator();
+   // Files are split into units of at least this many tokens to be parsed concurrently
+   static final int MIN_UNIT_TOKENS = 2000;
 
    private static class TableReferenceInfo {
 
-      private final String tableName;
+      private final TokenText tableName;
       private final int lineNumber;
 
-      public TableReferenceInfo(String tableName) {
+      public TableReferenceInfo(TokenText tableName) {
          this.tableName = tableName;
          this.lineNumber = -1; // Default value for cases where line number is not provided
       }
 
-      public TableReferenceInfo(String tableName, int lineNumber) {
+      public TableReferenceInfo(TokenText tableName, int lineNumber) {
          this.tableName = tableName;
          this.lineNumber = lineNumber;
       }
 
-      public String getTableName() {
+      public TokenText getTableName() {
          return tableName;
       }
 
@@ -100,21 +96,69 @@ public class IfsCodeReview extends PlSqlParserBaseListener {
 
    /**
     * This class extracts information from the code related to code checks.
-    * It extends the PlSqlParserBaseListener provided by the ANTLR library.
+    * It extends the PlSqlParserBaseListener provided by the ANTLR library, and is the built-in rule of the
+    * {@link RuleDispatcher}, which only calls it for the parser rules listed in RULE_INDEXES.
     */
-   private static class CodeCheckExtractor extends PlSqlParserBaseListener {
+   static class CodeCheckExtractor extends PlSqlParserBaseListener implements ReviewRule {
+
+      // The parser rules of the enter and exit methods overridden below, the procedure and function bodies come as models
+      static final int[] RULE_INDEXES = {
+         PlSqlParser.RULE_procedure_name,
+         PlSqlParser.RULE_function_name,
+         PlSqlParser.RULE_selected_list,
+         PlSqlParser.RULE_cursor_declaration,
+         PlSqlParser.RULE_select_list_elements,
+         PlSqlParser.RULE_string_function,
+         PlSqlParser.RULE_numeric_function,
+         PlSqlParser.RULE_other_function,
+         PlSqlParser.RULE_general_element_part,
+         PlSqlParser.RULE_insert_statement,
+         PlSqlParser.RULE_update_statement,
+         PlSqlParser.RULE_delete_statement,
+         PlSqlParser.RULE_table_ref,
+         // The labeled alternatives of a rule, such as table_ref_aux_internal_one, share the index of the rule
+         PlSqlParser.RULE_table_ref_aux_internal
+      };
 
       private List<String> generatedProcedures = Arrays.asList("Update___", "Check_Common___", "Check_Update___");
 
       private final List<String> sqlStatements = new ArrayList<>();
       private final List<TableReferenceInfo> tableReferences = new ArrayList<>();
-      private final String[] literalNames = PlSqlLexer.getLiteralNames();
+      // Start lines of the table references enclosing the node being walked, innermost first
+      private final Deque<Integer> tableRefLineNumbers = new ArrayDeque<>();
       private List<RuleInfo> columnLineNumbers = new ArrayList<>();
 
       private List<ConsolidatedIssues> allIssues = new ArrayList<>();
+      // Number of cursor declarations enclosing the node being walked
+      private int cursorDepth = 0;
 
       private int lineNumber = 0;
 
+      private final String commitSHA;
+      private final String filePath;
+      private final CommentGenerator commentGenerator;
+
+      public CodeCheckExtractor(ReviewContext context) {
+         this.commitSHA = context.getCommitSHA();
+         this.filePath = context.getFilePath();
+         this.commentGenerator = context.getCommentGenerator();
+      }
+
+      @Override
+      public int[] getRuleIndexes() {
+         return RULE_INDEXES;
+      }
+
+      @Override
+      public void enterRule(ParserRuleContext ctx, ReviewContext context) {
+         ctx.enterRule(this);
+      }
+
+      @Override
+      public void exitRule(ParserRuleContext ctx, ReviewContext context) {
+         ctx.exitRule(this);
+      }
+
       /**
        * This method is called when entering a procedure name in the code.
        * It checks if the procedure name follows the IFS naming guidelines and generates a comment if it doesn't.
@@ -125,7 +169,7 @@ public class IfsCodeReview extends PlSqlParserBaseListener {
       public void enterProcedure_name(PlSqlParser.Procedure_nameContext ctx) {
          Token identifier = ctx.getStart();
          lineNumber = identifier.getLine();
-         String procedureName = ctx.getText();
+         TokenText procedureName = TokenText.of(ctx);
          if (!isCustomPascalCase(procedureName)) {
             commentGenerator.identifyIssue("Procedure name " + procedureName + " is not follow IFS naming guidelines", filePath, lineNumber, commitSHA);
          }
@@ -141,7 +185,7 @@ public class IfsCodeReview extends PlSqlParserBaseListener {
       public void enterFunction_name(PlSqlParser.Function_nameContext ctx) {
          Token identifier = ctx.getStart();
          lineNumber = identifier.getLine();
-         String functionName = ctx.getText();
+         TokenText functionName = TokenText.of(ctx);
          if (!isCustomPascalCase(functionName)) {
             commentGenerator.identifyIssue("Function name " + functionName + " is not follow IFS naming guidelines", filePath, lineNumber, commitSHA);
          }
@@ -153,21 +197,20 @@ public class IfsCodeReview extends PlSqlParserBaseListener {
        * @param name The name to be checked.
        * @return true if the name follows the custom PascalCase convention, false otherwise.
        */
-      private boolean isCustomPascalCase(String name) {
-         if (name == null || name.isEmpty()) {
+      static boolean isCustomPascalCase(CharSequence name) {
+         if (name == null || name.length() == 0) {
             return false;
          }
 
-         char[] chars = name.toCharArray();
          boolean underscoreFound = false;
          int consecutiveUnderscores = 0;
 
-         if (!Character.isUpperCase(chars[0])) {
+         if (!Character.isUpperCase(name.charAt(0))) {
             return false;
          }
 
-         for (int i = 1; i < chars.length; i++) {
-            char currentChar = chars[i];
+         for (int i = 1; i < name.length(); i++) {
+            char currentChar = name.charAt(i);
             if (!Character.isLetterOrDigit(currentChar) && currentChar != '_') {
                return false;
             }
@@ -203,13 +246,27 @@ public class IfsCodeReview extends PlSqlParserBaseListener {
       }
 
       /**
-       * This method is called when entering a procedure body in the code.
-       * It performs various checks related to the parameters and variables of the procedure.
+       * This method is called for every procedure and function body, once it has been walked.
+       * It performs various checks related to the parameters of the subprogram, and to the variables of a procedure.
        *
-       * @param ctx The context of the procedure body in the parse tree.
+       * @param model The semantic model of the procedure or function body.
+       * @param context The review context receiving the issues.
        */
       @Override
-      public void enterProcedure_body(PlSqlParser.Procedure_bodyContext ctx) {
+      public void visitSubprogram(SubprogramModel model, ReviewContext context) {
+         checkParameters(model);
+         // Only the variables of procedures have been checked so far
+         if (model.getKind() == SubprogramModel.Kind.PROCEDURE) {
+            checkDeclarations(model);
+         }
+      }
+
+      /**
+       * This method checks the names, directions, order and alignment of the parameters of a procedure or function.
+       *
+       * @param model The semantic model of the procedure or function body.
+       */
+      private void checkParameters(SubprogramModel model) {
          boolean inOutFound = false;
          boolean inFound = false;
          boolean inDefaultFound = false;
@@ -218,206 +275,96 @@ public class IfsCodeReview extends PlSqlParserBaseListener {
          List<RuleInfo> directionStartPositions = new ArrayList<>();
          List<RuleInfo> typeStartPositions = new ArrayList<>();
 
-         String procedureName = ctx.procedure_name().getText();
-         System.out.println("Procedure name: " + procedureName);
-
-         // Track starting positions for parameters, directions, and data types
-         List<PlSqlParser.ParameterContext> parameters = ctx.parameter();
-
-         if (!parameters.isEmpty()) {
-            for (PlSqlParser.ParameterContext parameter : parameters) {
-               String paramName = parameter.parameter_name().getText();
-               Token identifier = parameter.getStart();
-               lineNumber = identifier.getLine();
-               paramStartPositions.add(new RuleInfo(lineNumber, identifier.getCharPositionInLine()));
-
-               List<PlSqlParser.Parameter_directionContext> directionContextList = parameter.parameter_direction();
-               if (!directionContextList.isEmpty()) {
-                  PlSqlParser.Parameter_directionContext directionContext = directionContextList.get(0);
-                  directionStartPositions.add(new RuleInfo(lineNumber, directionContext.getStart().getCharPositionInLine()));
-
-               } else {
-                  // Validation failed: Parameter direction is missing
-                  commentGenerator.identifyIssue(paramName + ": Parameter direction was not specified.", filePath, lineNumber, commitSHA);
-               }
-
-               PlSqlParser.Type_specContext typeSpec = parameter.type_spec();
-               typeStartPositions.add(new RuleInfo(lineNumber, typeSpec.getStart().getCharPositionInLine()));
+         for (SubprogramModel.Parameter parameter : model.getParameters()) {
+            String paramName = parameter.getName();
+            lineNumber = parameter.getLineNumber();
+            paramStartPositions.add(new RuleInfo(lineNumber, parameter.getColumn()));
 
-               if (!paramName.endsWith("_")) {
-                  // Validation failed: Underscore is missing at the end of the parameter
-                  commentGenerator.identifyIssue(paramName + ": Parameter does not end with an underscore", filePath, lineNumber, commitSHA);
-               }
-
-               if (!generatedProcedures.contains(procedureName)) {
-                  String direction = parameter.parameter_direction(0) != null ? parameter.parameter_direction(0).getText() : "";
-                  String defaultVal = parameter.default_value_part() != null ? parameter.default_value_part().getText() : "";
-
-                  if (direction.equals("OUT")) {
-                     if (inOutFound || inFound || inDefaultFound) {
-                        // Validation failed: OUT parameter found after other types
-                        commentGenerator.identifyIssue(paramName + ": OUT parameter found after other types", filePath, lineNumber, commitSHA);
-                     }
-                  } else if (direction.contains("IN OUT")) {
-                     inOutFound = true;
-                     if (inFound || inDefaultFound) {
-                        // Validation failed: IN OUT parameter found after other types
-                        commentGenerator.identifyIssue(paramName + ": IN OUT parameter found after other types", filePath, lineNumber, commitSHA);
-                     }
-                  } else if (direction.contains("IN") && !paramName.equals("objid_")) {
-                     if (defaultVal.isEmpty()) {
-                        inFound = true;
-                        if (inDefaultFound) {
-                           // Validation failed: IN parameter found after IN with default
-                           commentGenerator.identifyIssue(paramName + ": IN parameter found after IN with default", filePath, lineNumber, commitSHA);
-                        }
-                     } else {
-                        inDefaultFound = true;
-                     }
-                  }
-               }
+            if (!parameter.getDirections().isEmpty()) {
+               directionStartPositions.add(new RuleInfo(lineNumber, parameter.getDirectionColumn()));
+            } else {
+               // Validation failed: Parameter direction is missing
+               commentGenerator.identifyIssue(paramName + ": Parameter direction was not specified.", filePath, lineNumber, commitSHA);
             }
 
-            checkVerticalAlignment("Parameters", paramStartPositions);
-            checkVerticalAlignment("Parameters Directions", directionStartPositions);
-            checkVerticalAlignment("Parameters Data Types", typeStartPositions);
-         }
-
-         List<RuleInfo> variableStartPositions = new ArrayList<>();
-
-         List<RuleInfo> varDatatypeStartPositions = new ArrayList<>();
-         List<String> varCursorNames = new ArrayList<>();
-         boolean cursorDeclared = false;  // Flag to track cursor declaration
-
-         PlSqlParser.Seq_of_declare_specsContext seqOfDeclareSpecsContext = ctx.seq_of_declare_specs();
-
-         if (seqOfDeclareSpecsContext != null) {
-            List<PlSqlParser.Declare_specContext> declareSpecsList = seqOfDeclareSpecsContext.declare_spec();
-
-            for (PlSqlParser.Declare_specContext declareSpec : declareSpecsList) {
-               //PlSqlParser.IdentifierContext identifierContext = declareSpec.variable_declaration().identifier();
-
-               PlSqlParser.Variable_declarationContext variableDeclarationContext = declareSpec.variable_declaration();
-               if (variableDeclarationContext != null) {
-                  Token identifier = variableDeclarationContext.getStart();
-                  lineNumber = identifier.getLine();
+            if (parameter.getTypeColumn() >= 0) {
+               typeStartPositions.add(new RuleInfo(lineNumber, parameter.getTypeColumn()));
+            }
 
-                  PlSqlParser.IdentifierContext identifierContext = variableDeclarationContext.identifier();
-                  variableStartPositions.add(new RuleInfo(lineNumber, identifierContext.getStart().getCharPositionInLine()));
+            if (!paramName.endsWith("_")) {
+               // Validation failed: Underscore is missing at the end of the parameter
+               commentGenerator.identifyIssue(paramName + ": Parameter does not end with an underscore", filePath, lineNumber, commitSHA);
+            }
 
-                  PlSqlParser.Type_specContext varDatatype = declareSpec.variable_declaration().type_spec();
-                  varDatatypeStartPositions.add(new RuleInfo(lineNumber, varDatatype.getStart().getCharPositionInLine()));
+            if (!generatedProcedures.contains(model.getName())) {
+               String direction = parameter.getDirections().isEmpty() ? "" : parameter.getDirections().get(0);
 
-                  // Check if a cursor has been declared before the variable
-                  if (cursorDeclared) {
-                     for (String cursorName : varCursorNames) {
-                        String rowTypeDataType = cursorName + "%ROWTYPE";
-                        if (!varDatatype.getText().contains(rowTypeDataType)) {
-                           commentGenerator.identifyIssue("Normal variable declarations should be before the cursor declarations.", filePath, lineNumber, commitSHA);
-                           cursorDeclared = false;
-                           break;
-                        }
+               if (direction.equals("OUT")) {
+                  if (inOutFound || inFound || inDefaultFound) {
+                     // Validation failed: OUT parameter found after other types
+                     commentGenerator.identifyIssue(paramName + ": OUT parameter found after other types", filePath, lineNumber, commitSHA);
+                  }
+               } else if (direction.contains("IN OUT")) {
+                  inOutFound = true;
+                  if (inFound || inDefaultFound) {
+                     // Validation failed: IN OUT parameter found after other types
+                     commentGenerator.identifyIssue(paramName + ": IN OUT parameter found after other types", filePath, lineNumber, commitSHA);
+                  }
+               } else if (direction.contains("IN") && !paramName.equals("objid_")) {
+                  if (!parameter.hasDefault()) {
+                     inFound = true;
+                     if (inDefaultFound) {
+                        // Validation failed: IN parameter found after IN with default
+                        commentGenerator.identifyIssue(paramName + ": IN parameter found after IN with default", filePath, lineNumber, commitSHA);
                      }
+                  } else {
+                     inDefaultFound = true;
                   }
                }
-
-               PlSqlParser.Cursor_declarationContext cursorDeclarationContext = declareSpec.cursor_declaration();
-               if (cursorDeclarationContext != null) {
-                  PlSqlParser.Cursor_nameContext cursorName = cursorDeclarationContext.cursor_name();
-                  varCursorNames.add(cursorName.getText());
-
-                  cursorDeclared = true;
-               }
-            }
-
-            if (!variableStartPositions.isEmpty()) {
-               checkVerticalAlignment("Variables", variableStartPositions);
-               checkVerticalAlignment("Variable Data Types", varDatatypeStartPositions);
             }
          }
 
+         checkVerticalAlignment("Parameters", paramStartPositions);
+         checkVerticalAlignment("Parameters Directions", directionStartPositions);
+         checkVerticalAlignment("Parameters Data Types", typeStartPositions);
       }
 
       /**
-       * This method is called when entering a function body in the code.
-       * It performs various checks related to the parameters and variables of the function.
+       * This method checks the alignment of the variables of a procedure, and that they are declared before the cursors.
        *
-       * @param ctx The context of the function body in the parse tree.
+       * @param model The semantic model of the procedure body.
        */
-      @Override
-      public void enterFunction_body(PlSqlParser.Function_bodyContext ctx) {
-         boolean inOutFound = false;
-         boolean inFound = false;
-         boolean inDefaultFound = false;
-
-         List<RuleInfo> paramStartPositions = new ArrayList<>();
-         List<RuleInfo> directionStartPositions = new ArrayList<>();
-         List<RuleInfo> typeStartPositions = new ArrayList<>();
-
-         String functionName = ctx.function_name().getText();
-         System.out.println("Function name: " + functionName);
-
-         // Track starting positions for parameters, directions, and data types
-         List<PlSqlParser.ParameterContext> parameters = ctx.parameter();
-
-         if (!parameters.isEmpty()) {
-            for (PlSqlParser.ParameterContext parameter : parameters) {
-               String paramName = parameter.parameter_name().getText();
-               Token identifier = parameter.getStart();
-               lineNumber = identifier.getLine();
-               paramStartPositions.add(new RuleInfo(lineNumber, identifier.getCharPositionInLine()));
-
-               List<PlSqlParser.Parameter_directionContext> directionContextList = parameter.parameter_direction();
-               if (!directionContextList.isEmpty()) {
-                  PlSqlParser.Parameter_directionContext directionContext = directionContextList.get(0);
-                  directionStartPositions.add(new RuleInfo(lineNumber, directionContext.getStart().getCharPositionInLine()));
-
-               } else {
-                  // Validation failed: Parameter direction is missing
-                  commentGenerator.identifyIssue(paramName + ": Parameter direction was not specified.", filePath, lineNumber, commitSHA);
-               }
-
-               PlSqlParser.Type_specContext typeSpec = parameter.type_spec();
-               typeStartPositions.add(new RuleInfo(lineNumber, typeSpec.getStart().getCharPositionInLine()));
-
-               if (!paramName.endsWith("_")) {
-                  // Validation failed: Underscore is missing at the end of the parameter
-                  commentGenerator.identifyIssue(paramName + ": Parameter does not end with an underscore", filePath, lineNumber, commitSHA);
-               }
-
-               if (!generatedProcedures.contains(functionName)) {
-                  String direction = parameter.parameter_direction(0) != null ? parameter.parameter_direction(0).getText() : "";
-                  String defaultVal = parameter.default_value_part() != null ? parameter.default_value_part().getText() : "";
+      private void checkDeclarations(SubprogramModel model) {
+         List<RuleInfo> variableStartPositions = new ArrayList<>();
+         List<RuleInfo> varDatatypeStartPositions = new ArrayList<>();
+         List<String> varCursorNames = new ArrayList<>();
+         boolean cursorDeclared = false;  // Flag to track cursor declaration
 
-                  if (direction.equals("OUT")) {
-                     if (inOutFound || inFound || inDefaultFound) {
-                        // Validation failed: OUT parameter found after other types
-                        commentGenerator.identifyIssue(paramName + ": OUT parameter found after other types", filePath, lineNumber, commitSHA);
-                     }
-                  } else if (direction.contains("IN OUT")) {
-                     inOutFound = true;
-                     if (inFound || inDefaultFound) {
-                        // Validation failed: IN OUT parameter found after other types
-                        commentGenerator.identifyIssue(paramName + ": IN OUT parameter found after other types", filePath, lineNumber, commitSHA);
-                     }
-                  } else if (direction.contains("IN") && !paramName.equals("objid_")) {
-                     if (defaultVal.isEmpty()) {
-                        inFound = true;
-                        if (inDefaultFound) {
-                           // Validation failed: IN parameter found after IN with default
-                           commentGenerator.identifyIssue(paramName + ": IN parameter found after IN with default", filePath, lineNumber, commitSHA);
-                        }
-                     } else {
-                        inDefaultFound = true;
+         for (SubprogramModel.Declaration declaration : model.getDeclarations()) {
+            if (declaration.getKind() == SubprogramModel.Declaration.Kind.VARIABLE) {
+               lineNumber = declaration.getLineNumber();
+               variableStartPositions.add(new RuleInfo(lineNumber, declaration.getColumn()));
+               varDatatypeStartPositions.add(new RuleInfo(lineNumber, declaration.getTypeColumn()));
+
+               // Check if a cursor has been declared before the variable
+               if (cursorDeclared) {
+                  for (String cursorName : varCursorNames) {
+                     String rowTypeDataType = cursorName + "%ROWTYPE";
+                     if (!declaration.getType().contains(rowTypeDataType)) {
+                        commentGenerator.identifyIssue("Normal variable declarations should be before the cursor declarations.", filePath, lineNumber, commitSHA);
+                        cursorDeclared = false;
+                        break;
                      }
                   }
                }
+            } else {
+               varCursorNames.add(declaration.getName());
+               cursorDeclared = true;
             }
-
-            checkVerticalAlignment("Parameters", paramStartPositions);
-            checkVerticalAlignment("Parameters Directions", directionStartPositions);
-            checkVerticalAlignment("Parameters Data Types", typeStartPositions);
          }
+
+         checkVerticalAlignment("Variables", variableStartPositions);
+         checkVerticalAlignment("Variable Data Types", varDatatypeStartPositions);
       }
 
       /**
@@ -477,15 +424,22 @@ public class IfsCodeReview extends PlSqlParserBaseListener {
          }
       }
 
+      @Override
+      public void enterCursor_declaration(PlSqlParser.Cursor_declarationContext ctx) {
+         cursorDepth++;
+      }
+
       @Override
       public void exitCursor_declaration(PlSqlParser.Cursor_declarationContext ctx) {
+         cursorDepth--;
          String allIssueDetails = "";
-         if (!ctx.cursor_name().getText().equals(ctx.cursor_name().getText().toLowerCase())) {
-            //commentGenerator.identifyIssue("Cursor name '" + ctx.cursor_name().getText() + "' should be in lowercase", filePath, ctx.cursor_name().getStart().getLine(), commitSHA);
-            allIssues.add(new ConsolidatedIssues(ctx.cursor_name().getStart().getLine(), "Cursor name '" + ctx.cursor_name().getText() + "' should be in lowercase"));
+         TokenText cursorName = TokenText.of(ctx.cursor_name());
+         if (!cursorName.isLowerCase()) {
+            //commentGenerator.identifyIssue("Cursor name '" + cursorName + "' should be in lowercase", filePath, ctx.cursor_name().getStart().getLine(), commitSHA);
+            allIssues.add(new ConsolidatedIssues(ctx.cursor_name().getStart().getLine(), "Cursor name '" + cursorName + "' should be in lowercase"));
          }
          for (TableReferenceInfo info : tableReferences) {
-            if (!info.getTableName().equals(info.getTableName().toLowerCase())) {
+            if (!info.getTableName().isLowerCase()) {
                //commentGenerator.identifyIssue("Table name '" + info.getTableName() + "' should be in lowercase", filePath, info.getLineNumber(), commitSHA);
                allIssues.add(new ConsolidatedIssues(info.getLineNumber(), "Table name '" + info.getTableName() + "' should be in lowercase"));
             }
@@ -494,12 +448,12 @@ public class IfsCodeReview extends PlSqlParserBaseListener {
 
          for (int i = 0; i < allIssues.size(); i++) {
             ConsolidatedIssues issue = allIssues.get(i);
-            allIssueDetails = allIssueDetails + "Line No: " + issue.getLineNumber() + " :- " + issue.issueDetails + "\\n";
+            allIssueDetails = allIssueDetails + "Line No: " + issue.getLineNumber() + " :- " + issue.issueDetails + "\n";
 
          }
 
          if (allIssueDetails.length() > 0) {
-            commentGenerator.identifyIssue("Issues in Cursor:\\n" + allIssueDetails, filePath, ctx.getStart().getLine(), commitSHA);
+            commentGenerator.identifyIssue("Issues in Cursor:\n" + allIssueDetails, filePath, ctx.getStart().getLine(), commitSHA);
          }
          allIssues.clear();
       }
@@ -510,35 +464,86 @@ public class IfsCodeReview extends PlSqlParserBaseListener {
          lineNumber = identifier.getLine();
 
          if (ctx.expression() != null) {
-            // Handle individual expression
-            String columnName = ctx.expression().getText();
-            System.out.println("Column: " + columnName);
-
-            Pattern pattern = Pattern.compile("(?<!\\.)\\b(\\w+)\\(");
-            Matcher matcher = pattern.matcher(columnName);
+            columnLineNumbers.add(new RuleInfo(lineNumber, ctx.expression().getStart().getCharPositionInLine()));
+         } else if (TokenText.of(ctx).endsWith(".*")) {
+            //commentGenerator.identifyIssue("SELECT * is not allowed, specificy the required columns.", filePath, lineNumber, commitSHA);
+            allIssues.add(new ConsolidatedIssues(lineNumber, "SELECT * is not allowed, specificy the required columns."));
 
-            while (matcher.find()) {
-               String substringBeforeParenthesis = matcher.group(1);
+         }
+      }
 
-               if (Arrays.asList(literalNames).contains("'" + substringBeforeParenthesis.toUpperCase().trim() + "'") && !substringBeforeParenthesis.equals(substringBeforeParenthesis.toUpperCase())) {
-                  //commentGenerator.identifyIssue(substringBeforeParenthesis + ": Oracle build-in function should be in uppercase", filePath, lineNumber, commitSHA);
-                  allIssues.add(new ConsolidatedIssues(lineNumber, substringBeforeParenthesis + ": Oracle build-in function should be in uppercase"));
-               }
+      /**
+       * This method is called when leaving a select list element. The column alias is checked here,
+       * after the built-in functions of the expression have been checked by their own nodes.
+       *
+       * @param ctx The context of the select list element in the parse tree.
+       */
+      @Override
+      public void exitSelect_list_elements(PlSqlParser.Select_list_elementsContext ctx) {
+         if (ctx.expression() != null && ctx.column_alias() != null) {
+            TokenText columnAlias = TokenText.of(ctx.column_alias().identifier());
+            if (!columnAlias.isLowerCase()) {
+               //commentGenerator.identifyIssue(columnAlias + " : column alias should be in lowercase", filePath, lineNumber, commitSHA);
+               allIssues.add(new ConsolidatedIssues(ctx.getStart().getLine(), columnAlias + " : column alias should be in lowercase"));
             }
-            // Check for column alias
-            if (ctx.column_alias() != null) {
-               String columnAlias = ctx.column_alias().identifier().getText();
-               if (!columnAlias.equals(columnAlias.toLowerCase())) {
-                  //commentGenerator.identifyIssue(columnAlias + " : column alias should be in lowercase", filePath, lineNumber, commitSHA);
-                  allIssues.add(new ConsolidatedIssues(lineNumber, columnAlias + " : column alias should be in lowercase"));
+         }
+      }
 
-               }
-            }
-            columnLineNumbers.add(new RuleInfo(lineNumber, ctx.expression().getStart().getCharPositionInLine()));
-         } else if (ctx.getText().endsWith(".*")) {
-            //commentGenerator.identifyIssue("SELECT * is not allowed, specificy the required columns.", filePath, lineNumber, commitSHA);
-            allIssues.add(new ConsolidatedIssues(lineNumber, "SELECT * is not allowed, specificy the required columns."));
+      /**
+       * This method is called when entering a built-in string function with its own grammar rule, such as SUBSTR or NVL.
+       *
+       * @param ctx The context of the function call in the parse tree.
+       */
+      @Override
+      public void enterString_function(PlSqlParser.String_functionContext ctx) {
+         checkBuiltInFunctionCasing(ctx.getStart());
+      }
+
+      @Override
+      public void enterNumeric_function(PlSqlParser.Numeric_functionContext ctx) {
+         checkBuiltInFunctionCasing(ctx.getStart());
+      }
+
+      @Override
+      public void enterOther_function(PlSqlParser.Other_functionContext ctx) {
+         // Keywords such as YEAR are other functions on their own, without arguments
+         if (ctx.getChildCount() > 1) {
+            checkBuiltInFunctionCasing(ctx.getStart());
+         }
+      }
 
+      /**
+       * This method is called when entering a part of a name, which is a function call when it has arguments.
+       * Only the first part is checked, so that a package method such as Site_API.Get is not taken for a built-in.
+       *
+       * @param ctx The context of the name part in the parse tree.
+       */
+      @Override
+      public void enterGeneral_element_part(PlSqlParser.General_element_partContext ctx) {
+         if (ctx.function_argument() != null && ctx.getParent() instanceof PlSqlParser.General_elementContext
+                 && ctx.getParent().getChild(0) == ctx) {
+            checkBuiltInFunctionCasing(ctx.id_expression().getStart());
+         }
+      }
+
+      /**
+       * This method checks that a call of an Oracle built-in function is written in uppercase.
+       * Inside a cursor the issue is reported together with the other issues of the cursor.
+       *
+       * @param nameToken The token holding the name of the called function.
+       */
+      private void checkBuiltInFunctionCasing(Token nameToken) {
+         if (!BuiltInFunctions.isBuiltIn(nameToken)) {
+            return;
+         }
+         if (BuiltInFunctions.isUpperCase(TokenText.of(nameToken))) {
+            return;
+         }
+         String issue = nameToken.getText() + ": Oracle build-in function should be in uppercase";
+         if (cursorDepth > 0) {
+            allIssues.add(new ConsolidatedIssues(nameToken.getLine(), issue));
+         } else {
+            commentGenerator.identifyIssue(issue, filePath, nameToken.getLine(), commitSHA);
          }
       }
 
@@ -563,56 +568,38 @@ public class IfsCodeReview extends PlSqlParserBaseListener {
          commentGenerator.identifyIssue("DELETE statement found", filePath, lineNumber, commitSHA);
       }
 
+      /**
+       * This method is called when entering a table reference, including the table references of joins and nested subqueries.
+       * The line of the table reference is pushed so that the tables found inside it are reported on that line.
+       *
+       * @param ctx The context of the table reference in the parse tree.
+       */
       @Override
-      public void exitTable_ref(PlSqlParser.Table_refContext ctx) {
-         TableRefExtractListener tableRefExtractListener = new TableRefExtractListener();
-         ParseTreeWalker.DEFAULT.walk(tableRefExtractListener, ctx);
-         tableReferences.addAll(tableRefExtractListener.getTableReferences(ctx.getStart().getLine()));
+      public void enterTable_ref(PlSqlParser.Table_refContext ctx) {
+         tableRefLineNumbers.push(ctx.getStart().getLine());
       }
 
-      public List<TableReferenceInfo> getTableReferences() {
-         return tableReferences;
+      @Override
+      public void exitTable_ref(PlSqlParser.Table_refContext ctx) {
+         tableRefLineNumbers.pop();
       }
 
-      private static class TableRefExtractListener extends PlSqlParserBaseListener {
-
-         private List<TableReferenceInfo> tableReferences = new ArrayList<>();
-
-         @Override
-         public void enterTable_ref_aux(PlSqlParser.Table_ref_auxContext ctx) {
-            TableRefAuxInternalExtractListener internalListener = new TableRefAuxInternalExtractListener();
-            ParseTreeWalker.DEFAULT.walk(internalListener, ctx.table_ref_aux_internal());
-            tableReferences.addAll(internalListener.getTableReferences(ctx.getStart().getLine()));
-         }
-
-         public List<TableReferenceInfo> getTableReferences(int lineNumber) {
-            List<TableReferenceInfo> updatedList = new ArrayList<>();
-            for (TableReferenceInfo info : tableReferences) {
-               updatedList.add(new TableReferenceInfo(info.getTableName(), lineNumber));
-            }
-            return updatedList;
+      /**
+       * This method is called when entering a table (or view) in a FROM clause or join.
+       * The table is recorded once, for the innermost table reference it belongs to.
+       *
+       * @param ctx The context of the table reference in the parse tree.
+       */
+      @Override
+      public void enterTable_ref_aux_internal_one(PlSqlParser.Table_ref_aux_internal_oneContext ctx) {
+         if (!tableRefLineNumbers.isEmpty() && ctx.dml_table_expression_clause() != null && ctx.dml_table_expression_clause().tableview_name() != null) {
+            Token tableNameToken = ctx.dml_table_expression_clause().tableview_name().getStart();
+            tableReferences.add(new TableReferenceInfo(TokenText.of(tableNameToken), tableRefLineNumbers.peek()));
          }
       }
 
-      private static class TableRefAuxInternalExtractListener extends PlSqlParserBaseListener {
-
-         private List<TableReferenceInfo> tableReferences = new ArrayList<>();
-
-         @Override
-         public void enterTable_ref_aux_internal_one(PlSqlParser.Table_ref_aux_internal_oneContext ctx) {
-            if (ctx != null && ctx.dml_table_expression_clause() != null && ctx.dml_table_expression_clause().tableview_name() != null) {
-               Token tableNameToken = ctx.dml_table_expression_clause().tableview_name().getStart();
-               tableReferences.add(new TableReferenceInfo(tableNameToken.getText()));
-            }
-         }
-
-         public List<TableReferenceInfo> getTableReferences(int lineNumber) {
-            List<TableReferenceInfo> updatedList = new ArrayList<>();
-            for (TableReferenceInfo info : tableReferences) {
-               updatedList.add(new TableReferenceInfo(info.getTableName(), lineNumber));
-            }
-            return updatedList;
-         }
+      public List<TableReferenceInfo> getTableReferences() {
+         return tableReferences;
       }
 
       private static class SelectedListExtractListener extends PlSqlParserBaseListener {
@@ -628,7 +615,7 @@ public class IfsCodeReview extends PlSqlParserBaseListener {
          public void enterSelected_list(PlSqlParser.Selected_listContext ctx) {
             Token selectToken = ctx.getStart();
             lineNumber = selectToken.getLine();
-            containsAsterisk = ctx.getText().equals("*");
+            containsAsterisk = TokenText.of(ctx).contentEquals("*");
          }
 
          public boolean containsAsterisk() {
@@ -639,105 +626,475 @@ public class IfsCodeReview extends PlSqlParserBaseListener {
             return lineNumber;
          }
       }
+   }
+
+   /**
+    * This method lexes, parses and walks a single file and records the issues found
+    * in the comment generator of the given review context.
+    *
+    * @param context The review context of the file to be reviewed.
+    * @throws IOException If the file cannot be read.
+    */
+   static void reviewFile(ReviewContext context) throws IOException {
+      reviewFile(context, false);
+   }
+
+   /**
+    * This method lexes, parses and walks a single file and records the issues found
+    * in the comment generator of the given review context.
+    *
+    * @param context The review context of the file to be reviewed.
+    * @param parseListener true to run the checks while parsing, without keeping the parse tree of the file.
+    * @throws IOException If the file cannot be read.
+    */
+   static void reviewFile(ReviewContext context, boolean parseListener) throws IOException {
+      long startNanos = System.nanoTime();
+      CharStream plSqlCode = SourceFile.read(context.getFilePath()).toCharStream();
+      context.getMetrics().addPhaseTime(ReviewMetrics.Phase.READ, startNanos);
 
-      private String getOriginalText(ParserRuleContext ctx) {
-         Token startToken = ctx.getStart();
-         Token stopToken = ctx.getStop();
-         if (startToken != null && stopToken != null) {
-            int startIndex = startToken.getStartIndex();
-            int stopIndex = stopToken.getStopIndex();
-            return startToken.getInputStream().getText(new Interval(startIndex, stopIndex));
+      reviewContent(context, plSqlCode, parseListener);
+   }
+
+   /**
+    * This method lexes, parses and walks the given PL/SQL code and records the issues found
+    * in the comment generator of the given review context.
+    *
+    * @param context The review context of the code to be reviewed.
+    * @param plSqlCode The PL/SQL code.
+    */
+   static void reviewContent(ReviewContext context, CharStream plSqlCode) {
+      reviewContent(context, plSqlCode, false);
+   }
+
+   /**
+    * This method lexes, parses and walks the given PL/SQL code and records the issues found
+    * in the comment generator of the given review context.
+    * In parse listener mode the checks run while the code is parsed, see {@link StreamingParseListener},
+    * and large files are not split into units, since the units would all be held in memory to be walked in order.
+    * When the review exceeds the budget of the file, the issues found so far are dropped and the file is
+    * reviewed with the token rules of {@link LiteReview} that mirror checks of the full review instead.
+    *
+    * @param context The review context of the code to be reviewed.
+    * @param plSqlCode The PL/SQL code.
+    * @param parseListener true to run the checks while parsing, without keeping the parse tree of the file.
+    */
+   static void reviewContent(ReviewContext context, CharStream plSqlCode, boolean parseListener) {
+      ReviewMetrics.FileMetrics metrics = context.getMetrics();
+      int commentCount = context.getCommentGenerator().size();
+
+      // The tokens are buffered up front so that lexing and parsing can be timed separately
+      long startNanos = System.nanoTime();
+      PlSqlLexer lexer = new PlSqlLexer(plSqlCode);
+      CommonTokenStream tokens = new CommonTokenStream(lexer);
+      tokens.fill();
+      metrics.addPhaseTime(ReviewMetrics.Phase.LEX, startNanos);
+      metrics.addTokenCount(tokens.size());
+
+      RuleDispatcher dispatcher = new RuleDispatcher(context);
+
+      try {
+         if (context.getChangedLines() != null && reviewChangedUnits(context, tokens, dispatcher)) {
+            metrics.addParseTreeNodeCount(dispatcher.getNodeCount());
+         } else if (parseListener) {
+            reviewWhileParsing(context, tokens);
+         } else {
+            if (!reviewTopLevelUnits(context, tokens, dispatcher)) {
+               startNanos = System.nanoTime();
+               ParseDriver.ParseResult<PlSqlParser.Sql_scriptContext> parseResult = ParseDriver.parse(tokens, PlSqlParser::sql_script,
+                       parser -> addBudget(context, parser));
+               context.setParseMode(parseResult.getParseMode());
+               context.setGrammar(parseResult.getGrammar());
+               metrics.addPhaseTime(ReviewMetrics.Phase.PARSE, startNanos);
+               reportSyntaxErrors(context, parseResult);
+
+               startNanos = System.nanoTime();
+               ParseTreeWalker.DEFAULT.walk(dispatcher, parseResult.getTree());
+               metrics.addPhaseTime(ReviewMetrics.Phase.WALK, startNanos);
+            }
+            metrics.addParseTreeNodeCount(dispatcher.getNodeCount());
          }
-         return "";
+      } catch (ReviewBudget.ExceededException e) {
+         context.getCommentGenerator().truncate(commentCount);
+         metrics.setDegraded(e.getMessage());
+         System.out.println(context.getFilePath() + ": " + e.getMessage() + ", reviewed with the token rules only");
+         LiteReview.reviewTokensOfDegradedFile(context, tokens.getTokens());
       }
    }
 
-   public static void main(String[] args) {
-      String owner = "";
-      String repo = "";
-      int pullNumber = 0;
+   /**
+    * This method adds the budget of the file to a parser, which checks it as the rules are entered.
+    */
+   private static void addBudget(ReviewContext context, PlSqlParser parser) {
+      if (context.getBudget() != null) {
+         context.getBudget().addTo(parser);
+      }
+   }
+
+   /**
+    * This method parses the whole file with the checks registered as a parse listener, releasing the parse tree
+    * of every unit once it has been walked. If the SLL attempt fails, the issues it already recorded are dropped
+    * and the LL attempt starts over with new rules.
+    *
+    * @param context The review context of the file.
+    * @param tokens The token stream of the whole file.
+    */
+   private static void reviewWhileParsing(ReviewContext context, CommonTokenStream tokens) {
+      CommentGenerator commentGenerator = context.getCommentGenerator();
+      int commentCount = commentGenerator.size();
+      List<RuleDispatcher> dispatchers = new ArrayList<>();
+      List<StreamingParseListener> listeners = new ArrayList<>();
+
+      long startNanos = System.nanoTime();
+      ParseDriver.ParseResult<PlSqlParser.Sql_scriptContext> parseResult = ParseDriver.parse(tokens, PlSqlParser::sql_script, parser -> {
+         commentGenerator.truncate(commentCount);
+         RuleDispatcher dispatcher = new RuleDispatcher(context);
+         StreamingParseListener listener = new StreamingParseListener(dispatcher);
+         dispatchers.add(dispatcher);
+         listeners.add(listener);
+         addBudget(context, parser);
+         parser.addParseListener(listener);
+      });
+      long totalNanos = System.nanoTime() - startNanos;
+      context.setParseMode(parseResult.getParseMode());
+      context.setGrammar(parseResult.getGrammar());
+      reportSyntaxErrors(context, parseResult);
+
+      // Walking happens inside the parse, so it is taken out of the parse time
+      RuleDispatcher dispatcher = dispatchers.get(dispatchers.size() - 1);
+      StreamingParseListener listener = listeners.get(listeners.size() - 1);
+      context.getMetrics().addPhaseNanos(ReviewMetrics.Phase.PARSE, totalNanos - listener.getWalkNanos());
+      context.getMetrics().addPhaseNanos(ReviewMetrics.Phase.WALK, listener.getWalkNanos());
+      context.getMetrics().addParseTreeNodeCount(dispatcher.getNodeCount());
+      // The units walked and released while parsing
+      context.getMetrics().setUnitCount(listener.getReleasedUnits());
+   }
 
-      if (args.length > 0) {
-         commitSHA = args[0];
-         filePath = args[1];
-         owner = args[2];
-         repo = args[3];
-         pullNumber = Integer.parseInt(args[4]);
+   /**
+    * This method parses and walks only the procedure and function bodies that contain changed lines.
+    * It gives up when the file cannot be split into bodies or a change lies outside of them,
+    * in which case the whole file has to be reviewed.
+    *
+    * @param context The review context of the file, holding the changed lines.
+    * @param tokens The token stream of the whole file.
+    * @param dispatcher The rules recording the issues.
+    * @return true if the changed bodies were reviewed, false if the whole file has to be reviewed.
+    */
+   private static boolean reviewChangedUnits(ReviewContext context, CommonTokenStream tokens, RuleDispatcher dispatcher) {
+      List<Token> allTokens = tokens.getTokens();
+      List<UnitSplitter.Unit> units = UnitSplitter.findSubprograms(allTokens);
+      if (units == null || !UnitSplitter.coversAll(units, context.getChangedLines())) {
+         return false;
       }
 
-      filePath = "C:\\Users\\pardh\\Documents\\Netbeans\\IfsCodeReview\\src\\ifscodereview\\CCrpObjectReservation.plsql"; // Replace with your file path
+      for (UnitSplitter.Unit unit : units) {
+         if (unit.containsAny(context.getChangedLines())) {
+            long startNanos = System.nanoTime();
+            CommonTokenStream unitTokens = new CommonTokenStream(new ListTokenSource(new ArrayList<>(unit.getTokens(allTokens))));
+            ParseDriver.ParseResult<PlSqlParser.Package_obj_bodyContext> parseResult = ParseDriver.parse(unitTokens, PlSqlParser::package_obj_body,
+                    parser -> addBudget(context, parser));
+            context.setParseMode(parseResult.getParseMode());
+            context.setGrammar(parseResult.getGrammar());
+            context.getMetrics().addPhaseTime(ReviewMetrics.Phase.PARSE, startNanos);
+            reportSyntaxErrors(context, parseResult);
+
+            startNanos = System.nanoTime();
+            ParseTreeWalker.DEFAULT.walk(dispatcher, parseResult.getTree());
+            context.getMetrics().addPhaseTime(ReviewMetrics.Phase.WALK, startNanos);
+         }
+      }
+      return true;
+   }
 
+   /**
+    * This method prints the syntax errors of a parse and records them in the metrics of the file.
+    * The units with an error have been left out of the parse tree, so they have not been reviewed.
+    *
+    * @param context The review context of the file.
+    * @param parseResult The result of parsing the file or one of its units.
+    */
+   private static void reportSyntaxErrors(ReviewContext context, ParseDriver.ParseResult<?> parseResult) {
+      for (SyntaxDiagnostic diagnostic : parseResult.getDiagnostics()) {
+         System.err.println(context.getFilePath() + ":" + diagnostic);
+      }
+      context.getMetrics().addSyntaxErrors(parseResult.getDiagnostics());
+   }
+
+   /**
+    * This method splits a large file into its top-level units, parses the units concurrently and walks
+    * their parse trees in file order, so the issues are found in the same order as with one parse of the file.
+    * The units are made of the original tokens, so the line numbers of the issues are those of the file.
+    * It gives up when the file is small, there is only one core, the file cannot be split, or a unit fails to parse on its own,
+    * in which case the whole file has to be parsed at once.
+    *
+    * @param context The review context of the file.
+    * @param tokens The token stream of the whole file.
+    * @param dispatcher The rules recording the issues.
+    * @return true if the units were reviewed, false if the whole file has to be parsed.
+    */
+   private static boolean reviewTopLevelUnits(ReviewContext context, CommonTokenStream tokens, RuleDispatcher dispatcher) {
+      List<Token> allTokens = tokens.getTokens();
+      // Splitting only pays off when the units can be parsed on several cores
+      if (allTokens.size() < 2 * MIN_UNIT_TOKENS || ForkJoinPool.getCommonPoolParallelism() < 2) {
+         return false;
+      }
+      List<UnitSplitter.Unit> units = UnitSplitter.findTopLevelUnits(allTokens);
+      if (units == null) {
+         return false;
+      }
+      units = UnitSplitter.joinUnits(units, allTokens, MIN_UNIT_TOKENS);
+      if (units.size() < 2) {
+         return false;
+      }
+
+      long startNanos = System.nanoTime();
+      List<ParseDriver.ParseResult<PlSqlParser.Sql_scriptContext>> parseResults;
       try {
-         File file = new File(filePath);
+         parseResults = units.parallelStream()
+                 .map(unit -> ParseDriver.parseWithoutRecovery(
+                         new CommonTokenStream(new ListTokenSource(new ArrayList<>(unit.getTokens(allTokens)))), PlSqlParser::sql_script,
+                         parser -> addBudget(context, parser)))
+                 .collect(Collectors.toList());
+      } finally {
+         UnitSplitter.restoreTokenIndexes(allTokens);
+      }
+      context.getMetrics().addPhaseTime(ReviewMetrics.Phase.PARSE, startNanos);
+      if (parseResults.contains(null)) {
+         return false;
+      }
 
-         // Use try-with-resources to automatically close resources
-         try ( FileReader reader = new FileReader(file);  BufferedReader bufferedReader = new BufferedReader(reader)) {
+      for (ParseDriver.ParseResult<PlSqlParser.Sql_scriptContext> parseResult : parseResults) {
+         context.setParseMode(parseResult.getParseMode());
+         context.setGrammar(parseResult.getGrammar());
+      }
+      context.getMetrics().setUnitCount(units.size());
 
-            StringBuilder stringBuilder = new StringBuilder();
-            String line;
-            while ((line = bufferedReader.readLine()) != null) {
-               stringBuilder.append(line).append(System.lineSeparator());
-            }
-            String plSqlCode = stringBuilder.toString();
+      startNanos = System.nanoTime();
+      for (ParseDriver.ParseResult<PlSqlParser.Sql_scriptContext> parseResult : parseResults) {
+         ParseTreeWalker.DEFAULT.walk(dispatcher, parseResult.getTree());
+      }
+      context.getMetrics().addPhaseTime(ReviewMetrics.Phase.WALK, startNanos);
+      return true;
+   }
 
-            PlSqlLexer lexer = new PlSqlLexer(CharStreams.fromString(plSqlCode));
-            CommonTokenStream tokens = new CommonTokenStream(lexer);
-            PlSqlParser parser = new PlSqlParser(tokens);
-            ParseTree tree = parser.sql_script();
+   /**
+    * This method loads the DFA states the parser learned from the training corpus, or from the snapshot
+    * given with --dfa-snapshot, so that the first files parse as fast as in a warmed-up JVM.
+    *
+    * @param options The command line options.
+    */
+   private static void loadDfaSnapshot(Map<String, String> options) {
+      if (options.containsKey("no-dfa-snapshot")) {
+         return;
+      }
+      String snapshot = options.get("dfa-snapshot");
+      try {
+         int stateCount = snapshot != null ? DfaSnapshot.load(Path.of(snapshot)) : DfaSnapshot.loadDefault();
+         if (stateCount == 0 && snapshot != null) {
+            System.err.println(snapshot + " was not taken from this grammar and ANTLR version, it is ignored");
+         }
+      } catch (IOException e) {
+         System.err.println("The DFA snapshot could not be loaded: " + e.getMessage());
+      }
+   }
 
-            CodeCheckExtractor extractor = new CodeCheckExtractor();
-            ParseTreeWalker.DEFAULT.walk(extractor, tree);
+   public static void main(String[] args) {
+      String commitSHA = "";
+      String filePath = "";
+      String owner = "";
+      String repo = "";
+      int pullNumber = 0;
 
-            // Print table references with line numbers
-            System.out.println("Table References:");
+      // Options are given as --name=value and may appear anywhere in the argument list
+      Map<String, String> options = new HashMap<>();
+      List<String> arguments = new ArrayList<>();
+      for (String arg : args) {
+         if (arg.startsWith("--")) {
+            int separator = arg.indexOf('=');
+            if (separator > 0) {
+               options.put(arg.substring(2, separator), arg.substring(separator + 1));
+            } else {
+               options.put(arg.substring(2), "");
+            }
+         } else {
+            arguments.add(arg);
+         }
+      }
+      // Files are parsed with the IFS profile of the grammar first, --grammar=full parses with the full grammar only
+      IfsGrammarProfile.setEnabled(!"full".equals(options.getOrDefault("grammar", "ifs")));
+
+      if (options.containsKey("server")) {
+         try {
+            int port = options.get("server").isEmpty() ? ReviewServer.DEFAULT_PORT : Integer.parseInt(options.get("server"));
+            int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+            loadDfaSnapshot(options);
+            ReviewServer server = new ReviewServer(port, threads);
+            // A posted file taking longer or allocating more than allowed is reviewed with the token rules only
+            server.setFileBudget(Long.parseLong(options.getOrDefault("file-timeout", "0")) * 1000,
+                    Long.parseLong(options.getOrDefault("file-memory-limit", "0")) * 1024 * 1024);
+            if (options.containsKey("warmup")) {
+               server.warmUp(ReviewEngine.collectFiles(Arrays.asList(options.get("warmup").split(","))));
+            }
+            server.start();
+         } catch (IOException e) {
+            e.printStackTrace();
+         }
+         return;
+      }
+
+      // A stand-in for the GitHub API, to load-test posting offline
+      if (options.containsKey("github-stub")) {
+         try {
+            int port = options.get("github-stub").isEmpty() ? GitHubStubServer.DEFAULT_PORT : Integer.parseInt(options.get("github-stub"));
+            new GitHubStubServer(port,
+                    Long.parseLong(options.getOrDefault("stub-latency-ms", "0")),
+                    Integer.parseInt(options.getOrDefault("stub-rate-limit", "0")),
+                    Long.parseLong(options.getOrDefault("stub-window-ms", "60000")),
+                    Double.parseDouble(options.getOrDefault("stub-429-rate", "0")),
+                    Double.parseDouble(options.getOrDefault("stub-secondary-rate", "0")),
+                    Integer.parseInt(options.getOrDefault("stub-retry-after", "1"))).start();
+         } catch (IOException e) {
+            e.printStackTrace();
+         }
+         return;
+      }
 
-            // Write comments to a JSON file
-            commentGenerator.writeCommentsToFile("comments.json");
+      // The symbol index is updated from a directory, or queried, without reviewing anything
+      if (options.containsKey("update-index") || options.containsKey("query")) {
+         String indexFile = options.getOrDefault("index", SymbolIndex.DEFAULT_FILE_NAME);
+         try {
+            if (options.containsKey("update-index")) {
+               long startNanos = System.nanoTime();
+               int indexedFiles = SymbolIndexer.update(indexFile, options.get("update-index").isEmpty() ? "." : options.get("update-index"));
+               System.out.println("Indexed " + indexedFiles + " files into " + indexFile + " in " + (System.nanoTime() - startNanos) / 1_000_000 + " ms");
+            }
+            if (options.containsKey("query")) {
+               long startNanos = System.nanoTime();
+               List<SymbolIndex.Hit> hits = SymbolIndex.open(indexFile).query(options.get("query"));
+               long queryMillis = (System.nanoTime() - startNanos) / 1_000_000;
+               for (SymbolIndex.Hit hit : hits) {
+                  System.out.println(hit);
+               }
+               System.out.println(hits.size() + " results in " + queryMillis + " ms");
+            }
+         } catch (IOException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         return;
+      }
 
-            String token = System.getenv("GH_TOKEN");
+      if (arguments.size() > 0) {
+         commitSHA = arguments.get(0);
+         filePath = arguments.get(1);
+         owner = arguments.get(2);
+         repo = arguments.get(3);
+         pullNumber = Integer.parseInt(arguments.get(4));
+      } else {
+         filePath = "C:\\Users\\pardh\\Documents\\Netbeans\\IfsCodeReview\\src\\ifscodereview\\CCrpObjectReservation.plsql"; // Replace with your file path
+      }
 
-            if (token != null && !token.isBlank()) {
-               String apiUrl = GITHUB_API_URL.replace("{owner}", owner)
-                       .replace("{repo}", repo)
-                       .replace("{pull_number}", String.valueOf(pullNumber));
+      try {
+         // The file path may be a single file, a directory or a comma separated list of both
+         List<String> files = ReviewEngine.collectFiles(Arrays.asList(filePath.split(",")));
+         int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+         // Only review the procedures and functions touched by a diff file or by the commits since a base commit
+         ChangedLines changedLines = null;
+         if (options.containsKey("diff")) {
+            changedLines = ChangedLines.fromDiffFile(options.get("diff"));
+         } else if (options.containsKey("base")) {
+            changedLines = ChangedLines.fromGit(options.get("base"), options.getOrDefault("head", commitSHA));
+         }
 
+         // The lite mode only runs the token rules and never parses the files
+         boolean lite = options.containsKey("lite");
+         if (!lite) {
+            loadDfaSnapshot(options);
+         }
+         ReviewEngine engine = new ReviewEngine(threads, changedLines);
+         engine.setLite(lite);
+         // The parse listener mode keeps only the parse tree of the current procedure or function in memory
+         engine.setParseListener(options.containsKey("parse-listener"));
+         // A file taking longer or allocating more than allowed is reviewed with the token rules only
+         engine.setFileBudget(Long.parseLong(options.getOrDefault("file-timeout", "0")) * 1000,
+                 Long.parseLong(options.getOrDefault("file-memory-limit", "0")) * 1024 * 1024);
+         // Rules that look at other files query the index of the repository
+         if (options.containsKey("index")) {
+            engine.setSymbolIndex(SymbolIndex.open(options.get("index")));
+         }
+         if (options.containsKey("cache-dir")) {
+            long cacheSizeBytes = Long.parseLong(options.getOrDefault("cache-size", "256")) * 1024 * 1024;
+            engine.setResultCache(new ResultCache(options.get("cache-dir"), cacheSizeBytes, lite ? LiteReview.RULE_SET_VERSION : RuleDispatcher.getRuleSetVersion()));
+         }
+         // Comments are streamed to the output file while the review runs, and only kept in memory to be posted
+         CommentWriter.Format format = CommentWriter.Format.fromName(options.getOrDefault("format", "github"));
+         String outputPath = options.getOrDefault("output", format.getDefaultFileName());
+         String token = System.getenv("GH_TOKEN");
+         boolean post = token != null && !token.isBlank();
+         CommentGenerator commentGenerator;
+         try (CommentWriter writer = CommentWriter.create(format, new FileOutputStream(outputPath))) {
+            commentGenerator = engine.review(commitSHA, files, writer, post);
+         }
+         System.out.println("Comments have been written to " + outputPath);
+         ReviewMetrics metrics = engine.getMetrics();
+
+         if (post) {
+            String apiUrl = options.getOrDefault("github-api", GitHubReviewPoster.DEFAULT_API_URL);
+            int chunkSize = Integer.parseInt(options.getOrDefault("review-chunk-size", String.valueOf(GitHubReviewPoster.DEFAULT_CHUNK_SIZE)));
+            GitHubReviewPoster poster = new GitHubReviewPoster(apiUrl, token, chunkSize,
+                    Integer.parseInt(options.getOrDefault("post-concurrency", String.valueOf(GitHubReviewPoster.DEFAULT_CONCURRENCY))),
+                    Integer.parseInt(options.getOrDefault("post-retries", String.valueOf(GitHubReviewPoster.DEFAULT_MAX_RETRIES))),
+                    Long.parseLong(options.getOrDefault("post-backoff-ms", String.valueOf(GitHubReviewPoster.DEFAULT_BACKOFF_MILLIS))));
+
+            long startNanos = System.nanoTime();
+            int failures = 0;
+            List<CommentGenerator.Comment> comments = commentGenerator.getComments();
+            // Findings already on the pull request from an earlier push are not posted again
+            if (!options.containsKey("no-dedup")) {
+               if (options.containsKey("github-cache")) {
+                  poster.setResponseCache(options.get("github-cache"));
+               } else if (options.containsKey("cache-dir")) {
+                  poster.setResponseCache(options.get("cache-dir") + File.separator + "github");
+               }
                try {
-                  // Read the JSON data from the file
-                  String jsonString = new String(Files.readAllBytes(Paths.get("comments.json")));
-
-                  // Parse the JSON array
-                  JSONArray jsonArray = new JSONArray(jsonString);
-
-                  // Loop through the array items
-                  for (int i = 0; i < jsonArray.length(); i++) {
-                     JSONObject jsonObject = jsonArray.getJSONObject(i);
-
-                     System.out.println(jsonObject.toString());
-                     try {
-                        HttpClient client = HttpClient.newHttpClient();
-                        HttpRequest request = HttpRequest.newBuilder()
-                                .uri(URI.create(apiUrl))
-                                .header("Authorization", "Bearer " + token)
-                                .header("Accept", "application/vnd.github.v3+json")
-                                .header("Content-Type", "application/json")
-                                .POST(HttpRequest.BodyPublishers.ofString(jsonObject.toString()))
-                                .build();
-
-                        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-
-                        // Handle the response as needed
-                        System.out.println(response.statusCode());
-                        System.out.println(response.body());
-                     } catch (Exception e) {
-                        e.printStackTrace();
-                     }
+                  CommentDeduplicator deduplicator = new CommentDeduplicator(poster.fetchComments(owner, repo, pullNumber));
+                  comments = deduplicator.filterNew(comments);
+                  int fixed = 0;
+                  // The findings of a diff or lite review are incomplete, so missing ones may not be fixed
+                  if (options.containsKey("resolve-fixed") && changedLines == null && !lite) {
+                     Map<Long, String> replies = deduplicator.findFixed(metrics.getFullyReviewedPaths(), commitSHA);
+                     failures += poster.replyToComments(owner, repo, pullNumber, replies);
+                     fixed = replies.size();
                   }
+                  metrics.setDedupStats(deduplicator.getExistingCount(), deduplicator.getDuplicateCount(), fixed);
+                  System.out.println(deduplicator.getDuplicateCount() + " findings are already on the pull request, posting " + comments.size());
                } catch (IOException e) {
+                  System.err.println(e.getMessage() + ", posting all findings");
                }
             }
+            if (options.getOrDefault("post-mode", "review").equals("comments")) {
+               failures += poster.postComments(owner, repo, pullNumber, comments);
+            } else {
+               failures += poster.postReview(owner, repo, pullNumber, commitSHA, comments);
+            }
+            metrics.setPostTime(startNanos, poster.getRequestCount());
+            metrics.setPostStats(poster.getLatencyNanos(), poster.getRetryCount(), failures);
+            if (failures > 0) {
+               System.err.println(failures + " requests to " + apiUrl + " failed after " + poster.getRetryCount() + " retries");
+            }
+         }
 
-         } catch (IOException e) {
-            e.printStackTrace();
+         // The DFAs learned from the reviewed files can be shipped as the snapshot loaded at startup
+         if (options.containsKey("save-dfa-snapshot")) {
+            int stateCount = DfaSnapshot.save(Path.of(options.get("save-dfa-snapshot")));
+            System.out.println("Saved " + stateCount + " DFA states to " + options.get("save-dfa-snapshot"));
+         }
+
+         // Write the timings and counters next to the comments, unless --metrics names another file
+         metrics.writeMetricsToFile(options.getOrDefault("metrics", Path.of(outputPath).resolveSibling("metrics.json").toString()));
+         if (files.size() > 1) {
+            metrics.printSummary();
          }
       } catch (Exception e) {
          e.printStackTrace();
@@ -0,0 +1,230 @@
+package ifscodereview;
+
+import ifscodereview.grammar.PlSqlParser;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.ATNDeserializer;
+import org.antlr.v4.runtime.atn.ATNState;
+import org.antlr.v4.runtime.atn.BasicState;
+import org.antlr.v4.runtime.atn.DecisionState;
+import org.antlr.v4.runtime.atn.EpsilonTransition;
+import org.antlr.v4.runtime.atn.ParserATNSimulator;
+import org.antlr.v4.runtime.atn.PredictionContextCache;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.atn.RuleStopState;
+import org.antlr.v4.runtime.atn.RuleTransition;
+import org.antlr.v4.runtime.atn.Transition;
+import org.antlr.v4.runtime.atn.WildcardTransition;
+import org.antlr.v4.runtime.dfa.DFA;
+
+/**
+ * The IFS profile of the PL/SQL grammar: the grammar without the statements that never occur in the files of
+ * an IFS component (.plsql, .api, .apy, .views, .storage, .ins, .cre and .upg), such as CREATE DATABASE, AUDIT
+ * or the SQL*Plus and Java statements. The prediction of the parser follows every alternative a decision could
+ * take until the alternatives differ, and with the SLL prediction mode it also follows every rule that could come
+ * after the current one, so each statement of the grammar makes every other decision slower.
+ * <p>
+ * The profile is a pruned copy of the ATN of the generated parser, and the parser predicts from it through its own
+ * DFAs, see {@link #applyTo(Parser)}. The generated code, the rule contexts and the alternative numbers stay the same,
+ * so the parse tree of a file the profile can parse is the one the full grammar gives. Three things are pruned:
+ * <ul>
+ * <li>the alternatives of any decision that start with one of the statements left out;</li>
+ * <li>the links from the end of a rule to the rules that can no longer be reached from sql_script, which SLL
+ * prediction follows when it looks past the end of the rule it started in;</li>
+ * <li>alternatives that start with a wildcard. The only one is the {@code '(' .* ')'} after FETCH ... INTO, which
+ * lets SLL prediction follow the wildcard to the end of the file at every call with arguments.</li>
+ * </ul>
+ * A file the profile cannot parse is parsed again with the full grammar, see {@link ParseDriver}.
+ *
+ * @author pardha
+ */
+public final class IfsGrammarProfile {
+
+   // The alternatives of unit_statement that occur in IFS files; every other statement is left out of the profile
+   private static final Set<String> UNIT_STATEMENTS = Set.of(
+           "alter_function", "alter_index", "alter_materialized_view", "alter_package", "alter_procedure",
+           "alter_sequence", "alter_session", "alter_table", "alter_trigger", "alter_type", "alter_view",
+           "analyze", "anonymous_block", "call_statement", "comment_on_column", "comment_on_materialized",
+           "comment_on_table", "create_function_body", "create_index", "create_materialized_view",
+           "create_materialized_view_log", "create_package", "create_package_body", "create_procedure_body",
+           "create_sequence", "create_synonym", "create_table", "create_trigger", "create_type", "create_view",
+           "data_manipulation_language_statements", "drop_function", "drop_index", "drop_materialized_view",
+           "drop_package", "drop_procedure", "drop_sequence", "drop_synonym", "drop_table", "drop_trigger",
+           "drop_type", "drop_view", "grant_statement", "rename_object", "revoke_statement",
+           "transaction_control_statements", "truncate_table");
+
+   // The longest chain of single epsilon transitions between a decision and the first element of an alternative
+   private static final int MAX_EPSILON_CHAIN = 10;
+
+   private static volatile boolean enabled = true;
+
+   /**
+    * The pruned ATN together with the DFAs predicting from it, built on first use and shared by all parsers.
+    */
+   private static class Profile {
+
+      private static final Profile INSTANCE = new Profile();
+
+      private final ATN atn;
+      private final DFA[] decisionToDFA;
+      private final PredictionContextCache contextCache = new PredictionContextCache();
+      private final String version;
+
+      private Profile() {
+         atn = new ATNDeserializer().deserialize(PlSqlParser._serializedATN.toCharArray());
+         CRC32 prunedTransitions = new CRC32();
+         pruneAlternatives(atn, prunedTransitions);
+         pruneFollowLinks(atn, prunedTransitions);
+         decisionToDFA = new DFA[atn.getNumberOfDecisions()];
+         for (int decision = 0; decision < decisionToDFA.length; decision++) {
+            decisionToDFA[decision] = new DFA(atn.getDecisionState(decision), decision);
+         }
+         version = Long.toHexString(prunedTransitions.getValue());
+      }
+   }
+
+   private IfsGrammarProfile() {
+   }
+
+   /**
+    * This method selects whether files are parsed with the IFS profile first or with the full grammar only.
+    *
+    * @param enabled true to try the profile first, which is the default.
+    */
+   public static void setEnabled(boolean enabled) {
+      IfsGrammarProfile.enabled = enabled;
+   }
+
+   public static boolean isEnabled() {
+      return enabled;
+   }
+
+   /**
+    * This method makes a parser predict with the IFS profile, in the prediction mode it had.
+    * The parser must be new or reset.
+    *
+    * @param parser The parser, a PlSqlParser.
+    */
+   public static void applyTo(Parser parser) {
+      Profile profile = Profile.INSTANCE;
+      PredictionMode predictionMode = parser.getInterpreter().getPredictionMode();
+      parser.setInterpreter(new ParserATNSimulator(parser, profile.atn, profile.decisionToDFA, profile.contextCache));
+      parser.getInterpreter().setPredictionMode(predictionMode);
+   }
+
+   /**
+    * This method returns a version of the pruning, which changes with the grammar and with the statements of the
+    * profile. DFAs learned with the profile only apply to a profile of the same version.
+    *
+    * @return The version of the profile.
+    */
+   static String getVersion() {
+      return Profile.INSTANCE.version;
+   }
+
+   /**
+    * This method replaces every alternative of a decision that starts with a statement left out of the profile, or
+    * with a wildcard, by a transition to a state without transitions, so that prediction never follows it.
+    * Replacing the alternative instead of removing it keeps the alternative numbers of the generated code.
+    */
+   private static void pruneAlternatives(ATN atn, CRC32 prunedTransitions) {
+      Set<Integer> excludedRules = new HashSet<>();
+      DecisionState statements = (DecisionState) atn.ruleToStartState[PlSqlParser.RULE_unit_statement].transition(0).target;
+      for (int alt = 0; alt < statements.getNumberOfTransitions(); alt++) {
+         int ruleIndex = getFirstRule(statements.transition(alt).target);
+         if (ruleIndex >= 0 && !UNIT_STATEMENTS.contains(PlSqlParser.ruleNames[ruleIndex])) {
+            excludedRules.add(ruleIndex);
+         }
+      }
+
+      for (DecisionState decision : atn.decisionToState) {
+         for (int alt = 0; alt < decision.getNumberOfTransitions(); alt++) {
+            ATNState target = decision.transition(alt).target;
+            if (excludedRules.contains(getFirstRule(target)) || startsWithWildcard(target)) {
+               BasicState dead = new BasicState();
+               dead.setRuleIndex(decision.ruleIndex);
+               atn.addState(dead);
+               decision.setTransition(alt, new EpsilonTransition(dead));
+               prunedTransitions.update(decision.decision);
+               prunedTransitions.update(alt);
+            }
+         }
+      }
+   }
+
+   /**
+    * This method removes the links from the end of every rule to the rules that are no longer reachable from
+    * sql_script once the alternatives are pruned.
+    */
+   private static void pruneFollowLinks(ATN atn, CRC32 prunedTransitions) {
+      boolean[] reachableRules = new boolean[atn.ruleToStartState.length];
+      boolean[] visitedStates = new boolean[atn.states.size()];
+      Deque<ATNState> pending = new ArrayDeque<>();
+      pending.add(atn.ruleToStartState[PlSqlParser.RULE_sql_script]);
+      while (!pending.isEmpty()) {
+         ATNState state = pending.poll();
+         if (visitedStates[state.stateNumber]) {
+            continue;
+         }
+         visitedStates[state.stateNumber] = true;
+         reachableRules[state.ruleIndex] = true;
+         if (state instanceof RuleStopState) {
+            continue;
+         }
+         for (Transition transition : state.getTransitions()) {
+            pending.add(transition.target);
+            if (transition instanceof RuleTransition) {
+               pending.add(((RuleTransition) transition).followState);
+            }
+         }
+      }
+
+      for (RuleStopState stop : atn.ruleToStopState) {
+         for (int i = stop.getNumberOfTransitions() - 1; i >= 0; i--) {
+            if (!reachableRules[stop.transition(i).target.ruleIndex]) {
+               prunedTransitions.update(stop.transition(i).target.stateNumber);
+               stop.removeTransition(i);
+            }
+         }
+      }
+   }
+
+   /**
+    * This method returns the rule an alternative starts with, or -1 if it does not start with a rule.
+    */
+   private static int getFirstRule(ATNState state) {
+      for (int i = 0; i < MAX_EPSILON_CHAIN && state.getNumberOfTransitions() == 1; i++) {
+         Transition transition = state.transition(0);
+         if (transition instanceof RuleTransition) {
+            return transition.target.ruleIndex;
+         }
+         if (!(transition instanceof EpsilonTransition) || state instanceof DecisionState) {
+            return -1;
+         }
+         state = transition.target;
+      }
+      return -1;
+   }
+
+   /**
+    * This method checks whether an alternative starts with a wildcard, passing through the block and loop states.
+    */
+   private static boolean startsWithWildcard(ATNState state) {
+      for (int i = 0; i < MAX_EPSILON_CHAIN && state.getNumberOfTransitions() == 1; i++) {
+         Transition transition = state.transition(0);
+         if (transition instanceof WildcardTransition) {
+            return true;
+         }
+         if (!(transition instanceof EpsilonTransition)) {
+            return false;
+         }
+         state = transition.target;
+      }
+      return false;
+   }
+}
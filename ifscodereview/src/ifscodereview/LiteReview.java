@@ -0,0 +1,449 @@
+package ifscodereview;
+
+import ifscodereview.grammar.PlSqlLexer;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Token;
+
+/**
+ * Token-only review, used with --lite. The file is only lexed and the {@link TokenRule}s run over the tokens,
+ * the parser is never created. This is fast enough for pre-commit hooks on thousands of files,
+ * and since the lexer accepts any input, files with syntax errors are reviewed as well.
+ * The checks that need a parse tree, such as the cursor and SELECT list checks, are not part of it.
+ *
+ * @author pardha
+ */
+public class LiteReview {
+
+   // Cached lite results are kept apart from the results of the full review
+   public static final String RULE_SET_VERSION = "lite-3";
+
+   // Deployment scripts commit their own transactions
+   private static final List<String> SCRIPT_EXTENSIONS = Arrays.asList(".ins", ".cre", ".upg", ".sql");
+
+   /**
+    * This method lexes a single file and runs the token rules over it.
+    *
+    * @param context The review context of the file to be reviewed.
+    * @throws IOException If the file cannot be read.
+    */
+   static void reviewFile(ReviewContext context) throws IOException {
+      long startNanos = System.nanoTime();
+      CharStream plSqlCode = SourceFile.read(context.getFilePath()).toCharStream();
+      context.getMetrics().addPhaseTime(ReviewMetrics.Phase.READ, startNanos);
+
+      reviewContent(context, plSqlCode);
+   }
+
+   /**
+    * This method lexes the given PL/SQL code and runs the token rules over it.
+    *
+    * @param context The review context of the code to be reviewed.
+    * @param plSqlCode The PL/SQL code.
+    */
+   static void reviewContent(ReviewContext context, CharStream plSqlCode) {
+      ReviewMetrics.FileMetrics metrics = context.getMetrics();
+
+      long startNanos = System.nanoTime();
+      PlSqlLexer lexer = new PlSqlLexer(plSqlCode);
+      // Characters the lexer does not recognize are skipped, there is nothing to report for them here
+      lexer.removeErrorListeners();
+      CommonTokenStream tokenStream = new CommonTokenStream(lexer);
+      tokenStream.fill();
+      List<Token> tokens = tokenStream.getTokens();
+      metrics.addPhaseTime(ReviewMetrics.Phase.LEX, startNanos);
+      metrics.addTokenCount(tokens.size());
+
+      reviewTokens(context, tokens);
+   }
+
+   /**
+    * This method runs the token rules over the tokens of a file.
+    *
+    * @param context The review context of the code to be reviewed.
+    * @param tokens All tokens of the file, comments and whitespace included.
+    */
+   static void reviewTokens(ReviewContext context, List<Token> tokens) {
+      reviewTokens(context, tokens, createRules(context.getFilePath()));
+   }
+
+   /**
+    * This method runs the token rules that mirror checks of the full review over the tokens of a file whose full
+    * review ran out of budget. The rules the full review does not have are left out, and so are cursor declarations,
+    * whose issues the full review reports together in one comment. The findings of the file are then a part of those
+    * of the full review, and do not come and go with whether the file was degraded on a push.
+    *
+    * @param context The review context of the code to be reviewed.
+    * @param tokens All tokens of the file, lexed for the full review.
+    */
+   static void reviewTokensOfDegradedFile(ReviewContext context, List<Token> tokens) {
+      reviewTokens(context, tokens, createFullReviewRules(), true);
+   }
+
+   private static void reviewTokens(ReviewContext context, List<Token> tokens, List<TokenRule> rules) {
+      reviewTokens(context, tokens, rules, false);
+   }
+
+   private static void reviewTokens(ReviewContext context, List<Token> tokens, List<TokenRule> rules, boolean skipCursors) {
+      long startNanos = System.nanoTime();
+      for (int i = 0; i < tokens.size() && tokens.get(i).getType() != Token.EOF; i++) {
+         if (skipCursors && isCursorDeclaration(tokens, i)) {
+            // The parentheses of the declaration are balanced, so the rules keep their state
+            int end = findStatementEnd(tokens, i);
+            if (end >= 0) {
+               i = end;
+               continue;
+            }
+         }
+         for (TokenRule rule : rules) {
+            rule.visitToken(tokens, i, context);
+         }
+      }
+      context.getMetrics().addPhaseTime(ReviewMetrics.Phase.WALK, startNanos);
+   }
+
+   /**
+    * This method creates the token rules for a file.
+    *
+    * @param filePath The path of the file, used to leave out rules that do not apply to its kind of file.
+    * @return New instances of the rules.
+    */
+   static List<TokenRule> createRules(String filePath) {
+      List<TokenRule> rules = createFullReviewRules();
+      rules.add(new TabRule());
+      rules.add(new AnnotationRule());
+      if (!isScript(filePath)) {
+         rules.add(new ApprovedStatementRule());
+      }
+      return rules;
+   }
+
+   /**
+    * This method creates the token rules that report the same findings as checks of the full review.
+    *
+    * @return New instances of the rules.
+    */
+   private static List<TokenRule> createFullReviewRules() {
+      List<TokenRule> rules = new ArrayList<>();
+      rules.add(new BuiltInFunctionCasingRule());
+      rules.add(new TableNameCasingRule());
+      rules.add(new ParameterRule());
+      return rules;
+   }
+
+   /**
+    * This method records an issue, unless only the changed lines of the file are reviewed and the line is not one of them.
+    *
+    * @param context The review context of the file.
+    * @param lineNumber The line of the issue.
+    * @param body The text of the issue.
+    */
+   public static void report(ReviewContext context, int lineNumber, String body) {
+      if (context.getChangedLines() == null || context.getChangedLines().contains(lineNumber)) {
+         context.getCommentGenerator().identifyIssue(body, context.getFilePath(), lineNumber, context.getCommitSHA());
+      }
+   }
+
+   /**
+    * This method checks whether a token starts a cursor declaration, CURSOR name ... IS SELECT ...;
+    * A REF CURSOR type is not a declaration of a cursor.
+    */
+   private static boolean isCursorDeclaration(List<Token> tokens, int index) {
+      return isDefault(tokens.get(index)) && tokens.get(index).getType() == PlSqlLexer.CURSOR
+              && (index == 0 || typeAt(tokens, UnitSplitter.previousDefaultToken(tokens, index - 1)) != PlSqlLexer.REF);
+   }
+
+   /**
+    * This method returns the index of the semicolon ending the statement a token starts, outside of parentheses,
+    * or -1 if the file ends before it.
+    */
+   private static int findStatementEnd(List<Token> tokens, int index) {
+      int depth = 0;
+      for (int i = index; i < tokens.size(); i = UnitSplitter.nextDefaultToken(tokens, i + 1)) {
+         int type = typeAt(tokens, i);
+         if (type == Token.EOF) {
+            return -1;
+         } else if (type == PlSqlLexer.LEFT_PAREN) {
+            depth++;
+         } else if (type == PlSqlLexer.RIGHT_PAREN) {
+            depth--;
+         } else if (type == PlSqlLexer.SEMICOLON && depth <= 0) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   private static boolean isScript(String filePath) {
+      String lowerCaseName = filePath.toLowerCase();
+      for (String extension : SCRIPT_EXTENSIONS) {
+         if (lowerCaseName.endsWith(extension)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private static boolean isDefault(Token token) {
+      return token.getChannel() == Token.DEFAULT_CHANNEL;
+   }
+
+   private static int typeAt(List<Token> tokens, int index) {
+      return index >= 0 && index < tokens.size() ? tokens.get(index).getType() : Token.EOF;
+   }
+
+   /**
+    * Checks that built-in functions, such as NVL or SUBSTR, are written in uppercase wherever they are called.
+    * A name from the {@link BuiltInFunctions} catalog followed by an opening parenthesis is taken as a function call.
+    */
+   static class BuiltInFunctionCasingRule implements TokenRule {
+
+      @Override
+      public void visitToken(List<Token> tokens, int index, ReviewContext context) {
+         Token token = tokens.get(index);
+         if (!isDefault(token) || !BuiltInFunctions.isBuiltIn(token)) {
+            return;
+         }
+         if (typeAt(tokens, UnitSplitter.nextDefaultToken(tokens, index + 1)) != PlSqlLexer.LEFT_PAREN
+                 || (index > 0 && typeAt(tokens, UnitSplitter.previousDefaultToken(tokens, index - 1)) == PlSqlLexer.PERIOD)) {
+            return;
+         }
+         if (!BuiltInFunctions.isUpperCase(TokenText.of(token))) {
+            report(context, token.getLine(), token.getText() + ": Oracle build-in function should be in uppercase");
+         }
+      }
+   }
+
+   /**
+    * Checks that the tables after FROM and JOIN are written in lowercase.
+    * Inside parentheses only subqueries are checked, so that EXTRACT(YEAR FROM date_) is not taken for a table.
+    */
+   static class TableNameCasingRule implements TokenRule {
+
+      private final Deque<Boolean> subqueryParentheses = new ArrayDeque<>();
+
+      @Override
+      public void visitToken(List<Token> tokens, int index, ReviewContext context) {
+         Token token = tokens.get(index);
+         if (!isDefault(token)) {
+            return;
+         }
+
+         int type = token.getType();
+         if (type == PlSqlLexer.LEFT_PAREN) {
+            int nextType = typeAt(tokens, UnitSplitter.nextDefaultToken(tokens, index + 1));
+            subqueryParentheses.push(nextType == PlSqlLexer.SELECT || nextType == PlSqlLexer.WITH);
+         } else if (type == PlSqlLexer.RIGHT_PAREN) {
+            subqueryParentheses.poll();
+         } else if ((type == PlSqlLexer.FROM || type == PlSqlLexer.JOIN)
+                 && (subqueryParentheses.isEmpty() || subqueryParentheses.peek())) {
+            int tableIndex = UnitSplitter.nextDefaultToken(tokens, index + 1);
+            int tableType = typeAt(tokens, tableIndex);
+            if ((tableType != PlSqlLexer.REGULAR_ID && tableType != PlSqlLexer.DELIMITED_ID)
+                    || typeAt(tokens, UnitSplitter.nextDefaultToken(tokens, tableIndex + 1)) == PlSqlLexer.LEFT_PAREN) {
+               return;
+            }
+            TokenText tableName = TokenText.of(tokens.get(tableIndex));
+            if (!tableName.isLowerCase()) {
+               report(context, tokens.get(tableIndex).getLine(), "Table name '" + tableName + "' should be in lowercase");
+            }
+         }
+      }
+   }
+
+   /**
+    * Checks the parameters of procedure and function bodies: their names, directions and alignment.
+    * Specifications and forward declarations are left out, as in the full review.
+    */
+   static class ParameterRule implements TokenRule {
+
+      // "IN OUT" is a single token of the lexer
+      private static final Set<Integer> DIRECTIONS = new HashSet<>(Arrays.asList(PlSqlLexer.IN, PlSqlLexer.OUT, PlSqlLexer.INOUT));
+
+      @Override
+      public void visitToken(List<Token> tokens, int index, ReviewContext context) {
+         Token token = tokens.get(index);
+         if (!isDefault(token) || (token.getType() != PlSqlLexer.PROCEDURE && token.getType() != PlSqlLexer.FUNCTION)) {
+            return;
+         }
+         int nameIndex = UnitSplitter.nextDefaultToken(tokens, index + 1);
+         int parenthesisIndex = UnitSplitter.nextDefaultToken(tokens, nameIndex + 1);
+         if (typeAt(tokens, parenthesisIndex) != PlSqlLexer.LEFT_PAREN) {
+            return;
+         }
+         int specificationEnd = UnitSplitter.findSpecificationEnd(tokens, nameIndex + 1);
+         if (specificationEnd < 0 || tokens.get(specificationEnd).getType() == PlSqlLexer.SEMICOLON) {
+            return;
+         }
+
+         List<Token> names = new ArrayList<>();
+         List<Token> directions = new ArrayList<>();
+         List<Token> dataTypes = new ArrayList<>();
+         int depth = 0;
+         boolean parameterStart = true;
+         for (int i = UnitSplitter.nextDefaultToken(tokens, parenthesisIndex + 1); i < specificationEnd; i = UnitSplitter.nextDefaultToken(tokens, i + 1)) {
+            int type = tokens.get(i).getType();
+            if (depth == 0 && type == PlSqlLexer.RIGHT_PAREN) {
+               break;
+            } else if (type == PlSqlLexer.LEFT_PAREN) {
+               depth++;
+            } else if (type == PlSqlLexer.RIGHT_PAREN) {
+               depth--;
+            } else if (depth == 0 && type == PlSqlLexer.COMMA) {
+               parameterStart = true;
+            } else if (parameterStart) {
+               parameterStart = false;
+               Token name = tokens.get(i);
+               names.add(name);
+
+               int next = UnitSplitter.nextDefaultToken(tokens, i + 1);
+               if (DIRECTIONS.contains(typeAt(tokens, next))) {
+                  directions.add(tokens.get(next));
+               } else {
+                  report(context, name.getLine(), name.getText() + ": Parameter direction was not specified.");
+               }
+               while (DIRECTIONS.contains(typeAt(tokens, next)) || typeAt(tokens, next) == PlSqlLexer.NOCOPY) {
+                  next = UnitSplitter.nextDefaultToken(tokens, next + 1);
+               }
+               if (next < specificationEnd) {
+                  dataTypes.add(tokens.get(next));
+               }
+
+               if (!TokenText.of(name).endsWith("_")) {
+                  report(context, name.getLine(), name.getText() + ": Parameter does not end with an underscore");
+               }
+            }
+         }
+
+         checkVerticalAlignment(context, "Parameters", names);
+         checkVerticalAlignment(context, "Parameters Directions", directions);
+         checkVerticalAlignment(context, "Parameters Data Types", dataTypes);
+      }
+
+      private static void checkVerticalAlignment(ReviewContext context, String category, List<Token> tokens) {
+         for (int i = 1; i < tokens.size(); i++) {
+            if (tokens.get(i).getCharPositionInLine() != tokens.get(0).getCharPositionInLine()) {
+               report(context, tokens.get(i).getLine(), category + " are not vertically aligned");
+               break;
+            }
+         }
+      }
+   }
+
+   /**
+    * Checks that the code is indented with spaces, reporting every line with a tab once.
+    */
+   static class TabRule implements TokenRule {
+
+      private int lastReportedLine = 0;
+
+      @Override
+      public void visitToken(List<Token> tokens, int index, ReviewContext context) {
+         Token token = tokens.get(index);
+         if (token.getType() != PlSqlLexer.SPACES) {
+            return;
+         }
+         TokenText text = TokenText.of(token);
+         int line = token.getLine();
+         for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+               line++;
+            } else if (c == '\t' && line != lastReportedLine) {
+               lastReportedLine = line;
+               report(context, line, "Tabs should not be used, indent with spaces");
+            }
+         }
+      }
+   }
+
+   /**
+    * Checks the IFS annotations that belong to a method, such as @Override and @Overtake:
+    * they have to come directly before a procedure or function, and can only be used outside of the Core layer.
+    */
+   static class AnnotationRule implements TokenRule {
+
+      private static final Set<String> METHOD_ANNOTATIONS = new HashSet<>(Arrays.asList(
+              "OVERRIDE", "OVERTAKE", "FINAL", "UNCHECKEDACCESS", "SECURITYCHECK", "SERVERONLYACCESS"));
+      private static final Set<String> LAYER_ANNOTATIONS = new HashSet<>(Arrays.asList("OVERRIDE", "OVERTAKE"));
+
+      private String layer = null;
+
+      @Override
+      public void visitToken(List<Token> tokens, int index, ReviewContext context) {
+         Token token = tokens.get(index);
+         if (token.getType() == PlSqlLexer.IFS_PROJECT_LAYER) {
+            // The lexer hides the layer keyword only, the name of the layer follows it
+            int nameIndex = UnitSplitter.nextDefaultToken(tokens, index + 1);
+            if (typeAt(tokens, nameIndex) == PlSqlLexer.REGULAR_ID) {
+               layer = tokens.get(nameIndex).getText();
+            }
+         } else if (token.getType() == PlSqlLexer.ANNOTATION) {
+            String name = annotationName(token.getText());
+            if (!METHOD_ANNOTATIONS.contains(name.toUpperCase())) {
+               return;
+            }
+            int nextType = typeAt(tokens, UnitSplitter.nextDefaultToken(tokens, index + 1));
+            if (nextType != PlSqlLexer.PROCEDURE && nextType != PlSqlLexer.FUNCTION) {
+               report(context, token.getLine(), "Annotation @" + name + " should be placed directly before a procedure or function");
+            }
+            if (LAYER_ANNOTATIONS.contains(name.toUpperCase()) && "Core".equalsIgnoreCase(layer)) {
+               report(context, token.getLine(), "Annotation @" + name + " is not allowed in the Core layer");
+            }
+         }
+      }
+   }
+
+   /**
+    * Checks that COMMIT, ROLLBACK and EXECUTE IMMEDIATE in business logic are approved with the IFS annotation made for it.
+    */
+   static class ApprovedStatementRule implements TokenRule {
+
+      @Override
+      public void visitToken(List<Token> tokens, int index, ReviewContext context) {
+         Token token = tokens.get(index);
+         if (!isDefault(token)) {
+            return;
+         }
+
+         int type = token.getType();
+         if (type == PlSqlLexer.COMMIT || type == PlSqlLexer.ROLLBACK) {
+            if (!isAnnotated(tokens, index, "ApproveTransactionStatement")) {
+               report(context, token.getLine(), token.getText().toUpperCase() + " should be approved with @ApproveTransactionStatement");
+            }
+         } else if (type == PlSqlLexer.EXECUTE && typeAt(tokens, UnitSplitter.nextDefaultToken(tokens, index + 1)) == PlSqlLexer.IMMEDIATE) {
+            if (!isAnnotated(tokens, index, "ApproveDynamicStatement")) {
+               report(context, token.getLine(), "EXECUTE IMMEDIATE should be approved with @ApproveDynamicStatement");
+            }
+         }
+      }
+
+      /**
+       * This method checks whether the hidden tokens directly before a statement hold the given annotation.
+       */
+      private static boolean isAnnotated(List<Token> tokens, int index, String annotation) {
+         for (int i = index - 1; i >= 0 && !isDefault(tokens.get(i)); i--) {
+            if (tokens.get(i).getType() == PlSqlLexer.ANNOTATION && annotationName(tokens.get(i).getText()).equalsIgnoreCase(annotation)) {
+               return true;
+            }
+         }
+         return false;
+      }
+   }
+
+   private static String annotationName(String annotationText) {
+      int end = 1;
+      while (end < annotationText.length() && Character.isLetter(annotationText.charAt(end))) {
+         end++;
+      }
+      return annotationText.substring(1, end);
+   }
+}
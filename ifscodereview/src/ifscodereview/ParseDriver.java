@@ -0,0 +1,294 @@
+package ifscodereview;
+
+import ifscodereview.grammar.PlSqlParser;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.WritableToken;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+/**
+ * Parses in two stages: first with the fast SLL prediction mode, bailing out at the first syntax error,
+ * and only if that fails again with full LL prediction.
+ * SLL succeeds for almost all valid input and then gives the same tree as LL.
+ * When SLL fails, the input is parsed again with SLL, giving up on every unit with a syntax error and resuming
+ * at the next unit, see {@link UnitRecoveryStrategy}. Only the units left out are then tried with LL, and the
+ * input is parsed with LL only if one of them parses with LL, so a file with syntax errors is not parsed with LL.
+ * Unless it is disabled, the input is first parsed with SLL and the {@link IfsGrammarProfile}, which predicts faster.
+ * Only input the profile cannot parse, because of code outside the profile, a syntax error or a decision SLL cannot
+ * make, goes through the stages above with the full grammar.
+ *
+ * @author pardha
+ */
+public class ParseDriver {
+
+   public enum ParseMode {
+      SLL, LL
+   }
+
+   public enum Grammar {
+      IFS, FULL
+   }
+
+   /**
+    * Bails out at the first syntax error like BailErrorStrategy, but removes the parse listeners first. The parser
+    * still leaves every open rule on its way out, and the listeners would see rules that were never completed.
+    */
+   private static class ListenerBailErrorStrategy extends BailErrorStrategy {
+
+      @Override
+      public void recover(Parser recognizer, RecognitionException e) {
+         recognizer.removeParseListeners();
+         super.recover(recognizer, e);
+      }
+
+      @Override
+      public Token recoverInline(Parser recognizer) throws RecognitionException {
+         recognizer.removeParseListeners();
+         return super.recoverInline(recognizer);
+      }
+   }
+
+   /**
+    * The parse tree of a file or unit together with the prediction mode that was needed to build it
+    * and the syntax errors of the units left out of the tree.
+    */
+   public static class ParseResult<T extends ParserRuleContext> {
+
+      private final T tree;
+      private final ParseMode parseMode;
+      private final Grammar grammar;
+      private final List<SyntaxDiagnostic> diagnostics;
+
+      public ParseResult(T tree, ParseMode parseMode) {
+         this(tree, parseMode, Grammar.FULL, Collections.emptyList());
+      }
+
+      public ParseResult(T tree, ParseMode parseMode, List<SyntaxDiagnostic> diagnostics) {
+         this(tree, parseMode, Grammar.FULL, diagnostics);
+      }
+
+      public ParseResult(T tree, ParseMode parseMode, Grammar grammar, List<SyntaxDiagnostic> diagnostics) {
+         this.tree = tree;
+         this.parseMode = parseMode;
+         this.grammar = grammar;
+         this.diagnostics = diagnostics;
+      }
+
+      public T getTree() {
+         return tree;
+      }
+
+      public ParseMode getParseMode() {
+         return parseMode;
+      }
+
+      public Grammar getGrammar() {
+         return grammar;
+      }
+
+      public List<SyntaxDiagnostic> getDiagnostics() {
+         return diagnostics;
+      }
+   }
+
+   /**
+    * This method parses a token stream with the given start rule, trying SLL before LL.
+    *
+    * @param tokens The token stream to be parsed.
+    * @param startRule The parser rule to start with, such as PlSqlParser::sql_script.
+    * @return The parse tree and the prediction mode that was needed.
+    */
+   public static <T extends ParserRuleContext> ParseResult<T> parse(TokenStream tokens, Function<PlSqlParser, T> startRule) {
+      return parse(tokens, startRule, parser -> {
+      });
+   }
+
+   /**
+    * This method parses a token stream with the given start rule, trying SLL before LL.
+    * The parser is prepared before every attempt, for instance to add parse listeners. The parse listeners of
+    * a failed attempt are removed before the next attempt, so anything they recorded has to be discarded.
+    *
+    * @param tokens The token stream to be parsed.
+    * @param startRule The parser rule to start with, such as PlSqlParser::sql_script.
+    * @param prepare Called with the parser before each attempt.
+    * @return The parse tree and the prediction mode that was needed.
+    */
+   public static <T extends ParserRuleContext> ParseResult<T> parse(TokenStream tokens, Function<PlSqlParser, T> startRule, Consumer<PlSqlParser> prepare) {
+      T profileTree = parseWithProfile(tokens, startRule, prepare);
+      if (profileTree != null) {
+         return new ParseResult<>(profileTree, ParseMode.SLL, Grammar.IFS, Collections.emptyList());
+      }
+
+      PlSqlParser parser = newSllParser(newFullGrammarParser(tokens));
+      prepare.accept(parser);
+
+      try {
+         return new ParseResult<>(startRule.apply(parser), ParseMode.SLL);
+      } catch (ParseCancellationException e) {
+         // SLL failed, which means either a real syntax error or a decision SLL cannot make
+      }
+
+      // Skip the units with syntax errors, which is cheap with SLL, and find out whether they are errors with LL as well
+      UnitRecoveryStrategy errorStrategy = new UnitRecoveryStrategy();
+      T tree = parseAgain(parser, errorStrategy, PredictionMode.SLL, startRule, prepare);
+      // The budget of the file applies to the units tried with LL as well
+      ReviewBudget budget = ReviewBudget.of(parser);
+      if (errorStrategy.getSkippedUnits().stream().noneMatch(unit -> parsesWithLL(tokens, unit, budget))) {
+         return new ParseResult<>(tree, ParseMode.SLL, errorStrategy.getDiagnostics());
+      }
+
+      errorStrategy = new UnitRecoveryStrategy();
+      tree = parseAgain(parser, errorStrategy, PredictionMode.LL, startRule, prepare);
+      return new ParseResult<>(tree, ParseMode.LL, errorStrategy.getDiagnostics());
+   }
+
+   /**
+    * This method parses a token stream with SLL and the IFS profile, unless the profile is disabled.
+    *
+    * @return The parse tree, or null if the profile is disabled or cannot parse the tokens.
+    */
+   private static <T extends ParserRuleContext> T parseWithProfile(TokenStream tokens, Function<PlSqlParser, T> startRule, Consumer<PlSqlParser> prepare) {
+      if (!IfsGrammarProfile.isEnabled()) {
+         return null;
+      }
+      PlSqlParser parser = newSllParser(new PlSqlParser(tokens));
+      IfsGrammarProfile.applyTo(parser);
+      prepare.accept(parser);
+      try {
+         return startRule.apply(parser);
+      } catch (ParseCancellationException e) {
+         // Code outside the profile, a syntax error or a decision SLL cannot make, parsed again with the full grammar
+         tokens.seek(0);
+         return null;
+      }
+   }
+
+   private static PlSqlParser newFullGrammarParser(TokenStream tokens) {
+      // The DFAs of the full grammar are only loaded from the snapshot when the first file needs them
+      DfaSnapshot.loadDeferred();
+      return new PlSqlParser(tokens);
+   }
+
+   private static PlSqlParser newSllParser(PlSqlParser parser) {
+      parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+      parser.removeErrorListeners();
+      parser.setErrorHandler(new ListenerBailErrorStrategy());
+      return parser;
+   }
+
+   private static <T extends ParserRuleContext> T parseAgain(PlSqlParser parser, UnitRecoveryStrategy errorStrategy, PredictionMode predictionMode,
+           Function<PlSqlParser, T> startRule, Consumer<PlSqlParser> prepare) {
+      parser.getInputStream().seek(0);
+      parser.reset();
+      parser.removeParseListeners();
+      parser.setErrorHandler(errorStrategy);
+      parser.getInterpreter().setPredictionMode(predictionMode);
+      prepare.accept(parser);
+      return startRule.apply(parser);
+   }
+
+   /**
+    * This method parses the tokens of a unit skipped by SLL on their own with LL, to find out whether the unit
+    * has a syntax error or SLL could not parse it. The tokens get their index in the token stream back afterwards.
+    *
+    * @param tokens The token stream holding the unit.
+    * @param unit The unit skipped because of a syntax error.
+    * @param budget The budget of the file, or null.
+    * @return true if the unit parses completely with LL.
+    */
+   private static boolean parsesWithLL(TokenStream tokens, UnitRecoveryStrategy.SkippedUnit unit, ReviewBudget budget) {
+      List<Token> unitTokens = new ArrayList<>();
+      for (int i = unit.getStartTokenIndex(); i <= unit.getStopTokenIndex(); i++) {
+         unitTokens.add(tokens.get(i));
+      }
+      PlSqlParser parser = newFullGrammarParser(new CommonTokenStream(new ListTokenSource(unitTokens)));
+      parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+      parser.removeErrorListeners();
+      parser.setErrorHandler(new BailErrorStrategy());
+      if (budget != null) {
+         budget.addTo(parser);
+      }
+
+      try {
+         switch (unit.getRuleIndex()) {
+            case PlSqlParser.RULE_procedure_body:
+               parser.procedure_body();
+               break;
+            case PlSqlParser.RULE_function_body:
+               parser.function_body();
+               break;
+            case PlSqlParser.RULE_package_obj_body:
+               parser.package_obj_body();
+               break;
+            default:
+               parser.unit_statement();
+               break;
+         }
+         return parser.getCurrentToken().getType() == Token.EOF;
+      } catch (ParseCancellationException e) {
+         return false;
+      } finally {
+         for (int i = unit.getStartTokenIndex(); i <= unit.getStopTokenIndex(); i++) {
+            ((WritableToken) tokens.get(i)).setTokenIndex(i);
+         }
+      }
+   }
+
+   /**
+    * This method parses a token stream with the given start rule, trying SLL before LL, but without
+    * any error recovery or reporting. It is used for parts of a file that were split off by a heuristic,
+    * where a syntax error may be caused by a wrong split rather than by the code.
+    *
+    * @param tokens The token stream to be parsed.
+    * @param startRule The parser rule to start with, such as PlSqlParser::sql_script.
+    * @return The parse tree and the prediction mode that was needed, or null on a syntax error.
+    */
+   public static <T extends ParserRuleContext> ParseResult<T> parseWithoutRecovery(TokenStream tokens, Function<PlSqlParser, T> startRule) {
+      return parseWithoutRecovery(tokens, startRule, parser -> {
+      });
+   }
+
+   /**
+    * This method parses a token stream with the given start rule, trying SLL before LL, but without
+    * any error recovery or reporting. The parser is prepared before the SLL attempts.
+    *
+    * @param tokens The token stream to be parsed.
+    * @param startRule The parser rule to start with, such as PlSqlParser::sql_script.
+    * @param prepare Called with the parser before parsing.
+    * @return The parse tree and the prediction mode that was needed, or null on a syntax error.
+    */
+   public static <T extends ParserRuleContext> ParseResult<T> parseWithoutRecovery(TokenStream tokens, Function<PlSqlParser, T> startRule, Consumer<PlSqlParser> prepare) {
+      T profileTree = parseWithProfile(tokens, startRule, prepare);
+      if (profileTree != null) {
+         return new ParseResult<>(profileTree, ParseMode.SLL, Grammar.IFS, Collections.emptyList());
+      }
+
+      PlSqlParser parser = newSllParser(newFullGrammarParser(tokens));
+      prepare.accept(parser);
+
+      try {
+         return new ParseResult<>(startRule.apply(parser), ParseMode.SLL);
+      } catch (ParseCancellationException e) {
+         tokens.seek(0);
+         parser.reset();
+         parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+      }
+      try {
+         return new ParseResult<>(startRule.apply(parser), ParseMode.LL);
+      } catch (ParseCancellationException e) {
+         return null;
+      }
+   }
+}
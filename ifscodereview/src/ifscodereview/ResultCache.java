@@ -0,0 +1,246 @@
+package ifscodereview;
+
+import ifscodereview.grammar.PlSqlLexer;
+import ifscodereview.grammar.PlSqlParser;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Persistent cache of the comments found in a file, so that unchanged files are not lexed, parsed and walked again.
+ * Entries are keyed by the git blob SHA of the file content, the grammar version and the rule-set version,
+ * and the least recently used entries are evicted when the cache grows beyond its size limit.
+ *
+ * @author pardha
+ */
+public class ResultCache {
+
+   private static final int MAGIC = 0x49465343; // "IFSC"
+   private static final int FORMAT_VERSION = 2;
+   private static final String ENTRY_SUFFIX = ".bin";
+   private static final String TEMPORARY_SUFFIX = ".tmp";
+   // A temporary entry this old is left over from a run that failed to write it, not being written by another run
+   private static final long STALE_TEMPORARY_MILLIS = 60 * 60 * 1000;
+
+   // Changes whenever the lexer or parser is regenerated from a different grammar
+   static final String GRAMMAR_VERSION = Integer.toHexString(PlSqlLexer._serializedATN.hashCode())
+           + Integer.toHexString(PlSqlParser._serializedATN.hashCode());
+
+   private final Path directory;
+   private final long maxSizeBytes;
+   private final String versionKey;
+   private final AtomicLong currentSizeBytes = new AtomicLong();
+
+   /**
+    * Creates a cache stored in the given directory.
+    *
+    * @param directory The directory holding the cache entries, created if it does not exist.
+    * @param maxSizeBytes The size the cache is trimmed to when it grows beyond it.
+    * @param ruleSetVersion The version of the code checks, see {@link RuleDispatcher#getRuleSetVersion()}.
+    * @throws IOException If the directory cannot be created or read.
+    */
+   public ResultCache(String directory, long maxSizeBytes, String ruleSetVersion) throws IOException {
+      this.directory = Paths.get(directory);
+      this.maxSizeBytes = maxSizeBytes;
+      this.versionKey = GRAMMAR_VERSION + "-" + ruleSetVersion;
+      Files.createDirectories(this.directory);
+      try ( Stream<Path> entries = Files.list(this.directory)) {
+         currentSizeBytes.set(entries.mapToLong(entry -> entry.toFile().length()).sum());
+      }
+   }
+
+   /**
+    * This method computes the cache key of a file content.
+    * The key starts with the git blob SHA of the content, so it matches the object id git reports for the file.
+    *
+    * @param content The raw content of the file.
+    * @return The cache key.
+    */
+   public String key(ByteBuffer content) {
+      try {
+         MessageDigest digest = MessageDigest.getInstance("SHA-1");
+         digest.update(("blob " + content.remaining() + "\0").getBytes(StandardCharsets.US_ASCII));
+         digest.update(content);
+         StringBuilder key = new StringBuilder();
+         for (byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+         }
+         return key.append('-').append(versionKey).toString();
+      } catch (NoSuchAlgorithmException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+
+   /**
+    * This method loads the cached comments of a file into its review context, and the syntax errors of the file
+    * into its metrics, so a file whose broken units were skipped is not taken as fully reviewed.
+    *
+    * @param key The cache key of the file content.
+    * @param context The review context receiving the comments.
+    * @return true on a cache hit, false if the file has to be reviewed.
+    */
+   public boolean load(String key, ReviewContext context) {
+      Path entry = directory.resolve(key + ENTRY_SUFFIX);
+      if (!Files.isRegularFile(entry)) {
+         return false;
+      }
+
+      List<String> bodies = new ArrayList<>();
+      List<Integer> lineNumbers = new ArrayList<>();
+      List<SyntaxDiagnostic> syntaxErrors = new ArrayList<>();
+      try ( DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+         if (input.readInt() != MAGIC || input.readUnsignedByte() != FORMAT_VERSION) {
+            return false;
+         }
+         int count = input.readInt();
+         for (int i = 0; i < count; i++) {
+            lineNumbers.add(input.readInt());
+            bodies.add(readString(input));
+         }
+         int syntaxErrorCount = input.readInt();
+         for (int i = 0; i < syntaxErrorCount; i++) {
+            int lineNumber = input.readInt();
+            int column = input.readInt();
+            String message = readString(input);
+            String unit = input.readBoolean() ? readString(input) : null;
+            syntaxErrors.add(new SyntaxDiagnostic(lineNumber, column, message, unit, input.readInt()));
+         }
+         // Mark the entry as recently used
+         Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+      } catch (IOException e) {
+         // A damaged or concurrently evicted entry is treated as a miss
+         return false;
+      }
+
+      for (int i = 0; i < bodies.size(); i++) {
+         context.getCommentGenerator().identifyIssue(bodies.get(i), context.getFilePath(), lineNumbers.get(i), context.getCommitSHA());
+      }
+      context.getMetrics().addSyntaxErrors(syntaxErrors);
+      return true;
+   }
+
+   /**
+    * This method stores the comments and the syntax errors found in a file.
+    * Only the body and line number of each comment are stored, the path and commit are taken from the context on load.
+    *
+    * @param key The cache key of the file content.
+    * @param commentGenerator The comments found in the file.
+    * @param syntaxErrors The syntax errors of the units that were skipped.
+    */
+   public void store(String key, CommentGenerator commentGenerator, List<SyntaxDiagnostic> syntaxErrors) {
+      Path entry = directory.resolve(key + ENTRY_SUFFIX);
+      Path temporaryEntry = null;
+      try {
+         temporaryEntry = Files.createTempFile(directory, key, TEMPORARY_SUFFIX);
+         try ( DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryEntry)))) {
+            output.writeInt(MAGIC);
+            output.writeByte(FORMAT_VERSION);
+            output.writeInt(commentGenerator.size());
+            for (CommentGenerator.Comment comment : commentGenerator.getComments()) {
+               output.writeInt(comment.getLineNumber());
+               writeString(output, comment.getBody());
+            }
+            output.writeInt(syntaxErrors.size());
+            for (SyntaxDiagnostic syntaxError : syntaxErrors) {
+               output.writeInt(syntaxError.getLineNumber());
+               output.writeInt(syntaxError.getColumn());
+               writeString(output, syntaxError.getMessage());
+               output.writeBoolean(syntaxError.getUnit() != null);
+               if (syntaxError.getUnit() != null) {
+                  writeString(output, syntaxError.getUnit());
+               }
+               output.writeInt(syntaxError.getResumeLineNumber());
+            }
+         }
+         long size = temporaryEntry.toFile().length();
+         // An entry replacing one of the same key only adds the difference in size
+         long replacedSize = entry.toFile().length();
+         Files.move(temporaryEntry, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+         temporaryEntry = null;
+         if (currentSizeBytes.addAndGet(size - replacedSize) > maxSizeBytes) {
+            evict();
+         }
+      } catch (IOException e) {
+         e.printStackTrace();
+      } finally {
+         deleteTemporaryEntry(temporaryEntry);
+      }
+   }
+
+   private static void deleteTemporaryEntry(Path temporaryEntry) {
+      if (temporaryEntry != null) {
+         try {
+            Files.deleteIfExists(temporaryEntry);
+         } catch (IOException e) {
+            // Swept by the next eviction once it is stale
+         }
+      }
+   }
+
+   // Strings are stored as their UTF-8 length and bytes, DataOutputStream.writeUTF is limited to 64 KB
+   private static void writeString(DataOutputStream output, String text) throws IOException {
+      byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+      output.writeInt(bytes.length);
+      output.write(bytes);
+   }
+
+   private static String readString(DataInputStream input) throws IOException {
+      byte[] bytes = new byte[input.readInt()];
+      input.readFully(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+
+   /**
+    * This method deletes the least recently used entries until the cache is back under 90% of its size limit.
+    * Temporary entries left over by runs that failed to write them are deleted first, the temporary entries still
+    * being written count towards the size.
+    */
+   private synchronized void evict() throws IOException {
+      List<File> entries = new ArrayList<>();
+      long size = 0;
+      long staleMillis = System.currentTimeMillis() - STALE_TEMPORARY_MILLIS;
+      try ( Stream<Path> files = Files.list(directory)) {
+         for (File file : files.map(Path::toFile).collect(Collectors.toList())) {
+            if (file.getName().endsWith(ENTRY_SUFFIX)) {
+               entries.add(file);
+               size += file.length();
+            } else if (file.getName().endsWith(TEMPORARY_SUFFIX)) {
+               if (file.lastModified() >= staleMillis || !file.delete()) {
+                  size += file.length();
+               }
+            }
+         }
+      }
+      entries.sort(Comparator.comparingLong(File::lastModified));
+
+      long targetSize = maxSizeBytes * 9 / 10;
+      for (File entry : entries) {
+         if (size <= targetSize) {
+            break;
+         }
+         long entrySize = entry.length();
+         if (entry.delete()) {
+            size -= entrySize;
+         }
+      }
+      currentSizeBytes.set(size);
+   }
+}
@@ -0,0 +1,148 @@
+package ifscodereview;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+/**
+ * The time and memory a single file may take to be reviewed. The budget is checked while the file is parsed,
+ * by a parse listener, and while it is walked, by the {@link RuleDispatcher}, and the review is aborted with
+ * an {@link ExceededException} once it is used up. The file is then reviewed with the token rules only,
+ * so that one pathological file, such as a generated script with tens of thousands of statements, cannot stall
+ * the review of all others. The memory is the number of bytes allocated by the thread reviewing the file.
+ *
+ * @author pardha
+ */
+public class ReviewBudget {
+
+   // The clock is only read every so many rules, reading it costs more than entering a rule
+   private static final int CHECK_INTERVAL = 1024;
+
+   private static final com.sun.management.ThreadMXBean THREAD_BEAN = getThreadBean();
+
+   /**
+    * Thrown when a review takes longer or allocates more than its budget.
+    */
+   public static class ExceededException extends RuntimeException {
+
+      private static final long serialVersionUID = 1L;
+
+      public ExceededException(String message) {
+         super(message);
+      }
+   }
+
+   /**
+    * Checks the budget as the parser enters rules. The parse listeners are removed before the parse is aborted,
+    * since the parser still leaves every open rule and the other listeners would see rules they never entered.
+    */
+   private static class ParseCheck implements ParseTreeListener {
+
+      private final ReviewBudget budget;
+      private final Parser parser;
+      private int ruleCount = 0;
+
+      ParseCheck(ReviewBudget budget, Parser parser) {
+         this.budget = budget;
+         this.parser = parser;
+      }
+
+      @Override
+      public void enterEveryRule(ParserRuleContext ctx) {
+         if (++ruleCount % CHECK_INTERVAL == 0) {
+            try {
+               budget.check();
+            } catch (ExceededException e) {
+               parser.removeParseListeners();
+               throw e;
+            }
+         }
+      }
+
+      @Override
+      public void exitEveryRule(ParserRuleContext ctx) {
+      }
+
+      @Override
+      public void visitTerminal(TerminalNode node) {
+      }
+
+      @Override
+      public void visitErrorNode(ErrorNode node) {
+      }
+   }
+
+   private final long maxNanos;
+   private final long maxAllocatedBytes;
+   private final long startNanos;
+   private final long threadId;
+   private final long startAllocatedBytes;
+
+   /**
+    * Creates the budget of a file, starting now on the current thread.
+    *
+    * @param maxMillis The time the review may take, or 0 for no limit.
+    * @param maxAllocatedBytes The bytes the review may allocate, or 0 for no limit.
+    */
+   public ReviewBudget(long maxMillis, long maxAllocatedBytes) {
+      this.maxNanos = maxMillis * 1_000_000;
+      this.maxAllocatedBytes = THREAD_BEAN != null ? maxAllocatedBytes : 0;
+      this.startNanos = System.nanoTime();
+      this.threadId = Thread.currentThread().getId();
+      this.startAllocatedBytes = this.maxAllocatedBytes > 0 ? THREAD_BEAN.getThreadAllocatedBytes(threadId) : 0;
+   }
+
+   /**
+    * This method aborts the review if the budget is used up. The memory is only checked on the thread
+    * the review started on; units parsed on other threads are only held to the time limit.
+    *
+    * @throws ExceededException If the review took longer or allocated more than allowed.
+    */
+   public void check() {
+      long elapsedNanos = System.nanoTime() - startNanos;
+      if (maxNanos > 0 && elapsedNanos > maxNanos) {
+         throw new ExceededException("time limit of " + maxNanos / 1_000_000 + " ms exceeded");
+      }
+      if (maxAllocatedBytes > 0 && Thread.currentThread().getId() == threadId
+              && THREAD_BEAN.getThreadAllocatedBytes(threadId) - startAllocatedBytes > maxAllocatedBytes) {
+         throw new ExceededException("memory limit of " + maxAllocatedBytes / (1024 * 1024) + " MB exceeded");
+      }
+   }
+
+   /**
+    * This method makes a parser check the budget while it parses.
+    *
+    * @param parser The parser of the file or of one of its units.
+    */
+   public void addTo(Parser parser) {
+      parser.addParseListener(new ParseCheck(this, parser));
+   }
+
+   /**
+    * This method returns the budget a parser checks, so that it can be added to the parsers of parts of the same input.
+    *
+    * @param parser A parser.
+    * @return The budget added to the parser, or null if it has none.
+    */
+   public static ReviewBudget of(Parser parser) {
+      for (ParseTreeListener listener : parser.getParseListeners()) {
+         if (listener instanceof ParseCheck) {
+            return ((ParseCheck) listener).budget;
+         }
+      }
+      return null;
+   }
+
+   private static com.sun.management.ThreadMXBean getThreadBean() {
+      ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+      if (threadBean instanceof com.sun.management.ThreadMXBean
+              && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()) {
+         return (com.sun.management.ThreadMXBean) threadBean;
+      }
+      return null;
+   }
+}
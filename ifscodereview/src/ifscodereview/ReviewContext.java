@@ -0,0 +1,121 @@
+package ifscodereview;
+
+import java.util.NavigableSet;
+
+/**
+ * Holds the state of the review of a single file: the commit being reviewed,
+ * the path of the file and the comments found in it.
+ * A new context is created for every file so that files can be reviewed concurrently.
+ *
+ * @author pardha
+ */
+public class ReviewContext {
+
+   private final String commitSHA;
+   private final String filePath;
+   private final CommentGenerator commentGenerator;
+   private final NavigableSet<Integer> changedLines;
+   private ParseDriver.ParseMode parseMode;
+   private ParseDriver.Grammar grammar;
+   private final ReviewMetrics.FileMetrics metrics;
+   private SymbolIndex symbolIndex;
+   private ReviewBudget budget;
+
+   public ReviewContext(String commitSHA, String filePath) {
+      this(commitSHA, filePath, null);
+   }
+
+   public ReviewContext(String commitSHA, String filePath, NavigableSet<Integer> changedLines) {
+      this.commitSHA = commitSHA;
+      this.filePath = filePath;
+      this.commentGenerator = new CommentGenerator();
+      this.changedLines = changedLines;
+      this.metrics = new ReviewMetrics.FileMetrics(filePath);
+   }
+
+   public String getCommitSHA() {
+      return commitSHA;
+   }
+
+   public String getFilePath() {
+      return filePath;
+   }
+
+   public CommentGenerator getCommentGenerator() {
+      return commentGenerator;
+   }
+
+   /**
+    * This method returns the lines changed in the file by the pull request.
+    *
+    * @return The changed lines, or null if the whole file is to be reviewed.
+    */
+   public NavigableSet<Integer> getChangedLines() {
+      return changedLines;
+   }
+
+   public ParseDriver.ParseMode getParseMode() {
+      return parseMode;
+   }
+
+   /**
+    * This method records the prediction mode a parse of the file needed.
+    * When the file is parsed in several units, the file needs LL as soon as one unit does.
+    *
+    * @param parseMode The prediction mode of the last parse.
+    */
+   public void setParseMode(ParseDriver.ParseMode parseMode) {
+      if (this.parseMode != ParseDriver.ParseMode.LL) {
+         this.parseMode = parseMode;
+         metrics.setParseMode(parseMode);
+      }
+   }
+
+   public ParseDriver.Grammar getGrammar() {
+      return grammar;
+   }
+
+   /**
+    * This method records the grammar a parse of the file needed.
+    * When the file is parsed in several units, the file needs the full grammar as soon as one unit does.
+    *
+    * @param grammar The grammar of the last parse.
+    */
+   public void setGrammar(ParseDriver.Grammar grammar) {
+      if (this.grammar != ParseDriver.Grammar.FULL) {
+         this.grammar = grammar;
+         metrics.setGrammar(grammar);
+      }
+   }
+
+   public ReviewMetrics.FileMetrics getMetrics() {
+      return metrics;
+   }
+
+   /**
+    * This method returns the index of the whole repository, for rules that look at other files,
+    * such as the callers of a method or the other users of a table.
+    *
+    * @return The symbol index, or null if the review runs without one.
+    */
+   public SymbolIndex getSymbolIndex() {
+      return symbolIndex;
+   }
+
+   public void setSymbolIndex(SymbolIndex symbolIndex) {
+      this.symbolIndex = symbolIndex;
+   }
+
+   /**
+    * This method returns the time and memory the review of the file may take.
+    *
+    * @return The budget, or null if the review is not limited.
+    */
+   public ReviewBudget getBudget() {
+      return budget;
+   }
+
+   public void setBudget(ReviewBudget budget) {
+      this.budget = budget;
+   }
+}
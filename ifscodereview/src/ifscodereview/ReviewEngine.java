@@ -0,0 +1,295 @@
+package ifscodereview;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.antlr.v4.runtime.CharStream;
+
+/**
+ * Reviews a set of files in parallel on a bounded pool of worker threads.
+ * Every file is lexed, parsed and walked with its own {@link ReviewContext},
+ * and the comments of all files are merged in the order the files were given.
+ *
+ * @author pardha
+ */
+public class ReviewEngine {
+
+   private static final List<String> PLSQL_EXTENSIONS = Arrays.asList(".plsql", ".apy", ".api", ".apv", ".views", ".storage", ".ins", ".cre", ".upg", ".sql");
+
+   private final int threads;
+   private final ChangedLines changedLines;
+   private ResultCache resultCache;
+   private boolean lite = false;
+   private boolean parseListener = false;
+   private SymbolIndex symbolIndex;
+   private long fileTimeLimitMillis = 0;
+   private long fileMemoryLimitBytes = 0;
+   private final ReviewMetrics metrics = new ReviewMetrics();
+
+   public ReviewEngine(int threads) {
+      this(threads, null);
+   }
+
+   /**
+    * Creates an engine that only reviews the procedures and functions touched by a diff.
+    *
+    * @param threads The number of worker threads.
+    * @param changedLines The lines changed by the pull request, or null to review whole files.
+    */
+   public ReviewEngine(int threads, ChangedLines changedLines) {
+      this.threads = Math.max(1, threads);
+      this.changedLines = changedLines;
+      this.metrics.setThreads(this.threads);
+   }
+
+   public ReviewMetrics getMetrics() {
+      return metrics;
+   }
+
+   /**
+    * This method sets the cache used to skip the review of files that were reviewed before.
+    *
+    * @param resultCache The result cache, or null to review every file.
+    */
+   public void setResultCache(ResultCache resultCache) {
+      this.resultCache = resultCache;
+   }
+
+   /**
+    * This method switches to the token-only review of {@link LiteReview}, which never parses the files.
+    *
+    * @param lite true for the token-only review, false for the full review.
+    */
+   public void setLite(boolean lite) {
+      this.lite = lite;
+   }
+
+   /**
+    * This method runs the checks while the files are parsed, see {@link StreamingParseListener},
+    * so that the parse tree of a whole file is never held in memory.
+    *
+    * @param parseListener true to run the checks while parsing, false to walk the parse tree of each file.
+    */
+   public void setParseListener(boolean parseListener) {
+      this.parseListener = parseListener;
+   }
+
+   /**
+    * This method makes the index of the repository available to the rules, see {@link ReviewContext#getSymbolIndex()}.
+    *
+    * @param symbolIndex The symbol index, or null to review without one.
+    */
+   public void setSymbolIndex(SymbolIndex symbolIndex) {
+      this.symbolIndex = symbolIndex;
+   }
+
+   /**
+    * This method limits the time and memory the review of a single file may take, see {@link ReviewBudget}.
+    * A file exceeding the limits is reviewed with the token rules only.
+    *
+    * @param timeLimitMillis The time in milliseconds, or 0 for no limit.
+    * @param memoryLimitBytes The bytes allocated while reviewing the file, or 0 for no limit.
+    */
+   public void setFileBudget(long timeLimitMillis, long memoryLimitBytes) {
+      this.fileTimeLimitMillis = timeLimitMillis;
+      this.fileMemoryLimitBytes = memoryLimitBytes;
+   }
+
+   /**
+    * This method expands the given paths into the list of files to be reviewed.
+    * Files are taken as they are, directories are searched recursively for PL/SQL files.
+    * The paths are made relative to the repository, see {@link #toRepositoryPath(String)}.
+    *
+    * @param paths The files and directories to be reviewed.
+    * @return The files to be reviewed.
+    * @throws IOException If a directory cannot be read.
+    */
+   public static List<String> collectFiles(List<String> paths) throws IOException {
+      List<String> files = new ArrayList<>();
+      for (String path : paths) {
+         String trimmedPath = path.trim();
+         if (trimmedPath.isEmpty()) {
+            continue;
+         }
+         if (new File(trimmedPath).isDirectory()) {
+            try ( Stream<Path> walk = Files.walk(Paths.get(trimmedPath))) {
+               files.addAll(walk.filter(Files::isRegularFile)
+                       .map(file -> toRepositoryPath(file.toString()))
+                       .filter(ReviewEngine::isPlSqlFile)
+                       .sorted()
+                       .collect(Collectors.toList()));
+            }
+         } else {
+            files.add(toRepositoryPath(trimmedPath));
+         }
+      }
+      return files;
+   }
+
+   /**
+    * This method returns the path of a file as GitHub knows it: relative to the working directory, which is the
+    * root of the repository the review runs in, with forward slashes and without "./". A path outside the working
+    * directory is only normalized.
+    *
+    * @param filePath The path of the file.
+    * @return The path of the file in the repository.
+    */
+   public static String toRepositoryPath(String filePath) {
+      Path path = Paths.get(filePath).normalize();
+      Path workingDirectory = Paths.get("").toAbsolutePath();
+      if (path.isAbsolute() && path.startsWith(workingDirectory) && !path.equals(workingDirectory)) {
+         path = workingDirectory.relativize(path);
+      }
+      return path.toString().replace('\\', '/');
+   }
+
+   static boolean isPlSqlFile(String fileName) {
+      String lowerCaseName = fileName.toLowerCase();
+      for (String extension : PLSQL_EXTENSIONS) {
+         if (lowerCaseName.endsWith(extension)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private ReviewContext reviewFile(String commitSHA, String file) throws IOException {
+      ReviewContext context = new ReviewContext(commitSHA, file, changedLines != null ? changedLines.forFile(file) : null);
+      context.setSymbolIndex(symbolIndex);
+      if (fileTimeLimitMillis > 0 || fileMemoryLimitBytes > 0) {
+         context.setBudget(new ReviewBudget(fileTimeLimitMillis, fileMemoryLimitBytes));
+      }
+
+      // Only whole-file reviews are cached, a diff review depends on the changed lines as well
+      if (resultCache == null || context.getChangedLines() != null) {
+         if (lite) {
+            LiteReview.reviewFile(context);
+         } else {
+            IfsCodeReview.reviewFile(context, parseListener);
+         }
+      } else {
+         // The file is read once, both for the cache key and for the review
+         long startNanos = System.nanoTime();
+         SourceFile sourceFile = SourceFile.read(file);
+         String key = resultCache.key(sourceFile.getBytes());
+         boolean cached = resultCache.load(key, context);
+         context.getMetrics().addPhaseTime(ReviewMetrics.Phase.READ, startNanos);
+         context.getMetrics().setCached(cached);
+
+         if (cached) {
+            // The units skipped when the file was reviewed are reported again, they are still not reviewed
+            for (SyntaxDiagnostic syntaxError : context.getMetrics().getSyntaxErrors()) {
+               System.err.println(file + ":" + syntaxError);
+            }
+         } else {
+            startNanos = System.nanoTime();
+            CharStream plSqlCode = sourceFile.toCharStream();
+            context.getMetrics().addPhaseTime(ReviewMetrics.Phase.READ, startNanos);
+
+            if (lite) {
+               LiteReview.reviewContent(context, plSqlCode);
+            } else {
+               IfsCodeReview.reviewContent(context, plSqlCode, parseListener);
+            }
+            // A file that ran out of budget may be reviewed completely next time, on a less busy machine
+            if (!context.getMetrics().isDegraded()) {
+               resultCache.store(key, context.getCommentGenerator(), context.getMetrics().getSyntaxErrors());
+            }
+         }
+      }
+      context.getMetrics().setIssueCount(context.getCommentGenerator().size());
+      return context;
+   }
+
+   /**
+    * This method reviews the given files in parallel and merges the comments found in them.
+    * A file that fails to be reviewed is reported and does not stop the review of the other files.
+    *
+    * @param commitSHA The commit being reviewed.
+    * @param files The files to be reviewed.
+    * @return The comments of all files.
+    * @throws InterruptedException If the review is interrupted.
+    */
+   public CommentGenerator review(String commitSHA, List<String> files) throws InterruptedException {
+      try {
+         return review(commitSHA, files, null, true);
+      } catch (IOException e) {
+         // Nothing is written without a comment writer
+         throw new IllegalStateException(e);
+      }
+   }
+
+   /**
+    * This method reviews the given files in parallel and streams the comments of every file to a writer
+    * as soon as the file and all files before it are done, in the order the files were given.
+    * Only a bounded number of files are queued at a time, so the comments held in memory do not grow
+    * with the number of files unless they are retained for the caller.
+    *
+    * @param commitSHA The commit being reviewed.
+    * @param files The files to be reviewed.
+    * @param writer The writer receiving the comments of each file, or null to only return them.
+    * @param retainComments true to return the comments of all files, false to drop them once written.
+    * @return The comments of all files, or no comments if they are not retained.
+    * @throws InterruptedException If the review is interrupted.
+    * @throws IOException If the comments cannot be written.
+    */
+   public CommentGenerator review(String commitSHA, List<String> files, CommentWriter writer, boolean retainComments) throws InterruptedException, IOException {
+      CommentGenerator mergedComments = new CommentGenerator();
+      if (changedLines != null) {
+         // Files that are not part of the diff have nothing to review
+         files = files.stream()
+                 .filter(file -> !changedLines.forFile(file).isEmpty())
+                 .collect(Collectors.toList());
+      }
+      if (files.isEmpty()) {
+         return mergedComments;
+      }
+
+      int poolSize = Math.min(threads, files.size());
+      ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+      try {
+         // A window of queued files keeps the workers busy while the results are taken in order
+         int window = poolSize * 4;
+         Deque<Future<ReviewContext>> futures = new ArrayDeque<>();
+         int submitted = 0;
+         for (int i = 0; i < files.size(); i++) {
+            while (submitted < files.size() && submitted < i + window) {
+               String file = files.get(submitted++);
+               futures.add(executor.submit(() -> reviewFile(commitSHA, file)));
+            }
+            try {
+               ReviewContext context = futures.poll().get();
+               if (writer != null) {
+                  long startNanos = System.nanoTime();
+                  writer.writeAll(context.getCommentGenerator());
+                  writer.flush();
+                  metrics.addWriteCommentsTime(startNanos);
+               }
+               if (retainComments) {
+                  mergedComments.addAll(context.getCommentGenerator());
+               }
+               metrics.addFile(context.getMetrics());
+            } catch (ExecutionException e) {
+               System.err.println("Review of " + files.get(i) + " failed");
+               e.getCause().printStackTrace();
+            }
+         }
+      } finally {
+         executor.shutdownNow();
+      }
+      return mergedComments;
+   }
+}
@@ -0,0 +1,346 @@
+package ifscodereview;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Timings and counters of a review run, per file and per phase, written as a JSON metrics file
+ * next to the comments so that slow reviews can be broken down and CI capacity can be planned.
+ *
+ * @author pardha
+ */
+public class ReviewMetrics {
+
+   public enum Phase {
+      READ, LEX, PARSE, WALK
+   }
+
+   /**
+    * The timings and counters of the review of a single file.
+    */
+   public static class FileMetrics {
+
+      private final String filePath;
+      private final Map<Phase, Long> phaseNanos = new EnumMap<>(Phase.class);
+      private int tokenCount;
+      private int parseTreeNodeCount;
+      private int unitCount = 1;
+      private int issueCount;
+      private ParseDriver.ParseMode parseMode;
+      private ParseDriver.Grammar grammar;
+      private boolean cached;
+      private String degraded;
+      private final List<SyntaxDiagnostic> syntaxErrors = new ArrayList<>();
+
+      public FileMetrics(String filePath) {
+         this.filePath = filePath;
+      }
+
+      /**
+       * This method adds the time spent in a phase. A phase may be entered several times, such as
+       * when a file is parsed in units, and the times add up.
+       *
+       * @param phase The phase.
+       * @param startNanos The System.nanoTime() at which the phase started.
+       */
+      public void addPhaseTime(Phase phase, long startNanos) {
+         addPhaseNanos(phase, System.nanoTime() - startNanos);
+      }
+
+      public void addPhaseNanos(Phase phase, long nanos) {
+         phaseNanos.merge(phase, nanos, Long::sum);
+      }
+
+      public long getPhaseNanos(Phase phase) {
+         return phaseNanos.getOrDefault(phase, 0L);
+      }
+
+      public void addTokenCount(int tokenCount) {
+         this.tokenCount += tokenCount;
+      }
+
+      public void addParseTreeNodeCount(int parseTreeNodeCount) {
+         this.parseTreeNodeCount += parseTreeNodeCount;
+      }
+
+      public void setUnitCount(int unitCount) {
+         this.unitCount = unitCount;
+      }
+
+      public void setIssueCount(int issueCount) {
+         this.issueCount = issueCount;
+      }
+
+      public void setParseMode(ParseDriver.ParseMode parseMode) {
+         this.parseMode = parseMode;
+      }
+
+      public void setGrammar(ParseDriver.Grammar grammar) {
+         this.grammar = grammar;
+      }
+
+      public void setCached(boolean cached) {
+         this.cached = cached;
+      }
+
+      /**
+       * This method records that the file exceeded its budget and was reviewed with the token rules only.
+       *
+       * @param reason Why the full review was aborted.
+       */
+      public void setDegraded(String reason) {
+         this.degraded = reason;
+      }
+
+      public boolean isDegraded() {
+         return degraded != null;
+      }
+
+      public void addSyntaxErrors(List<SyntaxDiagnostic> syntaxErrors) {
+         this.syntaxErrors.addAll(syntaxErrors);
+      }
+
+      public List<SyntaxDiagnostic> getSyntaxErrors() {
+         return Collections.unmodifiableList(syntaxErrors);
+      }
+
+      JSONObject toJSON() {
+         JSONObject json = new JSONObject();
+         json.put("path", filePath);
+         for (Phase phase : Phase.values()) {
+            json.put(phase.name().toLowerCase() + "_ms", toMillis(getPhaseNanos(phase)));
+         }
+         json.put("tokens", tokenCount);
+         json.put("parse_tree_nodes", parseTreeNodeCount);
+         json.put("parse_units", unitCount);
+         json.put("issues", issueCount);
+         json.put("parse_mode", parseMode != null ? parseMode.name() : JSONObject.NULL);
+         json.put("grammar", grammar != null ? grammar.name() : JSONObject.NULL);
+         json.put("cached", cached);
+         json.put("degraded", degraded != null ? degraded : JSONObject.NULL);
+         JSONArray syntaxErrorArray = new JSONArray();
+         for (SyntaxDiagnostic syntaxError : syntaxErrors) {
+            syntaxErrorArray.put(syntaxError.toJSON());
+         }
+         json.put("syntax_errors", syntaxErrorArray);
+         return json;
+      }
+   }
+
+   private final List<FileMetrics> files = new ArrayList<>();
+   private final long startNanos = System.nanoTime();
+   private long writeCommentsNanos;
+   private long postNanos;
+   private int httpCalls;
+   private List<Long> postLatencyNanos = Collections.emptyList();
+   private int postRetries;
+   private int postFailures;
+   private int existingComments;
+   private int duplicateComments;
+   private int fixedComments;
+   private int threads;
+
+   public synchronized void addFile(FileMetrics fileMetrics) {
+      files.add(fileMetrics);
+   }
+
+   public synchronized void addWriteCommentsTime(long startNanos) {
+      writeCommentsNanos += System.nanoTime() - startNanos;
+   }
+
+   public void setPostTime(long startNanos, int httpCalls) {
+      this.postNanos = System.nanoTime() - startNanos;
+      this.httpCalls = httpCalls;
+   }
+
+   /**
+    * This method records how the comments were posted.
+    *
+    * @param latencyNanos The latency of every HTTP request, retries included.
+    * @param retries The number of requests that were retried.
+    * @param failures The number of requests that failed after all retries.
+    */
+   public void setPostStats(List<Long> latencyNanos, int retries, int failures) {
+      this.postLatencyNanos = new ArrayList<>(latencyNanos);
+      Collections.sort(this.postLatencyNanos);
+      this.postRetries = retries;
+      this.postFailures = failures;
+   }
+
+   /**
+    * This method records how many findings were already on the pull request.
+    *
+    * @param existing The number of open comments on the pull request.
+    * @param duplicates The number of findings that were not posted again.
+    * @param fixed The number of comments marked fixed.
+    */
+   public void setDedupStats(int existing, int duplicates, int fixed) {
+      this.existingComments = existing;
+      this.duplicateComments = duplicates;
+      this.fixedComments = fixed;
+   }
+
+   /**
+    * This method returns the files whose findings are all known: files that were neither degraded
+    * nor had units skipped because of syntax errors. Files loaded from the result cache carry the syntax
+    * errors of their review, so they are left out for the same reason.
+    *
+    * @return The paths of the files.
+    */
+   public synchronized List<String> getFullyReviewedPaths() {
+      List<String> paths = new ArrayList<>();
+      for (FileMetrics fileMetrics : files) {
+         if (!fileMetrics.isDegraded() && fileMetrics.syntaxErrors.isEmpty()) {
+            paths.add(fileMetrics.filePath);
+         }
+      }
+      return paths;
+   }
+
+   public void setThreads(int threads) {
+      this.threads = threads;
+   }
+
+   /**
+    * This method writes the metrics of the run as JSON.
+    *
+    * @param filePath The path of the metrics file.
+    */
+   public void writeMetricsToFile(String filePath) {
+      JSONArray fileArray = new JSONArray();
+      for (FileMetrics fileMetrics : files) {
+         fileArray.put(fileMetrics.toJSON());
+      }
+
+      JSONObject json = new JSONObject();
+      json.put("wall_ms", toMillis(System.nanoTime() - startNanos));
+      json.put("threads", threads);
+      json.put("totals", totalsToJSON());
+      json.put("write_comments_ms", toMillis(writeCommentsNanos));
+      json.put("post_ms", toMillis(postNanos));
+      json.put("http_calls", httpCalls);
+      json.put("post_retries", postRetries);
+      json.put("post_failures", postFailures);
+      JSONObject latency = new JSONObject();
+      latency.put("p50", toMillis(percentile(postLatencyNanos, 50)));
+      latency.put("p95", toMillis(percentile(postLatencyNanos, 95)));
+      latency.put("max", toMillis(percentile(postLatencyNanos, 100)));
+      json.put("post_latency_ms", latency);
+      json.put("existing_comments", existingComments);
+      json.put("duplicate_comments", duplicateComments);
+      json.put("fixed_comments", fixedComments);
+      json.put("files", fileArray);
+
+      try ( FileWriter file = new FileWriter(filePath)) {
+         file.write(json.toString(2));
+         System.out.println("Metrics have been written to " + filePath);
+      } catch (IOException e) {
+         e.printStackTrace();
+      }
+   }
+
+   /**
+    * This method prints the totals of all files, the phase times being summed over all worker threads.
+    */
+   public void printSummary() {
+      JSONObject totals = totalsToJSON();
+      System.out.println("Reviewed " + files.size() + " files in " + toMillis(System.nanoTime() - startNanos) + " ms"
+              + " on " + threads + " threads (" + totals.getInt("cached") + " from cache, "
+              + totals.getInt("sll") + " SLL, " + totals.getInt("ll") + " LL, " + totals.getInt("full_grammar") + " full grammar)");
+      System.out.println("  read " + totals.getDouble("read_ms") + " ms, lex " + totals.getDouble("lex_ms")
+              + " ms, parse " + totals.getDouble("parse_ms") + " ms, walk " + totals.getDouble("walk_ms") + " ms");
+      System.out.println("  " + totals.getLong("tokens") + " tokens, " + totals.getLong("parse_tree_nodes")
+              + " parse tree nodes, " + totals.getLong("issues") + " issues, " + totals.getLong("syntax_errors") + " syntax errors");
+      System.out.println("  comments written in " + toMillis(writeCommentsNanos) + " ms, "
+              + httpCalls + " HTTP calls in " + toMillis(postNanos) + " ms");
+      if (httpCalls > 0) {
+         System.out.println("  HTTP latency p50 " + toMillis(percentile(postLatencyNanos, 50)) + " ms, p95 "
+                 + toMillis(percentile(postLatencyNanos, 95)) + " ms, " + postRetries + " retries, " + postFailures + " failed");
+      }
+      if (existingComments > 0) {
+         System.out.println("  " + existingComments + " comments already on the pull request, " + duplicateComments
+                 + " findings not posted again, " + fixedComments + " marked fixed");
+      }
+      if (totals.getInt("degraded") > 0) {
+         System.out.println("  " + totals.getInt("degraded") + " files exceeded their budget and were reviewed with the token rules only:");
+         for (FileMetrics fileMetrics : getDegradedFiles()) {
+            System.out.println("    " + fileMetrics.filePath + " (" + fileMetrics.degraded + ")");
+         }
+      }
+   }
+
+   private synchronized List<FileMetrics> getDegradedFiles() {
+      List<FileMetrics> degradedFiles = new ArrayList<>();
+      for (FileMetrics fileMetrics : files) {
+         if (fileMetrics.isDegraded()) {
+            degradedFiles.add(fileMetrics);
+         }
+      }
+      return degradedFiles;
+   }
+
+   private synchronized JSONObject totalsToJSON() {
+      long[] phaseTotals = new long[Phase.values().length];
+      long tokens = 0;
+      long nodes = 0;
+      long issues = 0;
+      long syntaxErrors = 0;
+      int cached = 0;
+      int degraded = 0;
+      int sll = 0;
+      int ll = 0;
+      int fullGrammar = 0;
+      for (FileMetrics fileMetrics : files) {
+         for (Phase phase : Phase.values()) {
+            phaseTotals[phase.ordinal()] += fileMetrics.getPhaseNanos(phase);
+         }
+         tokens += fileMetrics.tokenCount;
+         nodes += fileMetrics.parseTreeNodeCount;
+         issues += fileMetrics.issueCount;
+         syntaxErrors += fileMetrics.syntaxErrors.size();
+         cached += fileMetrics.cached ? 1 : 0;
+         degraded += fileMetrics.isDegraded() ? 1 : 0;
+         sll += fileMetrics.parseMode == ParseDriver.ParseMode.SLL ? 1 : 0;
+         ll += fileMetrics.parseMode == ParseDriver.ParseMode.LL ? 1 : 0;
+         fullGrammar += fileMetrics.grammar == ParseDriver.Grammar.FULL ? 1 : 0;
+      }
+
+      JSONObject json = new JSONObject();
+      json.put("files", files.size());
+      for (Phase phase : Phase.values()) {
+         json.put(phase.name().toLowerCase() + "_ms", toMillis(phaseTotals[phase.ordinal()]));
+      }
+      json.put("tokens", tokens);
+      json.put("parse_tree_nodes", nodes);
+      json.put("issues", issues);
+      json.put("syntax_errors", syntaxErrors);
+      json.put("cached", cached);
+      json.put("degraded", degraded);
+      json.put("sll", sll);
+      json.put("ll", ll);
+      json.put("full_grammar", fullGrammar);
+      return json;
+   }
+
+   /**
+    * This method returns a percentile of sorted values with the nearest-rank method.
+    */
+   private static long percentile(List<Long> sortedValues, int percent) {
+      if (sortedValues.isEmpty()) {
+         return 0;
+      }
+      int rank = (int) Math.ceil(percent / 100.0 * sortedValues.size());
+      return sortedValues.get(Math.max(0, rank - 1));
+   }
+
+   private static double toMillis(long nanos) {
+      return Math.round(nanos / 10_000.0) / 100.0;
+   }
+}
@@ -0,0 +1,52 @@
+package ifscodereview;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+
+/**
+ * A code check that runs over the parse tree. Rules are found with {@link java.util.ServiceLoader}, so in-house
+ * rules are added by putting a jar on the classpath that lists them in META-INF/services/ifscodereview.ReviewRule.
+ * A rule declares the parser rules it looks at, such as PlSqlParser.RULE_procedure_body, and is only called for
+ * those nodes, see {@link RuleDispatcher}. A new rule instance is used for every file, so a rule may keep state
+ * while the file is being walked. A rule needs a public constructor without arguments.
+ * Rules about a procedure or function as a whole, such as the order of its parameters, should use the
+ * {@link SubprogramModel} given to {@link #visitSubprogram} instead of reading the subtree of the body again.
+ *
+ * @author pardha
+ */
+public interface ReviewRule {
+
+   /**
+    * This method returns the parser rules this rule is called for. It is read once, when the rules are loaded.
+    *
+    * @return The parser rule indexes, the RULE_ constants of PlSqlParser.
+    */
+   int[] getRuleIndexes();
+
+   /**
+    * This method is called when entering a node of one of the declared parser rules.
+    *
+    * @param ctx The node in the parse tree.
+    * @param context The review context receiving the issues.
+    */
+   default void enterRule(ParserRuleContext ctx, ReviewContext context) {
+   }
+
+   /**
+    * This method is called when leaving a node of one of the declared parser rules, after its children have been walked.
+    *
+    * @param ctx The node in the parse tree.
+    * @param context The review context receiving the issues.
+    */
+   default void exitRule(ParserRuleContext ctx, ReviewContext context) {
+   }
+
+   /**
+    * This method is called for every procedure and function body, once the body has been walked.
+    * It is called for all rules, whatever parser rules they declare.
+    *
+    * @param model The parameters, declarations, tables and statements of the body.
+    * @param context The review context receiving the issues.
+    */
+   default void visitSubprogram(SubprogramModel model, ReviewContext context) {
+   }
+}
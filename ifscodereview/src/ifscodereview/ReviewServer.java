@@ -0,0 +1,121 @@
+package ifscodereview;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Executors;
+import org.antlr.v4.runtime.CharStream;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Long-running review server listening on the loopback interface.
+ * The lexer and parser DFA caches are static and shared by all parser instances of the JVM,
+ * so they stay warm across requests and every review after the first few runs at full speed.
+ *
+ * POST /review takes a JSON object with "content", "path" and "commit_id" and returns the comments JSON.
+ * GET /health returns 200 once the server is up.
+ *
+ * @author pardha
+ */
+public class ReviewServer {
+
+   public static final int DEFAULT_PORT = 8765;
+
+   private final HttpServer server;
+   private long fileTimeLimitMillis;
+   private long fileMemoryLimitBytes;
+
+   public ReviewServer(int port, int threads) throws IOException {
+      server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+      server.setExecutor(Executors.newFixedThreadPool(Math.max(1, threads)));
+      server.createContext("/review", this::handleReview);
+      server.createContext("/health", exchange -> sendResponse(exchange, 200, "{\"status\": \"ok\"}"));
+   }
+
+   /**
+    * This method reviews the given files once and throws the results away, so that the lexer and parser
+    * DFA caches are already built when the first request arrives.
+    *
+    * @param files The files used to warm up the caches.
+    */
+   public void warmUp(List<String> files) {
+      long start = System.currentTimeMillis();
+      for (String file : files) {
+         try {
+            IfsCodeReview.reviewFile(new ReviewContext("", file));
+         } catch (IOException e) {
+            e.printStackTrace();
+         }
+      }
+      System.out.println("Warmed up on " + files.size() + " files in " + (System.currentTimeMillis() - start) + " ms");
+   }
+
+   /**
+    * This method limits the time and memory the review of a posted file may take, see {@link ReviewBudget}.
+    * A file exceeding the limits is reviewed with the token rules only, so it cannot hold a worker thread for long.
+    *
+    * @param timeLimitMillis The time in milliseconds, or 0 for no limit.
+    * @param memoryLimitBytes The bytes allocated while reviewing the file, or 0 for no limit.
+    */
+   public void setFileBudget(long timeLimitMillis, long memoryLimitBytes) {
+      this.fileTimeLimitMillis = timeLimitMillis;
+      this.fileMemoryLimitBytes = memoryLimitBytes;
+   }
+
+   public void start() {
+      server.start();
+      System.out.println("Review server listening on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort());
+   }
+
+   public void stop() {
+      server.stop(0);
+   }
+
+   private void handleReview(HttpExchange exchange) throws IOException {
+      if (!"POST".equals(exchange.getRequestMethod())) {
+         sendResponse(exchange, 405, "{\"error\": \"POST required\"}");
+         return;
+      }
+
+      JSONObject request;
+      try ( InputStream body = exchange.getRequestBody()) {
+         request = new JSONObject(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+      } catch (JSONException e) {
+         sendResponse(exchange, 400, "{\"error\": " + JSONObject.quote(e.getMessage()) + "}");
+         return;
+      }
+
+      String filePath = request.optString("path", "");
+      // The content is decoded by the JSON parser already, the stream lets the rules read the token text from it
+      CharStream plSqlCode = SourceCharStream.of(request.optString("content", ""), filePath);
+
+      ReviewContext context = new ReviewContext(request.optString("commit_id", ""), filePath);
+      if (fileTimeLimitMillis > 0 || fileMemoryLimitBytes > 0) {
+         context.setBudget(new ReviewBudget(fileTimeLimitMillis, fileMemoryLimitBytes));
+      }
+      try {
+         IfsCodeReview.reviewContent(context, plSqlCode);
+      } catch (RuntimeException e) {
+         e.printStackTrace();
+         sendResponse(exchange, 500, "{\"error\": " + JSONObject.quote(String.valueOf(e.getMessage())) + "}");
+         return;
+      }
+      sendResponse(exchange, 200, context.getCommentGenerator().generateCommentsJSON());
+   }
+
+   private static void sendResponse(HttpExchange exchange, int statusCode, String body) throws IOException {
+      byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(statusCode, bytes.length);
+      try ( OutputStream output = exchange.getResponseBody()) {
+         output.write(bytes);
+      }
+   }
+}
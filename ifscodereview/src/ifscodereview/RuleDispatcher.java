@@ -0,0 +1,168 @@
+package ifscodereview;
+
+import ifscodereview.grammar.PlSqlParser;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.stream.Collectors;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+/**
+ * Walks the {@link ReviewRule}s of a file over its parse tree. The built-in CodeCheckExtractor comes first,
+ * followed by the rules found on the classpath. A table from parser rule index to the rules declaring it is built
+ * once, so for every node only the rules interested in it are called, and nodes no rule declares cost one lookup.
+ * The dispatcher also builds the {@link SubprogramModel} of every procedure and function body during the same walk.
+ *
+ * @author pardha
+ */
+public class RuleDispatcher implements ParseTreeListener {
+
+   private static final int[] NO_RULES = new int[0];
+
+   // The rules found on the classpath, a new instance of each is created for every file
+   private static final List<ServiceLoader.Provider<ReviewRule>> PROVIDERS = ServiceLoader.load(ReviewRule.class).stream()
+           .collect(Collectors.toList());
+
+   // For every parser rule index, the positions of the rules to call, where position 0 is the CodeCheckExtractor
+   private static final int[][] DISPATCH_TABLE = createDispatchTable();
+
+   // Rules are entered this often between two checks of the budget of the file
+   private static final int BUDGET_CHECK_INTERVAL = 1024;
+
+   private final ReviewContext context;
+   private final ReviewRule[] rules;
+   // The models of the procedure and function bodies enclosing the node being walked, innermost first
+   private final Deque<SubprogramModel.Builder> subprograms = new ArrayDeque<>();
+   private int nodeCount = 0;
+
+   /**
+    * Creates the rules for a file.
+    *
+    * @param context The review context of the file, receiving the issues.
+    */
+   public RuleDispatcher(ReviewContext context) {
+      this.context = context;
+      rules = new ReviewRule[PROVIDERS.size() + 1];
+      rules[0] = new IfsCodeReview.CodeCheckExtractor(context);
+      for (int i = 0; i < PROVIDERS.size(); i++) {
+         rules[i + 1] = PROVIDERS.get(i).get();
+      }
+   }
+
+   /**
+    * This method returns the version of the rule set, which changes when rules are added to or removed from the classpath.
+    *
+    * @return The version to key cached review results with.
+    */
+   public static String getRuleSetVersion() {
+      if (PROVIDERS.isEmpty()) {
+         return IfsCodeReview.RULE_SET_VERSION;
+      }
+      return IfsCodeReview.RULE_SET_VERSION + "+" + PROVIDERS.stream().map(provider -> provider.type().getName()).collect(Collectors.joining(","));
+   }
+
+   /**
+    * This method returns the number of parse tree nodes walked so far, rules as well as tokens.
+    *
+    * @return The number of nodes.
+    */
+   public int getNodeCount() {
+      return nodeCount;
+   }
+
+   @Override
+   public void enterEveryRule(ParserRuleContext ctx) {
+      if (++nodeCount % BUDGET_CHECK_INTERVAL == 0 && context.getBudget() != null) {
+         context.getBudget().check();
+      }
+      enterModelRule(ctx);
+      for (int position : DISPATCH_TABLE[ctx.getRuleIndex()]) {
+         rules[position].enterRule(ctx, context);
+      }
+   }
+
+   @Override
+   public void exitEveryRule(ParserRuleContext ctx) {
+      for (int position : DISPATCH_TABLE[ctx.getRuleIndex()]) {
+         rules[position].exitRule(ctx, context);
+      }
+      if (ctx.getRuleIndex() == PlSqlParser.RULE_procedure_body || ctx.getRuleIndex() == PlSqlParser.RULE_function_body) {
+         SubprogramModel model = subprograms.pop().build();
+         for (ReviewRule rule : rules) {
+            rule.visitSubprogram(model, context);
+         }
+      }
+   }
+
+   /**
+    * This method adds a node to the model of the enclosing procedure or function body, or starts the model of a body.
+    */
+   private void enterModelRule(ParserRuleContext ctx) {
+      switch (ctx.getRuleIndex()) {
+         case PlSqlParser.RULE_procedure_body:
+            subprograms.push(new SubprogramModel.Builder((PlSqlParser.Procedure_bodyContext) ctx));
+            break;
+         case PlSqlParser.RULE_function_body:
+            subprograms.push(new SubprogramModel.Builder((PlSqlParser.Function_bodyContext) ctx));
+            break;
+         case PlSqlParser.RULE_table_ref_aux_internal:
+            if (!subprograms.isEmpty() && ctx instanceof PlSqlParser.Table_ref_aux_internal_oneContext) {
+               PlSqlParser.Dml_table_expression_clauseContext expression = ((PlSqlParser.Table_ref_aux_internal_oneContext) ctx).dml_table_expression_clause();
+               if (expression.tableview_name() != null) {
+                  subprograms.peek().addTableReference(expression.tableview_name().getStart());
+               }
+            }
+            break;
+         case PlSqlParser.RULE_data_manipulation_language_statements:
+         case PlSqlParser.RULE_transaction_control_statements:
+            // The statement itself is the only child of these rules
+            if (!subprograms.isEmpty() && ctx.getChild(0) instanceof ParserRuleContext) {
+               subprograms.peek().addStatement((ParserRuleContext) ctx.getChild(0));
+            }
+            break;
+         default:
+            break;
+      }
+   }
+
+   @Override
+   public void visitTerminal(TerminalNode node) {
+      nodeCount++;
+   }
+
+   @Override
+   public void visitErrorNode(ErrorNode node) {
+      nodeCount++;
+   }
+
+   private static int[][] createDispatchTable() {
+      List<int[]> ruleIndexes = new ArrayList<>();
+      ruleIndexes.add(IfsCodeReview.CodeCheckExtractor.RULE_INDEXES);
+      for (ServiceLoader.Provider<ReviewRule> provider : PROVIDERS) {
+         ruleIndexes.add(provider.get().getRuleIndexes());
+      }
+
+      List<List<Integer>> positions = new ArrayList<>();
+      for (int i = 0; i < PlSqlParser.ruleNames.length; i++) {
+         positions.add(new ArrayList<>());
+      }
+      for (int position = 0; position < ruleIndexes.size(); position++) {
+         for (int ruleIndex : ruleIndexes.get(position)) {
+            if (!positions.get(ruleIndex).contains(position)) {
+               positions.get(ruleIndex).add(position);
+            }
+         }
+      }
+
+      int[][] table = new int[positions.size()][];
+      for (int i = 0; i < table.length; i++) {
+         table[i] = positions.get(i).isEmpty() ? NO_RULES : positions.get(i).stream().mapToInt(Integer::intValue).toArray();
+      }
+      return table;
+   }
+}
@@ -0,0 +1,122 @@
+package ifscodereview;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * The character stream the lexer reads a source file from, over the characters decoded by {@link SourceFile}.
+ * It behaves like the stream of {@code CodePointCharStream.fromBuffer}, but it also gives the rules random access to
+ * the characters, so that {@link TokenText} can read the text of a token without copying it.
+ * The content must not contain surrogate pairs, so that the index of a character is also its code point index.
+ *
+ * @author pardha
+ */
+final class SourceCharStream implements CharStream {
+
+   private final char[] data;
+   private final int offset;
+   private final int size;
+   private final String name;
+   private int position;
+
+   SourceCharStream(char[] data, int offset, int size, String name) {
+      this.data = data;
+      this.offset = offset;
+      this.size = size;
+      this.name = name;
+   }
+
+   /**
+    * This method creates the stream of content that is already decoded, such as a file posted to the review server.
+    * A leading byte order mark is skipped, as {@link SourceFile} skips it, and content with characters outside the
+    * Basic Multilingual Plane gets a stream of code points instead.
+    *
+    * @param content The content.
+    * @param name The name of the stream, the path of the file.
+    * @return The character stream of the content.
+    */
+   static CharStream of(String content, String name) {
+      char[] data = content.toCharArray();
+      int offset = data.length > 0 && data[0] == '\uFEFF' ? 1 : 0;
+      for (char c : data) {
+         if (Character.isSurrogate(c)) {
+            return CharStreams.fromString(content.substring(offset), name);
+         }
+      }
+      return new SourceCharStream(data, offset, data.length - offset, name);
+   }
+
+   /**
+    * This method returns a character of the stream, without moving the stream.
+    *
+    * @param index The index of the character, from 0 to size() - 1.
+    * @return The character.
+    */
+   char charAt(int index) {
+      return data[offset + index];
+   }
+
+   @Override
+   public void consume() {
+      if (position >= size) {
+         throw new IllegalStateException("cannot consume EOF");
+      }
+      position++;
+   }
+
+   @Override
+   public int LA(int i) {
+      if (i > 0) {
+         int index = position + i - 1;
+         return index < size ? data[offset + index] : IntStream.EOF;
+      } else if (i < 0) {
+         int index = position + i;
+         return index >= 0 ? data[offset + index] : IntStream.EOF;
+      }
+      return 0;
+   }
+
+   @Override
+   public int mark() {
+      return -1;
+   }
+
+   @Override
+   public void release(int marker) {
+      // The whole content is in memory, so there is nothing to release
+   }
+
+   @Override
+   public int index() {
+      return position;
+   }
+
+   @Override
+   public void seek(int index) {
+      position = index;
+   }
+
+   @Override
+   public int size() {
+      return size;
+   }
+
+   @Override
+   public String getSourceName() {
+      return name == null || name.isEmpty() ? IntStream.UNKNOWN_SOURCE_NAME : name;
+   }
+
+   @Override
+   public String getText(Interval interval) {
+      int start = Math.min(interval.a, size);
+      int length = Math.min(interval.b - interval.a + 1, size - start);
+      return new String(data, offset + start, length);
+   }
+
+   @Override
+   public String toString() {
+      return getText(Interval.of(0, size - 1));
+   }
+}
@@ -0,0 +1,173 @@
+package ifscodereview;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+
+/**
+ * The raw content of a source file, read through NIO and memory-mapped when the file is large.
+ * The encoding is detected from the content: UTF-8 with or without a byte order mark, or Windows-1252
+ * for files that are not valid UTF-8. The content is decoded once, straight into the buffer the lexer reads from,
+ * and line endings are kept as they are in the file.
+ *
+ * @author pardha
+ */
+public class SourceFile {
+
+   // Files of at least this size are memory-mapped instead of read into the heap
+   private static final long MAP_THRESHOLD_BYTES = 1024 * 1024;
+
+   public static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+
+   private final String filePath;
+   private final ByteBuffer bytes;
+   private final Charset charset;
+   private final int contentOffset;
+
+   private SourceFile(String filePath, ByteBuffer bytes) {
+      this.filePath = filePath;
+      this.bytes = bytes;
+      if (hasUtf8ByteOrderMark(bytes)) {
+         this.charset = StandardCharsets.UTF_8;
+         this.contentOffset = 3;
+      } else {
+         this.charset = isValidUtf8(bytes) ? StandardCharsets.UTF_8 : WINDOWS_1252;
+         this.contentOffset = 0;
+      }
+   }
+
+   /**
+    * This method reads a source file.
+    *
+    * @param filePath The path of the file.
+    * @return The source file.
+    * @throws IOException If the file cannot be read.
+    */
+   public static SourceFile read(String filePath) throws IOException {
+      Path path = Paths.get(filePath);
+      try ( FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+         long size = channel.size();
+         if (size >= MAP_THRESHOLD_BYTES) {
+            return new SourceFile(filePath, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+         }
+
+         ByteBuffer buffer = ByteBuffer.allocate((int) size);
+         while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // Keep reading until the whole file is in the buffer
+         }
+         buffer.flip();
+         return new SourceFile(filePath, buffer);
+      }
+   }
+
+   public String getFilePath() {
+      return filePath;
+   }
+
+   public Charset getCharset() {
+      return charset;
+   }
+
+   /**
+    * This method returns the raw content of the file, including any byte order mark.
+    *
+    * @return A read-only view of the content.
+    */
+   public ByteBuffer getBytes() {
+      return bytes.asReadOnlyBuffer();
+   }
+
+   /**
+    * This method decodes the content into a character stream for the lexer.
+    * The decoded characters are used by the stream directly, unless the file contains characters
+    * outside the Basic Multilingual Plane, which have to be converted to code points. Only the tokens of
+    * a stream over the decoded characters can be read by {@link TokenText} without copying their text.
+    *
+    * @return The character stream of the file.
+    * @throws CharacterCodingException If the content cannot be decoded.
+    */
+   public CharStream toCharStream() throws CharacterCodingException {
+      ByteBuffer content = bytes.duplicate();
+      content.position(contentOffset);
+
+      CharsetDecoder decoder = charset.newDecoder()
+              .onMalformedInput(CodingErrorAction.REPLACE)
+              .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      CharBuffer chars = decoder.decode(content);
+
+      for (int i = chars.position(); i < chars.limit(); i++) {
+         if (Character.isSurrogate(chars.get(i))) {
+            return CharStreams.fromString(chars.toString(), filePath);
+         }
+      }
+      return new SourceCharStream(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining(), filePath);
+   }
+
+   private static boolean hasUtf8ByteOrderMark(ByteBuffer bytes) {
+      return bytes.limit() >= 3
+              && (bytes.get(0) & 0xFF) == 0xEF
+              && (bytes.get(1) & 0xFF) == 0xBB
+              && (bytes.get(2) & 0xFF) == 0xBF;
+   }
+
+   /**
+    * This method checks whether the content is well-formed UTF-8 without decoding it.
+    *
+    * @param bytes The content.
+    * @return true if the content is valid UTF-8, false otherwise.
+    */
+   static boolean isValidUtf8(ByteBuffer bytes) {
+      int i = 0;
+      int limit = bytes.limit();
+      while (i < limit) {
+         int b = bytes.get(i) & 0xFF;
+         int continuationBytes;
+         int codePoint;
+         if (b < 0x80) {
+            i++;
+            continue;
+         } else if (b >= 0xC2 && b <= 0xDF) {
+            continuationBytes = 1;
+            codePoint = b & 0x1F;
+         } else if (b >= 0xE0 && b <= 0xEF) {
+            continuationBytes = 2;
+            codePoint = b & 0x0F;
+         } else if (b >= 0xF0 && b <= 0xF4) {
+            continuationBytes = 3;
+            codePoint = b & 0x07;
+         } else {
+            return false;
+         }
+
+         if (i + continuationBytes >= limit) {
+            return false;
+         }
+         for (int j = 1; j <= continuationBytes; j++) {
+            int continuation = bytes.get(i + j) & 0xFF;
+            if ((continuation & 0xC0) != 0x80) {
+               return false;
+            }
+            codePoint = (codePoint << 6) | (continuation & 0x3F);
+         }
+
+         // Reject overlong encodings, surrogates and code points beyond U+10FFFF
+         if ((continuationBytes == 2 && (codePoint < 0x800 || (codePoint >= 0xD800 && codePoint <= 0xDFFF)))
+                 || (continuationBytes == 3 && (codePoint < 0x10000 || codePoint > 0x10FFFF))) {
+            return false;
+         }
+         i += continuationBytes + 1;
+      }
+      return true;
+   }
+}
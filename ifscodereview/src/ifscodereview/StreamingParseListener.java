@@ -0,0 +1,134 @@
+package ifscodereview;
+
+import ifscodereview.grammar.PlSqlParser;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+/**
+ * Runs a listener while the file is being parsed, so that the parse tree of the whole file is never held in memory.
+ * The parser builds the tree of one unit at a time: a procedure or function body, a declaration, or a top-level
+ * statement. As soon as a unit has been parsed its subtree is walked with the listener and then released.
+ * The rules enclosing the units, such as the package body, are passed to the listener as they are parsed.
+ * The listener sees the same events in the same order as when walking the complete tree,
+ * and the memory used by the tree grows with the largest unit instead of with the file.
+ *
+ * @author pardha
+ */
+public class StreamingParseListener implements ParseTreeListener {
+
+   private final ParseTreeListener listener;
+   // The number of rules entered inside the current unit, 0 when the parser is outside of a unit
+   private int unitDepth = 0;
+   private long walkNanos = 0;
+   private int releasedUnits = 0;
+   // Set when the listener threw, such as when the budget of the file ran out. The parser then still leaves every
+   // open rule on its way out, which is ignored so that the exception reaches the caller unchanged.
+   private boolean failed = false;
+
+   /**
+    * Creates a parse listener that passes the events of the parser to the given listener.
+    *
+    * @param listener The listener running the checks, such as the RuleDispatcher.
+    */
+   public StreamingParseListener(ParseTreeListener listener) {
+      this.listener = listener;
+   }
+
+   /**
+    * This method returns the time spent walking the units, which is part of the parse time.
+    *
+    * @return The walk time in nanoseconds.
+    */
+   public long getWalkNanos() {
+      return walkNanos;
+   }
+
+   public int getReleasedUnits() {
+      return releasedUnits;
+   }
+
+   @Override
+   public void enterEveryRule(ParserRuleContext ctx) {
+      if (failed) {
+         return;
+      }
+      if (unitDepth > 0 || !isEnclosingRule(ctx)) {
+         // A unit starts or continues, it is walked once it is complete
+         unitDepth++;
+      } else {
+         try {
+            listener.enterEveryRule(ctx);
+            ctx.enterRule(listener);
+         } catch (RuntimeException e) {
+            failed = true;
+            throw e;
+         }
+      }
+   }
+
+   @Override
+   public void exitEveryRule(ParserRuleContext ctx) {
+      if (failed) {
+         return;
+      }
+      try {
+         if (unitDepth == 0) {
+            ctx.exitRule(listener);
+            listener.exitEveryRule(ctx);
+         } else if (--unitDepth == 0) {
+            // A unit with a syntax error has been removed from the tree, or the parse is bailing out of it,
+            // and it is not walked
+            if (ctx.exception == null && !UnitRecoveryStrategy.isDetached(ctx)) {
+               long startNanos = System.nanoTime();
+               ParseTreeWalker.DEFAULT.walk(listener, ctx);
+               walkNanos += System.nanoTime() - startNanos;
+            }
+            release(ctx);
+         }
+      } catch (RuntimeException e) {
+         failed = true;
+         throw e;
+      }
+   }
+
+   @Override
+   public void visitTerminal(TerminalNode node) {
+      if (unitDepth == 0 && !failed) {
+         listener.visitTerminal(node);
+      }
+   }
+
+   @Override
+   public void visitErrorNode(ErrorNode node) {
+      if (unitDepth == 0 && !failed) {
+         listener.visitErrorNode(node);
+      }
+   }
+
+   /**
+    * This method detaches a walked unit from its parent and drops its children, so its subtree can be collected.
+    * The context itself stays referenced by the generated parser until the enclosing rule returns.
+    */
+   private void release(ParserRuleContext ctx) {
+      ParserRuleContext parent = ctx.getParent();
+      if (parent != null && parent.getChildCount() > 0 && parent.getChild(parent.getChildCount() - 1) == ctx) {
+         parent.removeLastChild();
+      }
+      ctx.children = null;
+      releasedUnits++;
+   }
+
+   /**
+    * This method checks whether a rule only encloses units, so it is passed to the listener while it is parsed.
+    * The checks on these rules only look at the rule itself and at its own tokens, never at the units inside.
+    */
+   private static boolean isEnclosingRule(ParserRuleContext ctx) {
+      return ctx instanceof PlSqlParser.Sql_scriptContext
+              || ctx instanceof PlSqlParser.Unit_statementContext
+              || ctx instanceof PlSqlParser.Create_package_bodyContext
+              || ctx instanceof PlSqlParser.Package_obj_bodyContext;
+   }
+}
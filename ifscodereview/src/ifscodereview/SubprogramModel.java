@@ -0,0 +1,330 @@
+package ifscodereview;
+
+import ifscodereview.grammar.PlSqlParser;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+
+/**
+ * The semantic model of a procedure or function body: its parameters, its declarations, and the tables and statements
+ * of its body, each with the line and column it starts at. The model is built once while the body is walked, see
+ * {@link RuleDispatcher}, and handed to every rule when the body has been walked, see
+ * {@link ReviewRule#visitSubprogram}. Tables and statements of a nested procedure or function belong to its own model.
+ *
+ * @author pardha
+ */
+public final class SubprogramModel {
+
+   public enum Kind {
+      PROCEDURE, FUNCTION
+   }
+
+   private final Kind kind;
+   private final TokenText name;
+   private final int lineNumber;
+   private final List<Parameter> parameters;
+   private final List<Declaration> declarations;
+   private final List<TableReference> tableReferences;
+   private final List<Statement> statements;
+
+   private SubprogramModel(Builder builder) {
+      this.kind = builder.kind;
+      this.name = builder.name;
+      this.lineNumber = builder.lineNumber;
+      this.parameters = Collections.unmodifiableList(builder.parameters);
+      this.declarations = Collections.unmodifiableList(builder.declarations);
+      this.tableReferences = Collections.unmodifiableList(builder.tableReferences);
+      this.statements = Collections.unmodifiableList(builder.statements);
+   }
+
+   public Kind getKind() {
+      return kind;
+   }
+
+   public String getName() {
+      return name.toString();
+   }
+
+   public int getLineNumber() {
+      return lineNumber;
+   }
+
+   public List<Parameter> getParameters() {
+      return parameters;
+   }
+
+   /**
+    * This method returns the variable and cursor declarations of the body, in the order they are declared.
+    *
+    * @return The declarations.
+    */
+   public List<Declaration> getDeclarations() {
+      return declarations;
+   }
+
+   /**
+    * This method returns the tables and views the body selects from or joins, cursors included.
+    *
+    * @return The table references, in the order they appear.
+    */
+   public List<TableReference> getTableReferences() {
+      return tableReferences;
+   }
+
+   /**
+    * This method returns the SQL statements of the body, such as INSERT or COMMIT.
+    * SELECT statements of cursor declarations and subqueries are not statements of their own.
+    *
+    * @return The statements, in the order they appear.
+    */
+   public List<Statement> getStatements() {
+      return statements;
+   }
+
+   public static final class Parameter {
+
+      // The common directions, so that their text is not copied for every parameter
+      private static final List<String> DIRECTION_KEYWORDS = List.of("IN", "OUT", "IN OUT", "NOCOPY");
+
+      private final TokenText name;
+      private final List<String> directions;
+      private final boolean hasDefault;
+      private final int lineNumber;
+      private final int column;
+      private final int directionColumn;
+      private final int typeColumn;
+
+      private Parameter(PlSqlParser.ParameterContext parameter) {
+         this.name = TokenText.of(parameter.parameter_name());
+         List<String> directionTexts = new ArrayList<>();
+         for (PlSqlParser.Parameter_directionContext direction : parameter.parameter_direction()) {
+            directionTexts.add(getDirectionText(TokenText.of(direction)));
+         }
+         this.directions = Collections.unmodifiableList(directionTexts);
+         this.hasDefault = parameter.default_value_part() != null;
+         this.lineNumber = parameter.getStart().getLine();
+         this.column = parameter.getStart().getCharPositionInLine();
+         this.directionColumn = directionTexts.isEmpty() ? -1 : parameter.parameter_direction(0).getStart().getCharPositionInLine();
+         this.typeColumn = parameter.type_spec() == null ? -1 : parameter.type_spec().getStart().getCharPositionInLine();
+      }
+
+      private static String getDirectionText(TokenText direction) {
+         for (String keyword : DIRECTION_KEYWORDS) {
+            if (direction.contentEquals(keyword)) {
+               return keyword;
+            }
+         }
+         return direction.toString();
+      }
+
+      public String getName() {
+         return name.toString();
+      }
+
+      /**
+       * This method returns the direction keywords of the parameter, such as IN and OUT, or NOCOPY.
+       *
+       * @return The directions in the order they are written, empty if none was given.
+       */
+      public List<String> getDirections() {
+         return directions;
+      }
+
+      public boolean hasDefault() {
+         return hasDefault;
+      }
+
+      public int getLineNumber() {
+         return lineNumber;
+      }
+
+      public int getColumn() {
+         return column;
+      }
+
+      /**
+       * @return The column of the first direction keyword, or -1 if no direction was given.
+       */
+      public int getDirectionColumn() {
+         return directionColumn;
+      }
+
+      /**
+       * @return The column of the data type, or -1 if no data type was given.
+       */
+      public int getTypeColumn() {
+         return typeColumn;
+      }
+   }
+
+   public static final class Declaration {
+
+      public enum Kind {
+         VARIABLE, CURSOR
+      }
+
+      private final Kind kind;
+      private final TokenText name;
+      private final TokenText type;
+      private final int lineNumber;
+      private final int column;
+      private final int typeColumn;
+
+      private Declaration(PlSqlParser.Variable_declarationContext variable) {
+         this.kind = Kind.VARIABLE;
+         this.name = TokenText.of(variable.identifier());
+         this.type = TokenText.of(variable.type_spec());
+         this.lineNumber = variable.getStart().getLine();
+         this.column = variable.identifier().getStart().getCharPositionInLine();
+         this.typeColumn = variable.type_spec().getStart().getCharPositionInLine();
+      }
+
+      private Declaration(PlSqlParser.Cursor_declarationContext cursor) {
+         this.kind = Kind.CURSOR;
+         this.name = TokenText.of(cursor.cursor_name());
+         this.type = null;
+         this.lineNumber = cursor.getStart().getLine();
+         this.column = cursor.cursor_name().getStart().getCharPositionInLine();
+         this.typeColumn = -1;
+      }
+
+      public Kind getKind() {
+         return kind;
+      }
+
+      public String getName() {
+         return name.toString();
+      }
+
+      /**
+       * @return The text of the data type of a variable, without whitespace, or an empty string for a cursor.
+       */
+      public String getType() {
+         return type == null ? "" : type.toString();
+      }
+
+      public int getLineNumber() {
+         return lineNumber;
+      }
+
+      public int getColumn() {
+         return column;
+      }
+
+      /**
+       * @return The column of the data type of a variable, or -1 for a cursor.
+       */
+      public int getTypeColumn() {
+         return typeColumn;
+      }
+   }
+
+   public static final class TableReference {
+
+      private final TokenText tableName;
+      private final int lineNumber;
+      private final int column;
+
+      private TableReference(Token tableNameToken) {
+         this.tableName = TokenText.of(tableNameToken);
+         this.lineNumber = tableNameToken.getLine();
+         this.column = tableNameToken.getCharPositionInLine();
+      }
+
+      public String getTableName() {
+         return tableName.toString();
+      }
+
+      public int getLineNumber() {
+         return lineNumber;
+      }
+
+      public int getColumn() {
+         return column;
+      }
+   }
+
+   public static final class Statement {
+
+      private final int ruleIndex;
+      private final int lineNumber;
+      private final int column;
+
+      private Statement(ParserRuleContext statement) {
+         this.ruleIndex = statement.getRuleIndex();
+         this.lineNumber = statement.getStart().getLine();
+         this.column = statement.getStart().getCharPositionInLine();
+      }
+
+      /**
+       * @return The parser rule of the statement, such as PlSqlParser.RULE_insert_statement.
+       */
+      public int getRuleIndex() {
+         return ruleIndex;
+      }
+
+      public int getLineNumber() {
+         return lineNumber;
+      }
+
+      public int getColumn() {
+         return column;
+      }
+   }
+
+   /**
+    * Collects the model of a body while it is walked. The parameters and declarations are read from the body
+    * itself when it is entered, the tables and statements are added as their nodes are walked.
+    */
+   static final class Builder {
+
+      private final Kind kind;
+      private final TokenText name;
+      private final int lineNumber;
+      private final List<Parameter> parameters = new ArrayList<>();
+      private final List<Declaration> declarations = new ArrayList<>();
+      private final List<TableReference> tableReferences = new ArrayList<>();
+      private final List<Statement> statements = new ArrayList<>();
+
+      Builder(PlSqlParser.Procedure_bodyContext ctx) {
+         this(Kind.PROCEDURE, TokenText.of(ctx.procedure_name()), ctx, ctx.parameter(), ctx.seq_of_declare_specs());
+      }
+
+      Builder(PlSqlParser.Function_bodyContext ctx) {
+         this(Kind.FUNCTION, TokenText.of(ctx.function_name()), ctx, ctx.parameter(), ctx.seq_of_declare_specs());
+      }
+
+      private Builder(Kind kind, TokenText name, ParserRuleContext ctx, List<PlSqlParser.ParameterContext> parameterContexts,
+              PlSqlParser.Seq_of_declare_specsContext declareSpecs) {
+         this.kind = kind;
+         this.name = name;
+         this.lineNumber = ctx.getStart().getLine();
+         for (PlSqlParser.ParameterContext parameter : parameterContexts) {
+            parameters.add(new Parameter(parameter));
+         }
+         if (declareSpecs != null) {
+            for (PlSqlParser.Declare_specContext declareSpec : declareSpecs.declare_spec()) {
+               if (declareSpec.variable_declaration() != null) {
+                  declarations.add(new Declaration(declareSpec.variable_declaration()));
+               } else if (declareSpec.cursor_declaration() != null) {
+                  declarations.add(new Declaration(declareSpec.cursor_declaration()));
+               }
+            }
+         }
+      }
+
+      void addTableReference(Token tableNameToken) {
+         tableReferences.add(new TableReference(tableNameToken));
+      }
+
+      void addStatement(ParserRuleContext statement) {
+         statements.add(new Statement(statement));
+      }
+
+      SubprogramModel build() {
+         return new SubprogramModel(this);
+      }
+   }
+}
@@ -0,0 +1,542 @@
+package ifscodereview;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cross-file index of the packages, procedures and functions, call sites and table references of a repository,
+ * stored in one compact file that is memory-mapped for queries. Names are stored once in a string table and every
+ * record is a run of ints, so a query compares ints over the mapped file without decoding the records.
+ * Names are matched case-insensitively, as PL/SQL does. The index is built and updated by {@link SymbolIndexer}.
+ *
+ * The file holds the magic number, the format version and the last indexed commit, the string table,
+ * and for every file its path, package, and the counts and records of its subprograms, call sites and table references.
+ *
+ * @author pardha
+ */
+public class SymbolIndex {
+
+   public static final String DEFAULT_FILE_NAME = ".ifs-symbols.idx";
+
+   private static final int MAGIC = 0x49465358; // "IFSX"
+   private static final int FORMAT_VERSION = 1;
+
+   private final ByteBuffer buffer;
+   private final String lastCommit;
+   private final String[] strings;
+   // The position of the first file record
+   private final int filesPosition;
+   private final int fileCount;
+
+   private SymbolIndex(ByteBuffer buffer) throws IOException {
+      this.buffer = buffer;
+      if (buffer.getInt() != MAGIC || buffer.get() != FORMAT_VERSION) {
+         throw new IOException("Not a symbol index of this version");
+      }
+      this.lastCommit = readString(buffer);
+      this.strings = new String[buffer.getInt()];
+      for (int i = 0; i < strings.length; i++) {
+         strings[i] = readString(buffer);
+      }
+      this.fileCount = buffer.getInt();
+      this.filesPosition = buffer.position();
+   }
+
+   /**
+    * This method opens an index for queries, memory-mapping the index file.
+    *
+    * @param indexFile The path of the index file.
+    * @return The index.
+    * @throws IOException If the file cannot be read or is not an index.
+    */
+   public static SymbolIndex open(String indexFile) throws IOException {
+      try ( FileChannel channel = FileChannel.open(Paths.get(indexFile), StandardOpenOption.READ)) {
+         return new SymbolIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      }
+   }
+
+   /**
+    * This method reads an index into the heap. It is used to update an index, since a file that is
+    * memory-mapped cannot be replaced on Windows.
+    *
+    * @param indexFile The path of the index file.
+    * @return The index.
+    * @throws IOException If the file cannot be read or is not an index.
+    */
+   static SymbolIndex load(String indexFile) throws IOException {
+      return new SymbolIndex(ByteBuffer.wrap(Files.readAllBytes(Paths.get(indexFile))));
+   }
+
+   /**
+    * This method returns the commit the index was last updated to.
+    *
+    * @return The commit SHA, or an empty string if the indexed directory is not a git checkout.
+    */
+   public String getLastCommit() {
+      return lastCommit;
+   }
+
+   public int getFileCount() {
+      return fileCount;
+   }
+
+   /**
+    * This method runs a query given as kind:name, as used on the command line.
+    * The kinds are table for {@link #findTableReferences}, calls for {@link #findCallSites} and defs for {@link #findSubprograms}.
+    *
+    * @param query The query, such as table:customer_order_tab or calls:Customer_Order_API.Get_State.
+    * @return The results of the query.
+    */
+   public List<Hit> query(String query) {
+      int separator = query.indexOf(':');
+      String kind = separator < 0 ? "" : query.substring(0, separator);
+      String name = query.substring(separator + 1);
+      switch (kind) {
+         case "table":
+            return findTableReferences(name);
+         case "calls":
+            return findCallSites(name);
+         case "defs":
+            return findSubprograms(name);
+         default:
+            throw new IllegalArgumentException("Unknown query " + query + ", use table:<table>, calls:<Package_API.Method> or defs:<name>");
+      }
+   }
+
+   /**
+    * This method finds the procedures and functions that read or write a table or view.
+    *
+    * @param tableName The name of the table, such as customer_order_tab.
+    * @return The references to the table.
+    */
+   public List<Hit> findTableReferences(String tableName) {
+      boolean[] matches = matchStrings(tableName);
+      List<Hit> hits = new ArrayList<>();
+      int position = filesPosition;
+      for (int file = 0; file < fileCount; file++) {
+         FileRecord record = new FileRecord(position);
+         for (int i = 0; i < record.tableCount; i++) {
+            int recordPosition = record.tablesPosition + i * TableReference.INTS * Integer.BYTES;
+            if (matches[buffer.getInt(recordPosition + Integer.BYTES)]) {
+               String access = buffer.getInt(recordPosition + 2 * Integer.BYTES) == 1 ? "write" : "read";
+               hits.add(record.hit(buffer.getInt(recordPosition), buffer.getInt(recordPosition + 3 * Integer.BYTES), access));
+            }
+         }
+         position = record.endPosition;
+      }
+      return hits;
+   }
+
+   /**
+    * This method finds the calls of a procedure or function.
+    *
+    * @param name The called method, as Package_API.Method, or only the method name to find it in any package.
+    * @return The call sites.
+    */
+   public List<Hit> findCallSites(String name) {
+      int separator = name.lastIndexOf('.');
+      boolean[] packageMatches = separator < 0 ? null : matchStrings(name.substring(0, separator));
+      boolean[] methodMatches = matchStrings(name.substring(separator + 1));
+      List<Hit> hits = new ArrayList<>();
+      int position = filesPosition;
+      for (int file = 0; file < fileCount; file++) {
+         FileRecord record = new FileRecord(position);
+         for (int i = 0; i < record.callCount; i++) {
+            int recordPosition = record.callsPosition + i * CallSite.INTS * Integer.BYTES;
+            int packageName = buffer.getInt(recordPosition + Integer.BYTES);
+            int methodName = buffer.getInt(recordPosition + 2 * Integer.BYTES);
+            if (methodMatches[methodName] && (packageMatches == null || packageMatches[packageName])) {
+               hits.add(record.hit(buffer.getInt(recordPosition), buffer.getInt(recordPosition + 3 * Integer.BYTES),
+                       strings[packageName] + "." + strings[methodName]));
+            }
+         }
+         position = record.endPosition;
+      }
+      return hits;
+   }
+
+   /**
+    * This method finds where packages, procedures and functions are implemented.
+    *
+    * @param name A package, such as Customer_Order_API, a method as Package_API.Method, or only a method name.
+    * @return The procedure and function bodies, all bodies of the package when a package is given.
+    */
+   public List<Hit> findSubprograms(String name) {
+      int separator = name.lastIndexOf('.');
+      boolean[] packageMatches = matchStrings(separator < 0 ? name : name.substring(0, separator));
+      boolean[] methodMatches = matchStrings(name.substring(separator + 1));
+      List<Hit> hits = new ArrayList<>();
+      int position = filesPosition;
+      for (int file = 0; file < fileCount; file++) {
+         FileRecord record = new FileRecord(position);
+         boolean packageMatch = packageMatches[record.packageName];
+         for (int i = 0; i < record.subprogramCount; i++) {
+            int recordPosition = record.subprogramsPosition + i * Subprogram.INTS * Integer.BYTES;
+            boolean methodMatch = methodMatches[buffer.getInt(recordPosition)];
+            if (separator < 0 ? packageMatch || methodMatch : packageMatch && methodMatch) {
+               hits.add(record.hit(i, buffer.getInt(recordPosition + Integer.BYTES), ""));
+            }
+         }
+         position = record.endPosition;
+      }
+      return hits;
+   }
+
+   /**
+    * This method decodes the symbols of all files, to update the index.
+    *
+    * @return The symbols of every file, by path.
+    */
+   Map<String, FileSymbols> readFiles() {
+      Map<String, FileSymbols> files = new LinkedHashMap<>();
+      int position = filesPosition;
+      for (int file = 0; file < fileCount; file++) {
+         FileRecord record = new FileRecord(position);
+         FileSymbols symbols = new FileSymbols(strings[record.path], strings[record.packageName]);
+         for (int i = 0; i < record.subprogramCount; i++) {
+            int recordPosition = record.subprogramsPosition + i * Subprogram.INTS * Integer.BYTES;
+            symbols.subprograms.add(new Subprogram(strings[buffer.getInt(recordPosition)], buffer.getInt(recordPosition + Integer.BYTES)));
+         }
+         for (int i = 0; i < record.callCount; i++) {
+            int recordPosition = record.callsPosition + i * CallSite.INTS * Integer.BYTES;
+            symbols.callSites.add(new CallSite(buffer.getInt(recordPosition), strings[buffer.getInt(recordPosition + Integer.BYTES)],
+                    strings[buffer.getInt(recordPosition + 2 * Integer.BYTES)], buffer.getInt(recordPosition + 3 * Integer.BYTES)));
+         }
+         for (int i = 0; i < record.tableCount; i++) {
+            int recordPosition = record.tablesPosition + i * TableReference.INTS * Integer.BYTES;
+            symbols.tableReferences.add(new TableReference(buffer.getInt(recordPosition), strings[buffer.getInt(recordPosition + Integer.BYTES)],
+                    buffer.getInt(recordPosition + 2 * Integer.BYTES) == 1, buffer.getInt(recordPosition + 3 * Integer.BYTES)));
+         }
+         files.put(symbols.getPath(), symbols);
+         position = record.endPosition;
+      }
+      return files;
+   }
+
+   /**
+    * This method writes an index. The index is written to a temporary file first and then moved over the old one,
+    * so a query running at the same time never sees half an index.
+    *
+    * @param indexFile The path of the index file.
+    * @param lastCommit The commit the files were indexed at, or an empty string.
+    * @param files The symbols of every file.
+    * @throws IOException If the index cannot be written.
+    */
+   static void write(String indexFile, String lastCommit, Collection<FileSymbols> files) throws IOException {
+      Map<String, Integer> stringIds = new LinkedHashMap<>();
+      for (FileSymbols symbols : files) {
+         stringId(stringIds, symbols.getPath());
+         stringId(stringIds, symbols.getPackageName());
+         symbols.subprograms.forEach(subprogram -> stringId(stringIds, subprogram.getName()));
+         symbols.callSites.forEach(callSite -> {
+            stringId(stringIds, callSite.getPackageName());
+            stringId(stringIds, callSite.getMethodName());
+         });
+         symbols.tableReferences.forEach(tableReference -> stringId(stringIds, tableReference.getTableName()));
+      }
+
+      Path indexPath = Paths.get(indexFile).toAbsolutePath();
+      Files.createDirectories(indexPath.getParent());
+      Path temporaryFile = Files.createTempFile(indexPath.getParent(), indexPath.getFileName().toString(), ".tmp");
+      try ( DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+         output.writeInt(MAGIC);
+         output.writeByte(FORMAT_VERSION);
+         writeString(output, lastCommit);
+         output.writeInt(stringIds.size());
+         for (String string : stringIds.keySet()) {
+            writeString(output, string);
+         }
+         output.writeInt(files.size());
+         for (FileSymbols symbols : files) {
+            output.writeInt(stringIds.get(symbols.getPath()));
+            output.writeInt(stringIds.get(symbols.getPackageName()));
+            output.writeInt(symbols.subprograms.size());
+            output.writeInt(symbols.callSites.size());
+            output.writeInt(symbols.tableReferences.size());
+            for (Subprogram subprogram : symbols.subprograms) {
+               output.writeInt(stringIds.get(subprogram.getName()));
+               output.writeInt(subprogram.getLineNumber());
+            }
+            for (CallSite callSite : symbols.callSites) {
+               output.writeInt(callSite.getSubprogram());
+               output.writeInt(stringIds.get(callSite.getPackageName()));
+               output.writeInt(stringIds.get(callSite.getMethodName()));
+               output.writeInt(callSite.getLineNumber());
+            }
+            for (TableReference tableReference : symbols.tableReferences) {
+               output.writeInt(tableReference.getSubprogram());
+               output.writeInt(stringIds.get(tableReference.getTableName()));
+               output.writeInt(tableReference.isWrite() ? 1 : 0);
+               output.writeInt(tableReference.getLineNumber());
+            }
+         }
+      }
+      Files.move(temporaryFile, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+   }
+
+   private boolean[] matchStrings(String name) {
+      boolean[] matches = new boolean[strings.length];
+      for (int i = 0; i < strings.length; i++) {
+         matches[i] = strings[i].equalsIgnoreCase(name);
+      }
+      return matches;
+   }
+
+   private static void stringId(Map<String, Integer> stringIds, String string) {
+      stringIds.putIfAbsent(string, stringIds.size());
+   }
+
+   private static String readString(ByteBuffer buffer) {
+      byte[] bytes = new byte[buffer.getInt()];
+      buffer.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }
+
+   private static void writeString(DataOutputStream output, String string) throws IOException {
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      output.writeInt(bytes.length);
+      output.write(bytes);
+   }
+
+   /**
+    * The header of the record of one file in the index, with the positions of its subprograms, call sites and table references.
+    */
+   private class FileRecord {
+
+      private final int path;
+      private final int packageName;
+      private final int subprogramCount;
+      private final int callCount;
+      private final int tableCount;
+      private final int subprogramsPosition;
+      private final int callsPosition;
+      private final int tablesPosition;
+      private final int endPosition;
+
+      FileRecord(int position) {
+         path = buffer.getInt(position);
+         packageName = buffer.getInt(position + Integer.BYTES);
+         subprogramCount = buffer.getInt(position + 2 * Integer.BYTES);
+         callCount = buffer.getInt(position + 3 * Integer.BYTES);
+         tableCount = buffer.getInt(position + 4 * Integer.BYTES);
+         subprogramsPosition = position + 5 * Integer.BYTES;
+         callsPosition = subprogramsPosition + subprogramCount * Subprogram.INTS * Integer.BYTES;
+         tablesPosition = callsPosition + callCount * CallSite.INTS * Integer.BYTES;
+         endPosition = tablesPosition + tableCount * TableReference.INTS * Integer.BYTES;
+      }
+
+      Hit hit(int subprogram, int lineNumber, String detail) {
+         String subprogramName = "";
+         if (subprogram >= 0) {
+            subprogramName = strings[buffer.getInt(subprogramsPosition + subprogram * Subprogram.INTS * Integer.BYTES)];
+            if (!strings[packageName].isEmpty()) {
+               subprogramName = strings[packageName] + "." + subprogramName;
+            }
+         }
+         return new Hit(strings[path], subprogramName, lineNumber, detail);
+      }
+   }
+
+   /**
+    * A result of a query: a place in a file, and the procedure or function it is in.
+    */
+   public static class Hit {
+
+      private final String path;
+      private final String subprogram;
+      private final int lineNumber;
+      private final String detail;
+
+      public Hit(String path, String subprogram, int lineNumber, String detail) {
+         this.path = path;
+         this.subprogram = subprogram;
+         this.lineNumber = lineNumber;
+         this.detail = detail;
+      }
+
+      public String getPath() {
+         return path;
+      }
+
+      /**
+       * @return The procedure or function as Package_API.Method, or an empty string outside of any procedure or function.
+       */
+      public String getSubprogram() {
+         return subprogram;
+      }
+
+      public int getLineNumber() {
+         return lineNumber;
+      }
+
+      /**
+       * @return What was found, such as read or write for a table reference, or the called method.
+       */
+      public String getDetail() {
+         return detail;
+      }
+
+      @Override
+      public String toString() {
+         return path + ":" + lineNumber + "\t" + (subprogram.isEmpty() ? "-" : subprogram) + (detail.isEmpty() ? "" : "\t" + detail);
+      }
+   }
+
+   /**
+    * The symbols of one file.
+    */
+   public static class FileSymbols {
+
+      private final String path;
+      private final String packageName;
+      final List<Subprogram> subprograms = new ArrayList<>();
+      final List<CallSite> callSites = new ArrayList<>();
+      final List<TableReference> tableReferences = new ArrayList<>();
+
+      public FileSymbols(String path, String packageName) {
+         this.path = path;
+         this.packageName = packageName;
+      }
+
+      public String getPath() {
+         return path;
+      }
+
+      /**
+       * @return The package the file implements, or an empty string for a file that is not part of a package.
+       */
+      public String getPackageName() {
+         return packageName;
+      }
+
+      public List<Subprogram> getSubprograms() {
+         return Collections.unmodifiableList(subprograms);
+      }
+
+      public List<CallSite> getCallSites() {
+         return Collections.unmodifiableList(callSites);
+      }
+
+      public List<TableReference> getTableReferences() {
+         return Collections.unmodifiableList(tableReferences);
+      }
+   }
+
+   public static class Subprogram {
+
+      static final int INTS = 2;
+
+      private final String name;
+      private final int lineNumber;
+
+      public Subprogram(String name, int lineNumber) {
+         this.name = name;
+         this.lineNumber = lineNumber;
+      }
+
+      public String getName() {
+         return name;
+      }
+
+      public int getLineNumber() {
+         return lineNumber;
+      }
+   }
+
+   public static class CallSite {
+
+      static final int INTS = 4;
+
+      private final int subprogram;
+      private final String packageName;
+      private final String methodName;
+      private final int lineNumber;
+
+      /**
+       * Creates a call site.
+       *
+       * @param subprogram The index of the calling procedure or function in its file, or -1 outside of any.
+       * @param packageName The package of the called method.
+       * @param methodName The called method.
+       * @param lineNumber The line of the call.
+       */
+      public CallSite(int subprogram, String packageName, String methodName, int lineNumber) {
+         this.subprogram = subprogram;
+         this.packageName = packageName;
+         this.methodName = methodName;
+         this.lineNumber = lineNumber;
+      }
+
+      public int getSubprogram() {
+         return subprogram;
+      }
+
+      public String getPackageName() {
+         return packageName;
+      }
+
+      public String getMethodName() {
+         return methodName;
+      }
+
+      public int getLineNumber() {
+         return lineNumber;
+      }
+   }
+
+   public static class TableReference {
+
+      static final int INTS = 4;
+
+      private final int subprogram;
+      private final String tableName;
+      private final boolean write;
+      private final int lineNumber;
+
+      /**
+       * Creates a table reference.
+       *
+       * @param subprogram The index of the procedure or function in its file, or -1 outside of any.
+       * @param tableName The table or view.
+       * @param write true for INSERT, UPDATE, DELETE and MERGE, false for a query.
+       * @param lineNumber The line of the table name.
+       */
+      public TableReference(int subprogram, String tableName, boolean write, int lineNumber) {
+         this.subprogram = subprogram;
+         this.tableName = tableName;
+         this.write = write;
+         this.lineNumber = lineNumber;
+      }
+
+      public int getSubprogram() {
+         return subprogram;
+      }
+
+      public String getTableName() {
+         return tableName;
+      }
+
+      public boolean isWrite() {
+         return write;
+      }
+
+      public int getLineNumber() {
+         return lineNumber;
+      }
+   }
+}
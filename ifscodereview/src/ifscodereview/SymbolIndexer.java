@@ -0,0 +1,282 @@
+package ifscodereview;
+
+import ifscodereview.grammar.PlSqlLexer;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Token;
+
+/**
+ * Builds and updates the {@link SymbolIndex} of a directory. Files are only lexed, as in the lite review, so a whole
+ * repository is indexed in seconds and files with syntax errors are indexed as well. The first run indexes every
+ * PL/SQL file; later runs only index the files git reports as changed since the last indexed commit.
+ *
+ * @author pardha
+ */
+public class SymbolIndexer {
+
+   // Package names of IFS methods called from other packages, such as Customer_Order_API or Error_SYS
+   private static final Pattern PACKAGE_NAME = Pattern.compile("(?i)[a-z][a-z0-9_#$]*_(API|RPI|SYS|CFP|CFI)");
+   private static final Pattern IDENTIFIER = Pattern.compile("(?i)[a-z][a-z0-9_#$]*");
+
+   // The files of a logical unit that implement its package, named after the logical unit
+   private static final List<String> PACKAGE_EXTENSIONS = Arrays.asList(".plsql", ".apy", ".api", ".apv");
+
+   // Keywords that end the table list of a FROM clause
+   private static final Set<Integer> FROM_LIST_END_TYPES = new HashSet<>(Arrays.asList(
+           PlSqlLexer.WHERE, PlSqlLexer.GROUP, PlSqlLexer.ORDER, PlSqlLexer.HAVING, PlSqlLexer.CONNECT, PlSqlLexer.START,
+           PlSqlLexer.UNION, PlSqlLexer.INTERSECT, PlSqlLexer.MINUS, PlSqlLexer.ON, PlSqlLexer.USING, PlSqlLexer.SEMICOLON,
+           PlSqlLexer.FOR, PlSqlLexer.WITH));
+
+   /**
+    * This method brings the index of a directory up to date. When the index was built at a commit of the git checkout,
+    * only the files changed since that commit, in commits or in the working tree, and new untracked files are indexed
+    * again. Otherwise every PL/SQL file of the directory is indexed.
+    *
+    * @param indexFile The path of the index file, created if it does not exist.
+    * @param directory The directory to be indexed, usually the root of the git checkout.
+    * @return The number of files that were indexed.
+    * @throws IOException If the files or the index cannot be read or written.
+    * @throws InterruptedException If waiting for git is interrupted.
+    */
+   public static int update(String indexFile, String directory) throws IOException, InterruptedException {
+      Path root = Paths.get(directory);
+      List<String> head = git(root, "rev-parse", "HEAD");
+      String headCommit = head == null || head.isEmpty() ? "" : head.get(0);
+
+      Map<String, SymbolIndex.FileSymbols> files = new TreeMap<>();
+      List<String> changedFiles = new ArrayList<>();
+      SymbolIndex index = Files.isRegularFile(Paths.get(indexFile)) ? SymbolIndex.load(indexFile) : null;
+      // The last indexed commit may be gone after a rebase, then everything is indexed again
+      List<String> diff = index == null || index.getLastCommit().isEmpty() || headCommit.isEmpty() ? null
+              : git(root, "diff", "--name-only", "--no-renames", "--relative", index.getLastCommit());
+      List<String> untracked = diff == null ? null : git(root, "ls-files", "--others", "--exclude-standard");
+      if (diff != null && untracked != null) {
+         files.putAll(index.readFiles());
+         changedFiles.addAll(diff);
+         changedFiles.addAll(untracked);
+      } else {
+         for (String file : ReviewEngine.collectFiles(Arrays.asList(directory))) {
+            changedFiles.add(root.relativize(Paths.get(file)).toString());
+         }
+      }
+
+      List<String> indexedFiles = changedFiles.stream()
+              .map(file -> file.replace('\\', '/'))
+              .distinct()
+              .filter(ReviewEngine::isPlSqlFile)
+              .collect(Collectors.toList());
+      for (String file : indexedFiles) {
+         // Deleted files drop out of the index
+         files.remove(file);
+      }
+      List<SymbolIndex.FileSymbols> symbols = indexedFiles.parallelStream()
+              .filter(file -> Files.isRegularFile(root.resolve(file)))
+              .map(file -> {
+                 try {
+                    return indexFile(root.resolve(file).toString(), file);
+                 } catch (IOException e) {
+                    System.err.println("Indexing of " + file + " failed: " + e.getMessage());
+                    return null;
+                 }
+              })
+              .collect(Collectors.toList());
+      for (SymbolIndex.FileSymbols fileSymbols : symbols) {
+         if (fileSymbols != null) {
+            files.put(fileSymbols.getPath(), fileSymbols);
+         }
+      }
+
+      SymbolIndex.write(indexFile, headCommit, files.values());
+      return indexedFiles.size();
+   }
+
+   /**
+    * This method lexes a file and extracts its symbols.
+    *
+    * @param filePath The path to read the file from.
+    * @param indexedPath The path of the file in the index, relative to the indexed directory.
+    * @return The symbols of the file.
+    * @throws IOException If the file cannot be read.
+    */
+   static SymbolIndex.FileSymbols indexFile(String filePath, String indexedPath) throws IOException {
+      PlSqlLexer lexer = new PlSqlLexer(SourceFile.read(filePath).toCharStream());
+      lexer.removeErrorListeners();
+      CommonTokenStream tokenStream = new CommonTokenStream(lexer);
+      tokenStream.fill();
+      return extractSymbols(indexedPath, tokenStream.getTokens());
+   }
+
+   /**
+    * This method extracts the package, the procedure and function bodies, the call sites and the table references
+    * of a file from its tokens.
+    * Calls are taken from Package_API.Method names and from the names of the bodies of the file itself,
+    * tables from FROM and JOIN clauses and from the targets of INSERT, UPDATE, DELETE and MERGE.
+    *
+    * @param path The path of the file in the index.
+    * @param tokens All tokens of the file.
+    * @return The symbols of the file.
+    */
+   static SymbolIndex.FileSymbols extractSymbols(String path, List<Token> tokens) {
+      SymbolIndex.FileSymbols symbols = new SymbolIndex.FileSymbols(path, packageName(path, tokens));
+
+      List<UnitSplitter.Unit> units = UnitSplitter.findSubprograms(tokens);
+      if (units == null) {
+         // A body without its END, the symbols are indexed without the procedure or function they belong to
+         units = new ArrayList<>();
+      }
+      Set<String> localMethods = new HashSet<>();
+      for (UnitSplitter.Unit unit : units) {
+         symbols.subprograms.add(new SymbolIndex.Subprogram(unit.getName(), unit.getStartLine()));
+         localMethods.add(unit.getName().toUpperCase(Locale.ROOT));
+      }
+
+      int unit = -1;
+      // For every open parenthesis, whether it holds a subquery
+      Deque<Boolean> subqueryParentheses = new ArrayDeque<>();
+      // The parenthesis depth of the FROM clause whose table list is being read, or -1
+      int fromListDepth = -1;
+      int previous = -1;
+      for (int i = UnitSplitter.nextDefaultToken(tokens, 0); i < tokens.size() && tokens.get(i).getType() != Token.EOF;
+              previous = i, i = UnitSplitter.nextDefaultToken(tokens, i + 1)) {
+         while (unit + 1 < units.size() && units.get(unit + 1).getStartTokenIndex() <= i) {
+            unit++;
+         }
+         int subprogram = unit >= 0 && i <= units.get(unit).getStopTokenIndex() ? unit : -1;
+         Token token = tokens.get(i);
+         int type = token.getType();
+         int previousType = typeAt(tokens, previous);
+         int next = UnitSplitter.nextDefaultToken(tokens, i + 1);
+
+         if (type == PlSqlLexer.LEFT_PAREN) {
+            int nextType = typeAt(tokens, next);
+            subqueryParentheses.push(nextType == PlSqlLexer.SELECT || nextType == PlSqlLexer.WITH);
+         } else if (type == PlSqlLexer.RIGHT_PAREN) {
+            subqueryParentheses.poll();
+            if (subqueryParentheses.size() < fromListDepth) {
+               fromListDepth = -1;
+            }
+         } else if ((type == PlSqlLexer.FROM || type == PlSqlLexer.JOIN) && (subqueryParentheses.isEmpty() || subqueryParentheses.peek())) {
+            addTableReference(symbols, tokens, next, subprogram, previousType == PlSqlLexer.DELETE);
+            fromListDepth = type == PlSqlLexer.FROM ? subqueryParentheses.size() : -1;
+         } else if (type == PlSqlLexer.COMMA && fromListDepth == subqueryParentheses.size()) {
+            addTableReference(symbols, tokens, next, subprogram, false);
+         } else if (FROM_LIST_END_TYPES.contains(type)) {
+            fromListDepth = -1;
+         } else if (type == PlSqlLexer.INTO && (previousType == PlSqlLexer.INSERT || previousType == PlSqlLexer.MERGE)) {
+            addTableReference(symbols, tokens, next, subprogram, true);
+         } else if ((type == PlSqlLexer.UPDATE && previousType != PlSqlLexer.FOR) || (type == PlSqlLexer.DELETE && typeAt(tokens, next) != PlSqlLexer.FROM)) {
+            addTableReference(symbols, tokens, next, subprogram, true);
+         } else if (type == PlSqlLexer.PERIOD && previous >= 0 && PACKAGE_NAME.matcher(tokens.get(previous).getText()).matches()
+                 && next < tokens.size() && IDENTIFIER.matcher(tokens.get(next).getText()).matches()) {
+            symbols.callSites.add(new SymbolIndex.CallSite(subprogram, tokens.get(previous).getText(), tokens.get(next).getText(), token.getLine()));
+         } else if (localMethods.contains(token.getText().toUpperCase(Locale.ROOT)) && previousType != PlSqlLexer.PERIOD
+                 && previousType != PlSqlLexer.PROCEDURE && previousType != PlSqlLexer.FUNCTION && previousType != PlSqlLexer.END) {
+            symbols.callSites.add(new SymbolIndex.CallSite(subprogram, symbols.getPackageName(), token.getText(), token.getLine()));
+         }
+      }
+      return symbols;
+   }
+
+   /**
+    * This method adds the table at the given token, unless it is a subquery or a table function.
+    */
+   private static void addTableReference(SymbolIndex.FileSymbols symbols, List<Token> tokens, int index, int subprogram, boolean write) {
+      int type = typeAt(tokens, index);
+      if (type != PlSqlLexer.REGULAR_ID && type != PlSqlLexer.DELIMITED_ID) {
+         return;
+      }
+      int next = UnitSplitter.nextDefaultToken(tokens, index + 1);
+      if (typeAt(tokens, next) == PlSqlLexer.PERIOD) {
+         // A table of another schema, schema.table
+         index = UnitSplitter.nextDefaultToken(tokens, next + 1);
+         next = UnitSplitter.nextDefaultToken(tokens, index + 1);
+      }
+      if (index >= tokens.size() || (typeAt(tokens, next) == PlSqlLexer.LEFT_PAREN && !write)) {
+         return;
+      }
+      Token table = tokens.get(index);
+      symbols.tableReferences.add(new SymbolIndex.TableReference(subprogram, table.getText(), write, table.getLine()));
+   }
+
+   /**
+    * This method finds the package a file implements: the package of a CREATE PACKAGE statement, or for the
+    * IFS files of a logical unit, the API package named after it, such as Customer_Order_API for CustomerOrder.plsql.
+    */
+   private static String packageName(String path, List<Token> tokens) {
+      for (int i = UnitSplitter.nextDefaultToken(tokens, 0); i < tokens.size() && tokens.get(i).getType() != Token.EOF;
+              i = UnitSplitter.nextDefaultToken(tokens, i + 1)) {
+         if (tokens.get(i).getType() == PlSqlLexer.PACKAGE) {
+            int nameIndex = UnitSplitter.nextDefaultToken(tokens, i + 1);
+            if (typeAt(tokens, nameIndex) == PlSqlLexer.BODY) {
+               nameIndex = UnitSplitter.nextDefaultToken(tokens, nameIndex + 1);
+            }
+            if (typeAt(tokens, UnitSplitter.nextDefaultToken(tokens, nameIndex + 1)) == PlSqlLexer.PERIOD) {
+               nameIndex = UnitSplitter.nextDefaultToken(tokens, UnitSplitter.nextDefaultToken(tokens, nameIndex + 1) + 1);
+            }
+            if (nameIndex < tokens.size() && IDENTIFIER.matcher(tokens.get(nameIndex).getText()).matches()) {
+               return tokens.get(nameIndex).getText();
+            }
+         }
+      }
+
+      String fileName = Paths.get(path).getFileName().toString();
+      int extension = fileName.lastIndexOf('.');
+      if (extension < 0 || !PACKAGE_EXTENSIONS.contains(fileName.substring(extension).toLowerCase(Locale.ROOT))) {
+         return "";
+      }
+      // CustomerOrderFlow becomes Customer_Order_Flow_API
+      StringBuilder packageName = new StringBuilder();
+      for (int i = 0; i < extension; i++) {
+         char c = fileName.charAt(i);
+         if (i > 0 && Character.isUpperCase(c)) {
+            packageName.append('_');
+         }
+         packageName.append(c);
+      }
+      return packageName.append("_API").toString();
+   }
+
+   private static int typeAt(List<Token> tokens, int index) {
+      return index >= 0 && index < tokens.size() ? tokens.get(index).getType() : Token.EOF;
+   }
+
+   /**
+    * This method runs a git command in the given directory.
+    *
+    * @return The lines git printed, or null if the directory is not a git checkout or git fails.
+    */
+   private static List<String> git(Path directory, String... arguments) throws IOException, InterruptedException {
+      List<String> command = new ArrayList<>(Arrays.asList("git", "-C", directory.toString()));
+      command.addAll(Arrays.asList(arguments));
+      Process process;
+      try {
+         process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+      } catch (IOException e) {
+         // git is not installed, every file is indexed
+         return null;
+      }
+      List<String> lines;
+      try ( BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+         lines = reader.lines().filter(line -> !line.isEmpty()).collect(Collectors.toList());
+      }
+      return process.waitFor() == 0 ? lines : null;
+   }
+}
@@ -0,0 +1,72 @@
+package ifscodereview;
+
+import org.json.JSONObject;
+
+/**
+ * A syntax error found while parsing a file, together with the unit that was skipped because of it.
+ * The parser stops at the first error of a procedure or function body, declaration or top-level statement
+ * and resumes at the next unit, see {@link UnitRecoveryStrategy}, so there is one diagnostic per broken unit.
+ *
+ * @author pardha
+ */
+public class SyntaxDiagnostic {
+
+   private final int lineNumber;
+   private final int column;
+   private final String message;
+   private final String unit;
+   private final int resumeLineNumber;
+
+   public SyntaxDiagnostic(int lineNumber, int column, String message, String unit, int resumeLineNumber) {
+      this.lineNumber = lineNumber;
+      this.column = column;
+      this.message = message;
+      this.unit = unit;
+      this.resumeLineNumber = resumeLineNumber;
+   }
+
+   public int getLineNumber() {
+      return lineNumber;
+   }
+
+   /**
+    * @return The column of the offending token, starting at 0 as in ANTLR.
+    */
+   public int getColumn() {
+      return column;
+   }
+
+   public String getMessage() {
+      return message;
+   }
+
+   /**
+    * @return The skipped unit, such as "procedure Get_State", or null if the error lies between units.
+    */
+   public String getUnit() {
+      return unit;
+   }
+
+   /**
+    * @return The line at which parsing resumed after skipping the unit.
+    */
+   public int getResumeLineNumber() {
+      return resumeLineNumber;
+   }
+
+   JSONObject toJSON() {
+      JSONObject json = new JSONObject();
+      json.put("line", lineNumber);
+      json.put("column", column);
+      json.put("message", message);
+      json.put("unit", unit != null ? unit : JSONObject.NULL);
+      json.put("resume_line", resumeLineNumber);
+      return json;
+   }
+
+   @Override
+   public String toString() {
+      return lineNumber + ":" + column + ": syntax error, " + message
+              + (unit != null ? ", skipped " + unit : "") + ", resumed at line " + resumeLineNumber;
+   }
+}
@@ -0,0 +1,25 @@
+package ifscodereview;
+
+import java.util.List;
+import org.antlr.v4.runtime.Token;
+
+/**
+ * A code check that runs directly over the tokens of the lexer, without a parse tree.
+ * A rule sees every token of the file, on the hidden channel as well, so it can check comments,
+ * whitespace, IFS layer declarations and annotations next to the code itself.
+ * A new rule instance is used for every file, so a rule may keep state while the file is being read.
+ *
+ * @author pardha
+ */
+public interface TokenRule {
+
+   /**
+    * This method is called for every token of the file, in the order they appear.
+    * The rule may look at the tokens around the current one, before and after it.
+    *
+    * @param tokens All tokens of the file, of every channel, ending with EOF.
+    * @param index The index of the current token.
+    * @param context The review context receiving the issues, see {@link LiteReview#report}.
+    */
+   void visitToken(List<Token> tokens, int index, ReviewContext context);
+}
@@ -0,0 +1,201 @@
+package ifscodereview;
+
+import java.util.Objects;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+/**
+ * The text of a token or of a parse tree node, read from the character stream of the file instead of copied.
+ * ParserRuleContext.getText() concatenates the text of every token of a node into a new String on each call, while
+ * most rules only check the case, the end or the value of a name. They can check this view instead, and turn it
+ * into a String only when they report an issue. As with getText(), the whitespace and comments between the tokens
+ * are not part of the text: a node with whitespace or comments between its tokens is copied once, and so are
+ * tokens of a character stream not created by {@link SourceFile}.
+ *
+ * @author pardha
+ */
+public final class TokenText implements CharSequence {
+
+   private final SourceCharStream source;
+   private final int start;
+   private final int length;
+   // The copied text, or the text of the view once it has been turned into a String
+   private String text;
+
+   private TokenText(SourceCharStream source, int start, int length) {
+      this.source = source;
+      this.start = start;
+      this.length = length;
+   }
+
+   private TokenText(String text) {
+      this.source = null;
+      this.start = 0;
+      this.length = text.length();
+      this.text = text;
+   }
+
+   /**
+    * This method returns the text of a token.
+    *
+    * @param token The token.
+    * @return The text of the token, as getText() returns it.
+    */
+   public static TokenText of(Token token) {
+      if (token.getInputStream() instanceof SourceCharStream && isInStream(token)) {
+         return new TokenText((SourceCharStream) token.getInputStream(), token.getStartIndex(), token.getStopIndex() - token.getStartIndex() + 1);
+      }
+      return new TokenText(token.getText());
+   }
+
+   /**
+    * This method returns the text of a parse tree node, without the whitespace and comments between its tokens.
+    *
+    * @param ctx The node.
+    * @return The text of the node, as getText() returns it.
+    */
+   public static TokenText of(ParserRuleContext ctx) {
+      Token startToken = ctx.getStart();
+      Token stopToken = ctx.getStop();
+      if (startToken != null && stopToken != null && startToken.getInputStream() instanceof SourceCharStream
+              && stopToken.getInputStream() == startToken.getInputStream()) {
+         int length = stopToken.getStopIndex() - startToken.getStartIndex() + 1;
+         // The tokens cover the whole interval only if there is no hidden token between them
+         if (length > 0 && getTokenLength(ctx) == length) {
+            return new TokenText((SourceCharStream) startToken.getInputStream(), startToken.getStartIndex(), length);
+         }
+      }
+      return new TokenText(ctx.getText());
+   }
+
+   /**
+    * This method checks whether the text has no characters that change when it is turned into lowercase,
+    * like text.equals(text.toLowerCase()) without creating the lowercase copy.
+    *
+    * @return true if the text is in lowercase, false otherwise.
+    */
+   public boolean isLowerCase() {
+      for (int i = 0; i < length; i++) {
+         char c = charAt(i);
+         if (Character.toLowerCase(c) != c) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * This method checks whether the text has no characters that change when it is turned into uppercase,
+    * without creating the uppercase copy.
+    *
+    * @return true if the text is in uppercase, false otherwise.
+    */
+   public boolean isUpperCase() {
+      for (int i = 0; i < length; i++) {
+         char c = charAt(i);
+         if (Character.toUpperCase(c) != c) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * This method checks whether the text ends with the given suffix.
+    *
+    * @param suffix The suffix.
+    * @return true if the text ends with the suffix, false otherwise.
+    */
+   public boolean endsWith(CharSequence suffix) {
+      int offset = length - suffix.length();
+      if (offset < 0) {
+         return false;
+      }
+      for (int i = 0; i < suffix.length(); i++) {
+         if (charAt(offset + i) != suffix.charAt(i)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * This method checks whether the text is equal to the given text.
+    *
+    * @param other The text to compare to.
+    * @return true if both have the same characters, false otherwise.
+    */
+   public boolean contentEquals(CharSequence other) {
+      if (other.length() != length) {
+         return false;
+      }
+      for (int i = 0; i < length; i++) {
+         if (charAt(i) != other.charAt(i)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   @Override
+   public int length() {
+      return length;
+   }
+
+   @Override
+   public char charAt(int index) {
+      if (source == null) {
+         return text.charAt(index);
+      }
+      return source.charAt(start + Objects.checkIndex(index, length));
+   }
+
+   @Override
+   public CharSequence subSequence(int start, int end) {
+      Objects.checkFromToIndex(start, end, length);
+      if (source == null) {
+         return text.substring(start, end);
+      }
+      return new TokenText(source, this.start + start, end - start);
+   }
+
+   /**
+    * This method returns the text as a String. The text of a view is only copied on the first call.
+    *
+    * @return The text.
+    */
+   @Override
+   public String toString() {
+      if (text == null) {
+         text = source.getText(Interval.of(start, start + length - 1));
+      }
+      return text;
+   }
+
+   private static boolean isInStream(Token token) {
+      return token.getType() != Token.EOF && token.getStartIndex() >= 0 && token.getStopIndex() >= token.getStartIndex() - 1;
+   }
+
+   /**
+    * This method returns the total length of the tokens of a node, or -1 if one of them is not read from
+    * the character stream, such as a token the parser inserted to recover from a syntax error.
+    */
+   private static int getTokenLength(ParseTree node) {
+      if (node instanceof TerminalNode) {
+         Token token = ((TerminalNode) node).getSymbol();
+         return isInStream(token) ? token.getStopIndex() - token.getStartIndex() + 1 : -1;
+      }
+      int length = 0;
+      for (int i = 0; i < node.getChildCount(); i++) {
+         int childLength = getTokenLength(node.getChild(i));
+         if (childLength < 0) {
+            return -1;
+         }
+         length += childLength;
+      }
+      return length;
+   }
+}
@@ -0,0 +1,312 @@
+package ifscodereview;
+
+import ifscodereview.grammar.PlSqlLexer;
+import ifscodereview.grammar.PlSqlParser;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.FailedPredicateException;
+import org.antlr.v4.runtime.InputMismatchException;
+import org.antlr.v4.runtime.NoViableAltException;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.misc.IntervalSet;
+
+/**
+ * An error strategy that gives up on a unit at its first syntax error instead of repairing it token by token.
+ * The unit is the outermost procedure or function body, declaration or top-level statement enclosing the error.
+ * The tokens up to the next unit boundary are skipped: the next PROCEDURE or FUNCTION after a semicolon,
+ * the END name; closing a body, a semicolon followed by / or, between top-level statements, by the next statement.
+ * The broken unit is removed from the parse tree, so the rules never walk a partial tree, and the error is
+ * recorded as a {@link SyntaxDiagnostic} instead of being printed. The tokens of the unit are kept as a
+ * {@link SkippedUnit}, so that the unit can be parsed again on its own.
+ * The default strategy repairs every error with single token insertion and deletion and then reports the errors
+ * that follow from the repair, which can take longer than the whole parse of a valid file.
+ *
+ * @author pardha
+ */
+public class UnitRecoveryStrategy extends DefaultErrorStrategy {
+
+   /**
+    * A unit left out of the parse tree, given by its parser rule and the indexes of its first and last token.
+    */
+   public static class SkippedUnit {
+
+      private final int ruleIndex;
+      private final int startTokenIndex;
+      private final int stopTokenIndex;
+
+      public SkippedUnit(int ruleIndex, int startTokenIndex, int stopTokenIndex) {
+         this.ruleIndex = ruleIndex;
+         this.startTokenIndex = startTokenIndex;
+         this.stopTokenIndex = stopTokenIndex;
+      }
+
+      /**
+       * @return The parser rule of the unit, such as PlSqlParser.RULE_procedure_body.
+       */
+      public int getRuleIndex() {
+         return ruleIndex;
+      }
+
+      public int getStartTokenIndex() {
+         return startTokenIndex;
+      }
+
+      public int getStopTokenIndex() {
+         return stopTokenIndex;
+      }
+   }
+
+   // The units are detached when they break, but the parser still finishes them, and may run into further errors
+   private final Set<ParserRuleContext> brokenUnits = Collections.newSetFromMap(new IdentityHashMap<>());
+   private final List<SyntaxDiagnostic> diagnostics = new ArrayList<>();
+   private final List<SkippedUnit> skippedUnits = new ArrayList<>();
+   // The error reported last, which the next call of recover skips the unit for
+   private RecognitionException reportedError;
+
+   /**
+    * This method returns the syntax errors found so far, one for every unit that was skipped.
+    *
+    * @return The diagnostics in file order.
+    */
+   public List<SyntaxDiagnostic> getDiagnostics() {
+      return diagnostics;
+   }
+
+   /**
+    * This method returns the units left out of the parse tree, in file order.
+    *
+    * @return The skipped units.
+    */
+   public List<SkippedUnit> getSkippedUnits() {
+      return skippedUnits;
+   }
+
+   /**
+    * This method checks whether a node lies in a unit that was removed from the parse tree because of a syntax error.
+    * A unit being parsed is always the last child of its parent, so only the last children have to be compared.
+    *
+    * @param ctx A node of the parse tree being built.
+    * @return true if the node or one of its ancestors was detached.
+    */
+   public static boolean isDetached(ParserRuleContext ctx) {
+      for (ParserRuleContext node = ctx; node.getParent() != null; node = node.getParent()) {
+         ParserRuleContext parent = node.getParent();
+         if (parent.getChildCount() == 0 || parent.getChild(parent.getChildCount() - 1) != node) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   @Override
+   public void reportError(Parser recognizer, RecognitionException e) {
+      // Errors following the first one of a unit are not reported, the unit is skipped anyway
+      if (inErrorRecoveryMode(recognizer)) {
+         return;
+      }
+      beginErrorCondition(recognizer);
+      reportedError = e;
+   }
+
+   @Override
+   public void recover(Parser recognizer, RecognitionException e) {
+      // As in the default strategy, a token is consumed when the same error happens again at the same place
+      if (lastErrorIndex == recognizer.getInputStream().index() && lastErrorStates != null
+              && lastErrorStates.contains(recognizer.getState())) {
+         recognizer.consume();
+      }
+      lastErrorIndex = recognizer.getInputStream().index();
+      if (lastErrorStates == null) {
+         lastErrorStates = new IntervalSet();
+      }
+      lastErrorStates.add(recognizer.getState());
+
+      // The enclosing rules are left without recovery once the unit has been skipped
+      if (e == reportedError) {
+         reportedError = null;
+         skipUnit(recognizer, e.getOffendingToken() != null ? e.getOffendingToken() : recognizer.getCurrentToken(), getErrorMessage(recognizer, e));
+      }
+   }
+
+   @Override
+   public Token recoverInline(Parser recognizer) throws RecognitionException {
+      // No single token insertion or deletion, the error is passed to the rule like any other
+      throw new InputMismatchException(recognizer);
+   }
+
+   @Override
+   public void sync(Parser recognizer) throws RecognitionException {
+      // Errors are found when matching and predicting, except in the loop over the units of a package body.
+      // When the loop ends at a token the script cannot continue with either, the tokens are skipped up to the
+      // next unit here, since an error thrown from the loop would end the whole package body.
+      if (!(recognizer.getContext() instanceof PlSqlParser.Create_package_bodyContext)) {
+         return;
+      }
+      TokenStream tokens = recognizer.getInputStream();
+      if (tokens.LA(1) == Token.EOF || recognizer.isExpectedToken(tokens.LA(1))) {
+         return;
+      }
+      beginErrorCondition(recognizer);
+      Token offendingToken = recognizer.getCurrentToken();
+      do {
+         recognizer.consume();
+         skipToBoundary(recognizer, null);
+      } while (tokens.LA(1) != Token.EOF && !recognizer.isExpectedToken(tokens.LA(1)));
+      diagnostics.add(new SyntaxDiagnostic(offendingToken.getLine(), offendingToken.getCharPositionInLine(),
+              "extraneous input " + getTokenErrorDisplay(offendingToken), null, getResumeLine(tokens)));
+   }
+
+   /**
+    * This method removes the unit enclosing the current rule from the parse tree, records the error and
+    * skips the tokens up to the next unit boundary.
+    */
+   private void skipUnit(Parser recognizer, Token offendingToken, String message) {
+      ParserRuleContext unit = findUnit(recognizer.getContext());
+      boolean reported = unit != null && !brokenUnits.add(unit);
+      if (unit != null) {
+         detach(unit);
+      }
+
+      skipToBoundary(recognizer, unit);
+
+      if (!reported) {
+         if (unit != null) {
+            skippedUnits.add(new SkippedUnit(unit.getRuleIndex(), unit.getStart().getTokenIndex(), recognizer.getInputStream().index() - 1));
+         }
+         diagnostics.add(new SyntaxDiagnostic(offendingToken.getLine(), offendingToken.getCharPositionInLine(), message,
+                 describe(unit), getResumeLine(recognizer.getInputStream())));
+      }
+   }
+
+   /**
+    * This method returns the line of the next unit, after the semicolon and / left to the script.
+    */
+   private static int getResumeLine(TokenStream tokens) {
+      int i = 1;
+      while (tokens.LA(i) == PlSqlLexer.SEMICOLON || tokens.LA(i) == PlSqlLexer.SOLIDUS) {
+         i++;
+      }
+      return tokens.LT(i).getLine();
+   }
+
+   /**
+    * This method finds the unit to give up: the outermost procedure or function body, or else the declaration
+    * of the package or the top-level statement. An IFS package body without CREATE is a single top-level statement
+    * holding all units, so it is never given up as a whole.
+    */
+   private static ParserRuleContext findUnit(ParserRuleContext ctx) {
+      ParserRuleContext body = null;
+      ParserRuleContext declaration = null;
+      ParserRuleContext statement = null;
+      for (ParserRuleContext node = ctx; node != null; node = node.getParent()) {
+         if (node instanceof PlSqlParser.Procedure_bodyContext || node instanceof PlSqlParser.Function_bodyContext) {
+            body = node;
+         } else if (node instanceof PlSqlParser.Package_obj_bodyContext) {
+            declaration = node;
+         } else if (node instanceof PlSqlParser.Unit_statementContext) {
+            statement = node;
+         }
+      }
+      if (body != null) {
+         return body;
+      } else if (declaration != null) {
+         return declaration;
+      } else if (statement != null && !(statement.getChildCount() > 0 && statement.getChild(0) instanceof PlSqlParser.Create_package_bodyContext)) {
+         return statement;
+      }
+      return null;
+   }
+
+   /**
+    * This method removes a broken unit from the parse tree, so that neither the walk nor a parse listener sees it.
+    * A body is removed together with the package declaration holding it. A unit without parent loses its children.
+    */
+   private static void detach(ParserRuleContext unit) {
+      ParserRuleContext node = unit.getParent() instanceof PlSqlParser.Package_obj_bodyContext ? unit.getParent() : unit;
+      ParserRuleContext parent = node.getParent();
+      if (parent == null) {
+         node.children = null;
+      } else if (parent.getChildCount() > 0 && parent.getChild(parent.getChildCount() - 1) == node) {
+         parent.removeLastChild();
+      }
+   }
+
+   /**
+    * This method consumes the tokens up to the next unit boundary. A declaration ends with its semicolon,
+    * a body with END name; and a top-level statement before the semicolon followed by the next statement.
+    * Any unit ends before a semicolon followed by / and before PROCEDURE or FUNCTION following a semicolon.
+    * The semicolons before / and before the next statement are left to the script, which expects them.
+    */
+   private static void skipToBoundary(Parser recognizer, ParserRuleContext unit) {
+      TokenStream tokens = recognizer.getInputStream();
+      boolean declaration = unit instanceof PlSqlParser.Package_obj_bodyContext;
+      boolean statement = unit instanceof PlSqlParser.Unit_statementContext;
+      while (tokens.LA(1) != Token.EOF) {
+         int type = tokens.LA(1);
+         if (type == PlSqlLexer.SEMICOLON) {
+            if (tokens.LA(2) == PlSqlLexer.SOLIDUS || statement && UnitSplitter.STATEMENT_START_TYPES.contains(tokens.LA(2))) {
+               return;
+            }
+            recognizer.consume();
+            if (declaration) {
+               return;
+            }
+         } else if ((type == PlSqlLexer.PROCEDURE || type == PlSqlLexer.FUNCTION) && tokens.LA(-1) == PlSqlLexer.SEMICOLON) {
+            return;
+         } else if (type == PlSqlLexer.END && isUnitName(tokens.LA(2)) && tokens.LA(3) == PlSqlLexer.SEMICOLON) {
+            recognizer.consume();
+            recognizer.consume();
+            if (tokens.LA(2) != PlSqlLexer.SOLIDUS) {
+               recognizer.consume();
+            }
+            return;
+         } else {
+            recognizer.consume();
+         }
+      }
+   }
+
+   private static boolean isUnitName(int type) {
+      return type == PlSqlLexer.REGULAR_ID || type == PlSqlLexer.DELIMITED_ID;
+   }
+
+   private static String describe(ParserRuleContext unit) {
+      if (unit instanceof PlSqlParser.Procedure_bodyContext) {
+         PlSqlParser.Procedure_nameContext name = ((PlSqlParser.Procedure_bodyContext) unit).procedure_name();
+         return name != null ? "procedure " + name.getText() : "procedure";
+      } else if (unit instanceof PlSqlParser.Function_bodyContext) {
+         PlSqlParser.Function_nameContext name = ((PlSqlParser.Function_bodyContext) unit).function_name();
+         return name != null ? "function " + name.getText() : "function";
+      } else if (unit instanceof PlSqlParser.Package_obj_bodyContext) {
+         return "declaration at line " + unit.getStart().getLine();
+      } else if (unit != null) {
+         return "statement at line " + unit.getStart().getLine();
+      }
+      return null;
+   }
+
+   /**
+    * This method builds the message of an error, as the default strategy would report it to the error listeners.
+    * Long lists of expected tokens are left out.
+    */
+   private String getErrorMessage(Parser recognizer, RecognitionException e) {
+      if (e instanceof NoViableAltException) {
+         return "no viable alternative at input " + getTokenErrorDisplay(e.getOffendingToken());
+      } else if (e instanceof InputMismatchException) {
+         IntervalSet expected = e.getExpectedTokens();
+         return "mismatched input " + getTokenErrorDisplay(e.getOffendingToken())
+                 + (expected != null && expected.size() <= 5 ? " expecting " + expected.toString(recognizer.getVocabulary()) : "");
+      } else if (e instanceof FailedPredicateException) {
+         return "rule " + recognizer.getRuleNames()[recognizer.getContext().getRuleIndex()] + " " + e.getMessage();
+      }
+      return "syntax error at " + getTokenErrorDisplay(e.getOffendingToken());
+   }
+}
@@ -0,0 +1,336 @@
+package ifscodereview;
+
+import ifscodereview.grammar.PlSqlLexer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.WritableToken;
+
+/**
+ * Finds the procedure and function bodies and the other top-level units of an IFS PL/SQL file directly
+ * in the token stream, so that they can be parsed on their own without parsing the whole file.
+ * The units keep the original tokens, so the line numbers of their parse trees are those of the file.
+ *
+ * @author pardha
+ */
+public class UnitSplitter {
+
+   // Statements that start a new top-level unit when they follow a semicolon outside of any block
+   static final Set<Integer> STATEMENT_START_TYPES = new HashSet<>(Arrays.asList(
+           PlSqlLexer.INSERT, PlSqlLexer.UPDATE, PlSqlLexer.DELETE, PlSqlLexer.MERGE, PlSqlLexer.COMMIT,
+           PlSqlLexer.CREATE, PlSqlLexer.ALTER, PlSqlLexer.DROP, PlSqlLexer.GRANT, PlSqlLexer.TRUNCATE,
+           PlSqlLexer.COMMENT, PlSqlLexer.DECLARE, PlSqlLexer.BEGIN));
+
+   /**
+    * A procedure or function body, or another run of top-level code, given by the indexes of its first and last token.
+    */
+   public static class Unit {
+
+      private final String name;
+      private final int startTokenIndex;
+      private final int stopTokenIndex;
+      private final int startLine;
+      private final int stopLine;
+
+      public Unit(String name, List<Token> tokens, int startTokenIndex, int stopTokenIndex) {
+         this.name = name;
+         this.startTokenIndex = startTokenIndex;
+         this.stopTokenIndex = stopTokenIndex;
+         this.startLine = tokens.get(startTokenIndex).getLine();
+         this.stopLine = tokens.get(stopTokenIndex).getLine();
+      }
+
+      public String getName() {
+         return name;
+      }
+
+      public int getStartTokenIndex() {
+         return startTokenIndex;
+      }
+
+      public int getStopTokenIndex() {
+         return stopTokenIndex;
+      }
+
+      public int getStartLine() {
+         return startLine;
+      }
+
+      public int getStopLine() {
+         return stopLine;
+      }
+
+      public boolean containsAny(NavigableSet<Integer> lines) {
+         Integer line = lines.ceiling(startLine);
+         return line != null && line <= stopLine;
+      }
+
+      public List<Token> getTokens(List<Token> allTokens) {
+         return allTokens.subList(startTokenIndex, stopTokenIndex + 1);
+      }
+   }
+
+   /**
+    * This method finds the procedure and function bodies in a list of tokens.
+    * A body starts with PROCEDURE or FUNCTION and ends with "END name;" as required by the IFS coding guidelines.
+    * Forward declarations ending with a semicolon before IS/AS are skipped.
+    *
+    * @param tokens All tokens of the file, as returned by a filled CommonTokenStream.
+    * @return The bodies in the order they appear, or null if a body without a matching END was found.
+    */
+   public static List<Unit> findSubprograms(List<Token> tokens) {
+      List<Unit> units = new ArrayList<>();
+
+      int i = nextDefaultToken(tokens, 0);
+      while (i < tokens.size() && tokens.get(i).getType() != Token.EOF) {
+         Token token = tokens.get(i);
+         if (token.getType() != PlSqlLexer.PROCEDURE && token.getType() != PlSqlLexer.FUNCTION) {
+            i = nextDefaultToken(tokens, i + 1);
+            continue;
+         }
+
+         int nameIndex = nextDefaultToken(tokens, i + 1);
+         if (nameIndex >= tokens.size()) {
+            break;
+         }
+         String name = tokens.get(nameIndex).getText();
+
+         int j = findSpecificationEnd(tokens, nameIndex + 1);
+         if (j < 0) {
+            return null;
+         }
+         if (tokens.get(j).getType() == PlSqlLexer.SEMICOLON) {
+            i = nextDefaultToken(tokens, j + 1);
+            continue;
+         }
+
+         int endIndex = findEnd(tokens, j + 1, name);
+         if (endIndex < 0) {
+            return null;
+         }
+         units.add(new Unit(name, tokens, i, endIndex));
+         i = nextDefaultToken(tokens, endIndex + 1);
+      }
+      return units;
+   }
+
+   /**
+    * This method splits a file into top-level units that can be parsed on their own with the sql_script rule.
+    * A unit ends at a "/" terminator, before a procedure or function body of a package, around such a body,
+    * and before a statement such as INSERT or CREATE that follows a semicolon outside of any block.
+    * Nothing is split inside a CREATE statement. Together the units hold every token of the file except EOF,
+    * and comments and blank lines between units belong to the unit that follows them.
+    *
+    * The split is a heuristic on tokens only: a unit that fails to parse means the whole file has to be parsed instead.
+    *
+    * @param tokens All tokens of the file, as returned by a filled CommonTokenStream.
+    * @return The units in the order they appear, or null if a body without a matching END was found.
+    */
+   public static List<Unit> findTopLevelUnits(List<Token> tokens) {
+      List<Unit> units = new ArrayList<>();
+      int unitStart = 0;
+      int blockDepth = 0;
+      boolean inCreate = false;
+      int previous = -1;
+
+      int i = nextDefaultToken(tokens, 0);
+      while (i < tokens.size() && tokens.get(i).getType() != Token.EOF) {
+         int type = tokens.get(i).getType();
+         boolean afterTerminator = previous > 0 && tokens.get(previous).getType() == PlSqlLexer.SOLIDUS
+                 && tokens.get(previousDefaultToken(tokens, previous - 1)).getType() == PlSqlLexer.SEMICOLON;
+         boolean statementStart = previous < 0 || afterTerminator || tokens.get(previous).getType() == PlSqlLexer.SEMICOLON;
+
+         if (afterTerminator) {
+            // A "/" after a semicolon always ends a top-level statement
+            blockDepth = 0;
+            inCreate = false;
+            unitStart = addUnit(units, tokens, unitStart, i - 1);
+         }
+
+         if (statementStart && blockDepth == 0 && !inCreate) {
+            if (type == PlSqlLexer.PROCEDURE || type == PlSqlLexer.FUNCTION) {
+               int nameIndex = nextDefaultToken(tokens, i + 1);
+               int j = findSpecificationEnd(tokens, nameIndex + 1);
+               if (j < 0) {
+                  return null;
+               }
+               if (tokens.get(j).getType() == PlSqlLexer.IS || tokens.get(j).getType() == PlSqlLexer.AS) {
+                  String name = tokens.get(nameIndex).getText();
+                  int endIndex = findEnd(tokens, j + 1, name);
+                  if (endIndex < 0) {
+                     return null;
+                  }
+                  unitStart = addUnit(units, tokens, unitStart, i - 1);
+                  unitStart = addUnit(units, tokens, unitStart, endIndex);
+                  previous = endIndex;
+                  i = nextDefaultToken(tokens, endIndex + 1);
+                  continue;
+               }
+            } else if (STATEMENT_START_TYPES.contains(type)) {
+               unitStart = addUnit(units, tokens, unitStart, i - 1);
+               inCreate = type == PlSqlLexer.CREATE;
+            }
+         }
+
+         if (type == PlSqlLexer.BEGIN || type == PlSqlLexer.CASE) {
+            blockDepth++;
+         } else if (type == PlSqlLexer.END) {
+            // END IF and END LOOP close statements that were not counted
+            int next = nextDefaultToken(tokens, i + 1);
+            int nextType = next < tokens.size() ? tokens.get(next).getType() : Token.EOF;
+            if (nextType != PlSqlLexer.IF && nextType != PlSqlLexer.LOOP && blockDepth > 0) {
+               blockDepth--;
+            }
+         }
+         previous = i;
+         i = nextDefaultToken(tokens, i + 1);
+      }
+
+      // The remaining tokens form the last unit, or are only comments that are added to it
+      int lastIndex = i - 1;
+      if (addUnit(units, tokens, unitStart, lastIndex) == unitStart && unitStart <= lastIndex && !units.isEmpty()) {
+         Unit last = units.remove(units.size() - 1);
+         units.add(new Unit(last.getName(), tokens, last.getStartTokenIndex(), lastIndex));
+      }
+      return units;
+   }
+
+   /**
+    * This method joins adjacent units until each holds at least the given number of tokens,
+    * so that a file with many small statements is not parsed in hundreds of tiny pieces.
+    *
+    * @param units The top-level units of a file.
+    * @param tokens All tokens of the file.
+    * @param minTokens The minimum number of tokens of a joined unit, hidden tokens included.
+    * @return The joined units.
+    */
+   public static List<Unit> joinUnits(List<Unit> units, List<Token> tokens, int minTokens) {
+      List<Unit> joined = new ArrayList<>();
+      Unit first = null;
+      for (Unit unit : units) {
+         if (first == null) {
+            first = unit;
+         }
+         if (unit.getStopTokenIndex() - first.getStartTokenIndex() + 1 >= minTokens) {
+            joined.add(new Unit(first.getName(), tokens, first.getStartTokenIndex(), unit.getStopTokenIndex()));
+            first = null;
+         }
+      }
+      if (first != null) {
+         Unit last = units.get(units.size() - 1);
+         joined.add(new Unit(first.getName(), tokens, first.getStartTokenIndex(), last.getStopTokenIndex()));
+      }
+      return joined;
+   }
+
+   /**
+    * This method gives the tokens back their index in the file.
+    * A CommonTokenStream over a ListTokenSource renumbers the tokens it reads, starting from zero for every unit.
+    *
+    * @param tokens All tokens of the file.
+    */
+   public static void restoreTokenIndexes(List<Token> tokens) {
+      for (int i = 0; i < tokens.size(); i++) {
+         ((WritableToken) tokens.get(i)).setTokenIndex(i);
+      }
+   }
+
+   /**
+    * This method checks whether all changed lines fall within the given units.
+    * Changes outside of the units, such as global declarations, need the whole file to be reviewed.
+    *
+    * @param units The procedure and function bodies of the file.
+    * @param lines The changed lines of the file.
+    * @return true if every changed line is part of a unit, false otherwise.
+    */
+   public static boolean coversAll(List<Unit> units, NavigableSet<Integer> lines) {
+      for (Integer line : lines) {
+         boolean covered = false;
+         for (Unit unit : units) {
+            if (line >= unit.getStartLine() && line <= unit.getStopLine()) {
+               covered = true;
+               break;
+            }
+         }
+         if (!covered) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * This method adds the tokens from start to stop as a unit, unless they are only comments and whitespace.
+    *
+    * @return The start of the next unit: stop + 1 if a unit was added, otherwise start.
+    */
+   private static int addUnit(List<Unit> units, List<Token> tokens, int start, int stop) {
+      int first = nextDefaultToken(tokens, start);
+      if (first > stop || first >= tokens.size() || tokens.get(first).getType() == Token.EOF) {
+         return start;
+      }
+      units.add(new Unit(tokens.get(first).getText(), tokens, start, stop));
+      return stop + 1;
+   }
+
+   /**
+    * This method finds the IS/AS of a body, or the semicolon of a forward declaration.
+    *
+    * @return The index of the IS, AS or semicolon, or -1 if the file ends first.
+    */
+   static int findSpecificationEnd(List<Token> tokens, int from) {
+      int parenthesisDepth = 0;
+      int j = nextDefaultToken(tokens, from);
+      while (j < tokens.size()) {
+         int type = tokens.get(j).getType();
+         if (type == Token.EOF) {
+            return -1;
+         } else if (type == PlSqlLexer.LEFT_PAREN) {
+            parenthesisDepth++;
+         } else if (type == PlSqlLexer.RIGHT_PAREN) {
+            parenthesisDepth--;
+         } else if (parenthesisDepth == 0 && (type == PlSqlLexer.IS || type == PlSqlLexer.AS || type == PlSqlLexer.SEMICOLON)) {
+            return j;
+         }
+         j = nextDefaultToken(tokens, j + 1);
+      }
+      return -1;
+   }
+
+   private static int findEnd(List<Token> tokens, int from, String name) {
+      int i = nextDefaultToken(tokens, from);
+      while (i < tokens.size() && tokens.get(i).getType() != Token.EOF) {
+         if (tokens.get(i).getType() == PlSqlLexer.END) {
+            int nameIndex = nextDefaultToken(tokens, i + 1);
+            if (nameIndex < tokens.size() && tokens.get(nameIndex).getText().equalsIgnoreCase(name)) {
+               int semicolonIndex = nextDefaultToken(tokens, nameIndex + 1);
+               if (semicolonIndex < tokens.size() && tokens.get(semicolonIndex).getType() == PlSqlLexer.SEMICOLON) {
+                  return semicolonIndex;
+               }
+            }
+         }
+         i = nextDefaultToken(tokens, i + 1);
+      }
+      return -1;
+   }
+
+   static int previousDefaultToken(List<Token> tokens, int from) {
+      int i = from;
+      while (i > 0 && tokens.get(i).getChannel() != Token.DEFAULT_CHANNEL) {
+         i--;
+      }
+      return Math.max(i, 0);
+   }
+
+   static int nextDefaultToken(List<Token> tokens, int from) {
+      int i = from;
+      while (i < tokens.size() && tokens.get(i).getChannel() != Token.DEFAULT_CHANNEL) {
+         i++;
+      }
+      return i;
+   }
+}